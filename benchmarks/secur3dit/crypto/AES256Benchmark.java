@@ -0,0 +1,89 @@
+package secur3dit.crypto;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This class benchmarks the single-block AES-256 primitives: the key schedule,
+ * the one-shot {@code encrypt(state, key)} and the per-block path of both cipher cores.
+ * It lives in the crypto package so that the package-private key schedule can be measured.
+ * @author Priyanshul Govil
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AES256Benchmark {
+
+    @Param({"REFERENCE", "T_TABLE"})
+    public CipherCore core;
+
+    private byte[] key;
+    private byte[] state;
+    private byte[] out;
+    private BlockCipher cipher;
+
+    /**
+     * Prepares a random key and block, and a cipher for the core under test.
+     */
+    @Setup
+    public void setup() {
+
+        Random random = new Random(42);
+        key = new byte[32];
+        state = new byte[16];
+        out = new byte[16];
+        random.nextBytes(key);
+        random.nextBytes(state);
+        cipher = core.newCipher(key);
+    }
+
+    /**
+     * The AES-256 key schedule on its own.
+     * @return  The round keys, so that the work is not optimized away.
+     */
+    @Benchmark
+    public int[] keyExpansion() {
+        return Helpers.keyExpansion(key);
+    }
+
+    /**
+     * The one-shot API, which runs the key schedule and encrypts one block in place.
+     * @return  The block.
+     */
+    @Benchmark
+    public byte[] encryptWithKey() {
+
+        if (core == CipherCore.REFERENCE) {
+            AES256.encrypt(state, key);
+        }
+        else {
+            AES256TTable.encrypt(state, key);
+        }
+        return state;
+    }
+
+    /**
+     * One block with the round keys already expanded, as used by CTR mode.
+     * @return  The encrypted block.
+     */
+    @Benchmark
+    public byte[] encryptBlock() {
+
+        cipher.encryptBlock(state, 0, out, 0);
+        return out;
+    }
+}
@@ -0,0 +1,129 @@
+package secur3dit.crypto;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This class benchmarks file encryption with AES256CTR.
+ * Each operation encrypts a file and decrypts it again, so the file is back to its
+ * original contents for the next one. The {@code megabytes} counter gives MB/s directly.
+ * @author Priyanshul Govil
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AES256CTRBenchmark {
+
+    /**
+     * The file size in bytes: 1 KB, 1 MB and 1 GB.
+     */
+    @Param({"1024", "1048576", "1073741824"})
+    public long size;
+
+    /**
+     * serial, parallel (common pool) or mapped (in place, common pool).
+     */
+    @Param({"serial", "parallel", "mapped"})
+    public String mode;
+
+    @Param({"JAVA", "JCE"})
+    public Backend backend;
+
+    /**
+     * With tags, decryption also reads the file once more to check them.
+     */
+    @Param({"false", "true"})
+    public boolean authenticated;
+
+    private AES256CTR ob;
+    private Path path;
+    private ForkJoinPool pool;
+
+    /**
+     * Counts the megabytes encrypted and decrypted, reported by JMH as MB/s.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+        }
+    }
+
+    /**
+     * Writes a file of random data and prepares the cipher.
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException, NoSuchAlgorithmException {
+
+        ob = new AES256CTR("secur3dit", backend, CipherCore.T_TABLE, CounterLayout.ADD_128, authenticated);
+        pool = mode.equals("serial") ? null : ForkJoinPool.commonPool();
+        path = Files.createTempFile("secur3dit-bench", ".bin");
+
+        Random random = new Random(42);
+        byte[] data = new byte[1 << 20];
+        try (OutputStream out = Files.newOutputStream(path)) {
+            for (long written = 0; written < size; written += data.length) {
+                random.nextBytes(data);
+                out.write(data, 0, (int) Math.min(data.length, size - written));
+            }
+        }
+    }
+
+    /**
+     * Deletes the file.
+     * @throws IOException
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.delete(path);
+    }
+
+    /**
+     * Encrypts the file and decrypts it back.
+     * @param bytes     The counter of megabytes processed.
+     * @throws IOException
+     */
+    @Benchmark
+    public void roundTrip(Bytes bytes) throws IOException {
+
+        if (mode.equals("mapped")) {
+            AES256CTR.encryptMapped(ob, path.toString(), pool);
+            AES256CTR.decryptionMapped(ob, path.toString(), pool);
+        }
+        else {
+            AES256CTR.encrypt(ob, path.toString(), pool);
+            AES256CTR.decryption(ob, path.toString(), pool);
+        }
+        bytes.megabytes += 2.0 * size / (1 << 20);
+    }
+}
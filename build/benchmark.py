@@ -0,0 +1,43 @@
+import glob
+import json
+import os
+import sys
+import subprocess
+
+# Runs the JMH benchmarks under benchmarks/ against the crypto package.
+# Any arguments are passed on to JMH, for example:
+#   py benchmark.py AES256CTRBenchmark -p size=1048576
+# Results are written to ..\output\benchmark.json
+
+# Check for dependencies
+
+file = open("depend.json")
+data = json.load(file)
+file.close()
+
+for name in data["benchmark"]:
+    if os.path.exists(os.path.join("lib", name)) == False:
+        print("You need to get ", name)
+        sys.exit()
+
+classpath = os.pathsep.join(os.path.join("lib", name) for name in data["benchmark"])
+classes = os.path.join("..", "output", "benchmarks")
+results = os.path.join("..", "output", "benchmark.json")
+
+# Compile the crypto package together with the benchmarks, so that JMH generates its harness
+
+sources = glob.glob(os.path.join("..", "src", "secur3dit", "crypto", "*.java"))
+sources += glob.glob(os.path.join("..", "benchmarks", "secur3dit", "crypto", "*.java"))
+
+os.makedirs(classes, exist_ok=True)
+javac = ["javac", "-cp", classpath, "-d", classes] + sources
+if subprocess.run(javac).returncode != 0:
+    sys.exit()
+
+# Run with the GC profiler for allocation rates, and save the results as JSON
+
+java = ["java", "-cp", classes + os.pathsep + classpath, "org.openjdk.jmh.Main",
+        "-prof", "gc", "-rf", "json", "-rff", results] + sys.argv[1:]
+subprocess.run(java)
+
+print("Results written to", results)
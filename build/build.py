@@ -21,6 +21,7 @@ javac = "javac --module-path lib\\javafx-sdk-11.0.2\\lib --add-modules javafx.ba
 end_at = " -d ..\\" + "src"
 
 subprocess.run(javac + "Main.java" + end_at, shell=True)
+subprocess.run(javac + "Cli.java" + end_at, shell=True)
 subprocess.run(javac + "crypto\\" + "AES256CTR.java" + end_at, shell=True)
 subprocess.run(javac + "filters\\" + "Filters.java" + end_at, shell=True)
 subprocess.run(javac + "ui\\" + "homepageController.java" + end_at, shell=True)
@@ -59,6 +60,10 @@ subprocess.run(copy_jar, shell=True)
 copy_launcher = "copy launcher.bat ..\\output"
 subprocess.run(copy_launcher, shell=True)
 
+# Copy command line launcher to output
+copy_cli = "copy cli.bat ..\\output"
+subprocess.run(copy_cli, shell=True)
+
 # Make temp folder in output
 make_temp = "mkdir ..\\output\\temp"
 
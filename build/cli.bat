@@ -0,0 +1,2 @@
+@ECHO OFF
+java -cp app.jar secur3dit.Cli %*
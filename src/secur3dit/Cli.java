@@ -0,0 +1,692 @@
+package secur3dit;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.Console;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.imageio.ImageIO;
+import secur3dit.crypto.AES256CTR;
+import secur3dit.crypto.Backend;
+import secur3dit.crypto.CipherCore;
+import secur3dit.crypto.CounterLayout;
+import secur3dit.crypto.CryptoMetrics;
+import secur3dit.crypto.Progress;
+import secur3dit.filters.FilterPipeline;
+import secur3dit.filters.Filters;
+
+/**
+ * Command line entry point, which runs the crypto and filter engines without JavaFX,
+ * e.g. on a server or from a script. Nothing in this class touches JavaFX or a display,
+ * so it starts as fast as the JVM does.
+ *
+ * Usage:
+ *      secur3dit encrypt [options] inputs...
+ *      secur3dit decrypt [options] inputs...
+ *      secur3dit filter -f name[=value] [-f name[=value]...] [options] inputs...
+ *
+ * Inputs are files, directories (walked recursively) or glob patterns such as
+ * {@code photos/**.png}, which are expanded here so that they work on every shell.
+ * Files are replaced by their output unless {@code -o} names a directory for the outputs,
+ * where each file keeps its path below the directory or glob root it was found in.
+ * One line is printed per file with its time, or one JSON object per line with {@code --json},
+ * followed by a summary, and by the crypto metrics on stderr with {@code --metrics}.
+ * The exit status is 0 on success, 1 if a file failed, 2 on a usage error.
+ *
+ * @author Naman Nihal
+ */
+public final class Cli {
+
+    /**
+     * Files from this size on are split across the pool, smaller files are
+     * processed whole, several at a time.
+     */
+    private static final long LARGE_FILE = 1 << 24;
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+        "Usage: secur3dit encrypt|decrypt [options] inputs...",
+        "       secur3dit filter -f name[=value]... [options] inputs...",
+        "",
+        "Options:",
+        "  -o, --output DIR        Write the outputs to DIR and keep the inputs",
+        "  -j, --threads N         Number of threads, 1 for serial mode (default: all cores)",
+        "  -f, --filter SPEC       A filter to apply, in order: mirror[=vertical], rotate=DEGREES,",
+        "                          edges, brighten=DIAL, darken=DIAL, grayscale, sepia, negative,",
+        "                          watermark=TEXT, boxblur=RADIUS, blur=INTENSITY, posterize,",
+        "                          pixelate=WIDTH, sharpen=INTENSITY",
+        "      --password-env VAR  Read the password from the environment variable VAR",
+        "                          (default: ask on the console, or read a line from stdin)",
+        "      --legacy            Also decrypt files without authentication tags, e.g. from older",
+        "                          versions. A wrong password makes them unreadable for good",
+        "      --json              Print one JSON object per file, then one for the summary",
+        "      --metrics           Print the read, write, cipher and key derivation times",
+        "                          to stderr at the end",
+        "  -h, --help              Print this message");
+
+    private final PrintStream out;
+    private boolean json;
+    private boolean metrics;
+    private boolean legacy;
+    private String command;
+    private Path outputDirectory;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private String passwordVariable;
+    private final List<String> filterSpecs = new ArrayList<>();
+    private final List<String> inputs = new ArrayList<>();
+
+    /**
+     * Set by the shutdown hook on Ctrl+C, so that the files being processed
+     * are left as they were instead of half-written temporary files.
+     */
+    private volatile boolean interrupted;
+
+    private final Progress progress = new Progress() {
+
+        @Override
+        public void advance(long bytes) {
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return interrupted;
+        }
+    };
+
+    /**
+     * The outcome of one file.
+     */
+    private static final class Result {
+
+        final Path input;
+        final long bytes;
+        final long nanos;
+        final Exception error;
+
+        Result(Path input, long bytes, long nanos, Exception error) {
+            this.input = input;
+            this.bytes = bytes;
+            this.nanos = nanos;
+            this.error = error;
+        }
+    }
+
+    private Cli(PrintStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Runs the command line and exits with its status.
+     * @param args  See the class comment.
+     */
+    public static void main(String[] args) {
+
+        System.setProperty("java.awt.headless", "true");
+        System.exit(new Cli(System.out).run(args));
+    }
+
+    /**
+     * @param args  The arguments.
+     * @return      The exit status.
+     */
+    int run(String[] args) {
+
+        try {
+            if (!parse(args)) {
+                out.println(USAGE);
+                return 0;
+            }
+
+            FilterPipeline filters = new FilterPipeline();
+            for (String spec : filterSpecs) {
+                addFilter(filters, spec);
+            }
+            if (command.equals("filter") && filters.isEmpty()) {
+                throw new IllegalArgumentException("filter needs at least one -f");
+            }
+
+            Map<Path, Path> files = expand(inputs);
+            if (files.isEmpty()) {
+                throw new IllegalArgumentException("No input file");
+            }
+            if (outputDirectory != null) {
+                checkOutputs(files);
+                Files.createDirectories(outputDirectory);
+            }
+
+            AES256CTR ob = command.equals("filter") ? null : newCipher(readPassword());
+            return process(files, ob, filters);
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println("secur3dit: " + e.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+        catch (IOException | NoSuchAlgorithmException e) {
+            System.err.println("secur3dit: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    /**
+     * Reads the options and inputs.
+     * @param args  The arguments.
+     * @return      {@code false} if only the usage was asked for.
+     * @throws IllegalArgumentException If the arguments are not valid.
+     */
+    private boolean parse(String[] args) {
+
+        if (args.length == 0) {
+            throw new IllegalArgumentException("No command");
+        }
+        command = args[0];
+        if (command.equals("-h") || command.equals("--help")) {
+            return false;
+        }
+        if (!Arrays.asList("encrypt", "decrypt", "filter").contains(command)) {
+            throw new IllegalArgumentException("Unknown command: " + command);
+        }
+
+        for (int i = 1; i < args.length; ++i) {
+            String arg = args[i];
+            switch (arg) {
+                case "-h":
+                case "--help":
+                    return false;
+                case "--json":
+                    json = true;
+                    break;
+                case "--metrics":
+                    metrics = true;
+                    break;
+                case "-o":
+                case "--output":
+                    outputDirectory = Paths.get(value(args, ++i, arg));
+                    break;
+                case "-j":
+                case "--threads":
+                    try {
+                        threads = Integer.parseInt(value(args, ++i, arg));
+                    }
+                    catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Not a number of threads: " + args[i]);
+                    }
+                    if (threads < 1) {
+                        throw new IllegalArgumentException("At least one thread is needed");
+                    }
+                    break;
+                case "-f":
+                case "--filter":
+                    filterSpecs.add(value(args, ++i, arg));
+                    break;
+                case "--password-env":
+                    passwordVariable = value(args, ++i, arg);
+                    break;
+                case "--legacy":
+                    legacy = true;
+                    break;
+                case "--":
+                    inputs.addAll(Arrays.asList(args).subList(i + 1, args.length));
+                    return true;
+                default:
+                    if (arg.startsWith("-") && arg.length() > 1) {
+                        throw new IllegalArgumentException("Unknown option: " + arg);
+                    }
+                    inputs.add(arg);
+            }
+        }
+        if (!command.equals("filter") && !filterSpecs.isEmpty()) {
+            throw new IllegalArgumentException("-f only applies to filter");
+        }
+        if (!command.equals("decrypt") && legacy) {
+            throw new IllegalArgumentException("--legacy only applies to decrypt");
+        }
+        return true;
+    }
+
+    private static String value(String[] args, int index, String option) {
+
+        if (index >= args.length) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args[index];
+    }
+
+    /**
+     * Adds a filter of the command line to the pipeline.
+     * @param filters   The pipeline.
+     * @param spec      The name of the filter, followed by {@code =value} if it takes one.
+     * @throws IllegalArgumentException If the filter or its value is not valid.
+     */
+    private static void addFilter(FilterPipeline filters, String spec) {
+
+        int equals = spec.indexOf('=');
+        String name = (equals < 0 ? spec : spec.substring(0, equals)).toLowerCase(Locale.ROOT);
+        String value = equals < 0 ? null : spec.substring(equals + 1);
+
+        try {
+            switch (name) {
+                case "mirror":
+                    boolean vertical = value == null || value.equals("vertical");
+                    if (value != null && !vertical && !value.equals("horizontal")) {
+                        throw new IllegalArgumentException("mirror is vertical or horizontal");
+                    }
+                    filters.mirror(vertical);
+                    break;
+                case "rotate":
+                    filters.rotate(Double.parseDouble(required(name, value)));
+                    break;
+                case "edges":
+                    filters.detectEdges();
+                    break;
+                case "brighten":
+                    filters.brighten(Double.parseDouble(required(name, value)));
+                    break;
+                case "darken":
+                    filters.darken(Double.parseDouble(required(name, value)));
+                    break;
+                case "grayscale":
+                    filters.grayscale();
+                    break;
+                case "sepia":
+                    filters.sepia();
+                    break;
+                case "negative":
+                    filters.negative();
+                    break;
+                case "watermark":
+                    filters.addWatermark(required(name, value));
+                    break;
+                case "boxblur":
+                    filters.boxBlur(Integer.parseInt(required(name, value)));
+                    break;
+                case "blur":
+                    filters.gaussianBlur(Integer.parseInt(required(name, value)));
+                    break;
+                case "posterize":
+                    filters.posterize();
+                    break;
+                case "pixelate":
+                    filters.pixelate(Integer.parseInt(required(name, value)));
+                    break;
+                case "sharpen":
+                    filters.sharpen(Integer.parseInt(required(name, value)));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown filter: " + name);
+            }
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number for " + name + ": " + value);
+        }
+    }
+
+    private static String required(String name, String value) {
+
+        if (value == null) {
+            throw new IllegalArgumentException(name + " needs a value, e.g. " + name + "=1");
+        }
+        return value;
+    }
+
+    /**
+     * Expands the inputs into regular files, in order and without duplicates.
+     * Each file is mapped to the path of its output below {@code -o}: the name of a file
+     * given as is, the directory name and the path below it for a directory,
+     * and the path below the glob root for a pattern.
+     * @param patterns  Files, directories or glob patterns.
+     * @return          The files, mapped to their relative output paths.
+     * @throws IOException
+     * @throws IllegalArgumentException If an input matches nothing.
+     */
+    private static Map<Path, Path> expand(List<String> patterns) throws IOException {
+
+        Map<Path, Path> files = new LinkedHashMap<>();
+        for (String pattern : patterns) {
+
+            List<Path> matches;
+            Path base;
+            int wildcard = indexOfWildcard(pattern);
+            if (wildcard < 0) {
+                Path path = Paths.get(pattern);
+                if (!Files.exists(path)) {
+                    throw new IllegalArgumentException("No such file: " + pattern);
+                }
+                matches = walk(path, candidate -> true);
+                // A directory keeps its own name, like cp -r
+                Path name = path.toAbsolutePath().normalize().getFileName();
+                base = Files.isDirectory(path) ? path.resolve(name == null ? "" : "..") : null;
+            }
+            else {
+                // Walk from the last directory before the first wildcard
+                int slash = Math.max(pattern.lastIndexOf('/', wildcard), pattern.lastIndexOf('\\', wildcard));
+                Path root = Paths.get(slash < 0 ? "" : pattern.substring(0, slash + 1));
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher(
+                    "glob:" + pattern.substring(slash + 1).replace('\\', '/'));
+                matches = Files.isDirectory(root)
+                        ? walk(root, candidate -> matcher.matches(root.relativize(candidate)))
+                        : new ArrayList<>();
+                if (matches.isEmpty()) {
+                    throw new IllegalArgumentException("No file matches " + pattern);
+                }
+                base = root;
+            }
+            for (Path match : matches) {
+                files.putIfAbsent(match, base == null ? match.getFileName() : relative(base, match));
+            }
+        }
+        return files;
+    }
+
+    private static Path relative(Path base, Path file) {
+
+        return base.toAbsolutePath().normalize().relativize(file.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Checks that no two inputs are written to the same output, before any file is started.
+     * @param files The files, mapped to their relative output paths.
+     * @throws IllegalArgumentException If two outputs are the same.
+     */
+    private void checkOutputs(Map<Path, Path> files) {
+
+        Map<Path, Path> inputs = new HashMap<>();
+        for (Map.Entry<Path, Path> file : files.entrySet()) {
+            Path output = outputDirectory.resolve(file.getValue());
+            Path other = inputs.putIfAbsent(output, file.getKey());
+            if (other != null) {
+                throw new IllegalArgumentException(
+                    other + " and " + file.getKey() + " would both be written to " + output);
+            }
+        }
+    }
+
+    private static int indexOfWildcard(String pattern) {
+
+        for (int i = 0; i < pattern.length(); ++i) {
+            if ("*?[{".indexOf(pattern.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static List<Path> walk(Path root, Predicate<Path> filter) throws IOException {
+
+        try (Stream<Path> paths = Files.walk(root)) {
+            // Temporary files left by a run which was killed are not inputs
+            return paths.filter(Files::isRegularFile).filter(path -> !AES256CTR.isTemporaryFile(path))
+                        .filter(filter).sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * @param password  The password.
+     * @return          The instance which encrypts or decrypts the files, which only
+     *                  accepts files without tags with {@code --legacy}.
+     * @throws NoSuchAlgorithmException
+     */
+    private AES256CTR newCipher(String password) throws NoSuchAlgorithmException {
+
+        if (legacy) {
+            return new AES256CTR(password, Backend.configured(), CipherCore.T_TABLE, CounterLayout.ADD_128, false);
+        }
+        return new AES256CTR(password);
+    }
+
+    /**
+     * Reads the password from the environment, the console, or the first line of stdin.
+     * The password is never taken from the arguments, which other users can see.
+     * @return  The password.
+     * @throws IOException
+     */
+    private String readPassword() throws IOException {
+
+        if (passwordVariable != null) {
+            String password = System.getenv(passwordVariable);
+            if (password == null || password.isEmpty()) {
+                throw new IllegalArgumentException("The environment variable " + passwordVariable + " is not set");
+            }
+            return password;
+        }
+
+        Console console = System.console();
+        if (console != null) {
+            char[] password = console.readPassword("Password: ");
+            if (command.equals("encrypt") && !Arrays.equals(password, console.readPassword("Repeat password: "))) {
+                throw new IllegalArgumentException("Passwords didn't match");
+            }
+            if (password == null || password.length == 0) {
+                throw new IllegalArgumentException("No password");
+            }
+            return new String(password);
+        }
+
+        String password = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)).readLine();
+        if (password == null || password.isEmpty()) {
+            throw new IllegalArgumentException("No password");
+        }
+        return password;
+    }
+
+    /**
+     * Processes the files on a pool of {@code threads} threads, and prints their results in order.
+     * The filters run on the same pool, so a large image keeps every thread busy.
+     * On Ctrl+C, the files being processed are cancelled and left as they were,
+     * and the files not started yet are skipped.
+     * @return  The exit status.
+     */
+    private int process(Map<Path, Path> files, AES256CTR ob, FilterPipeline filters) {
+
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        // The rows of an image are split across the same threads as the files
+        Filters.setPool(pool);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread hook = new Thread(() -> {
+            interrupted = true;
+            try {
+                done.await(10, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(hook);
+
+        long start = System.nanoTime();
+        long bytes = 0;
+        int failed = 0;
+        try {
+            List<Callable<Result>> tasks = new ArrayList<>();
+            List<Future<Result>> futures = new ArrayList<>();
+            for (Map.Entry<Path, Path> file : files.entrySet()) {
+                tasks.add(() -> processFile(file.getKey(), file.getValue(), ob, filters, pool));
+                if (pool != null) {
+                    futures.add(pool.submit(tasks.get(tasks.size() - 1)));
+                }
+            }
+
+            for (int i = 0; i < tasks.size(); ++i) {
+                Result result = pool == null ? tasks.get(i).call() : futures.get(i).get();
+                print(result);
+                if (result.error == null) {
+                    bytes += result.bytes;
+                }
+                else {
+                    ++failed;
+                }
+            }
+        }
+        catch (Exception e) {
+            // processFile catches every failure of a file, so this is an interrupt
+            failed = files.size();
+        }
+        finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+
+        printSummary(files.size(), failed, bytes, System.nanoTime() - start);
+        if (metrics && ob != null) {
+            System.err.print(CryptoMetrics.get().dump());
+        }
+        done.countDown();
+        try {
+            Runtime.getRuntime().removeShutdownHook(hook);
+        }
+        catch (IllegalStateException e) {
+            // The hook is already running
+        }
+        return failed == 0 ? 0 : 1;
+    }
+
+    /**
+     * Processes one file.
+     * @param relative  The path of the output below {@code -o}.
+     * @param pool      The pool to split a large file across, {@code null} for serial mode.
+     * @return          The result, which holds the exception if the file failed.
+     */
+    private Result processFile(Path input, Path relative, AES256CTR ob, FilterPipeline filters,
+            ForkJoinPool pool) {
+
+        long start = System.nanoTime();
+        try {
+            if (interrupted) {
+                throw new CancellationException("Not started");
+            }
+            long bytes = Files.size(input);
+            Path output = input;
+            if (outputDirectory != null) {
+                output = outputDirectory.resolve(relative);
+                Files.createDirectories(output.getParent());
+            }
+            ForkJoinPool split = bytes >= LARGE_FILE ? pool : null;
+
+            if (command.equals("encrypt")) {
+                AES256CTR.encrypt(ob, input.toString(), output.toString(), split, progress);
+            }
+            else if (command.equals("decrypt")) {
+                AES256CTR.decryption(ob, input.toString(), output.toString(), split, progress);
+            }
+            else {
+                filter(input, output, filters);
+            }
+            return new Result(input, bytes, System.nanoTime() - start, null);
+        }
+        catch (IOException | RuntimeException e) {
+            return new Result(input, 0, System.nanoTime() - start, e);
+        }
+    }
+
+    /**
+     * Applies the filters to an image, and writes it in the format of its extension.
+     * The output is written to a temporary file first, so a failure never leaves
+     * a partly written image.
+     */
+    private static void filter(Path input, Path output, FilterPipeline filters)
+            throws IOException {
+
+        BufferedImage image = ImageIO.read(input.toFile());
+        if (image == null) {
+            throw new IOException("Not an image");
+        }
+        image = filters.apply(image);
+
+        String name = output.getFileName().toString();
+        String format = name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+        File temp = AES256CTR.createTemporaryFile(output).toFile();
+        try {
+            if (!ImageIO.write(image, format, temp)) {
+                throw new IOException("Cannot write the format " + format);
+            }
+            Files.move(temp.toPath(), output, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    private void print(Result result) {
+
+        double millis = result.nanos / 1e6;
+        String status = result.error == null ? "ok"
+                      : result.error instanceof CancellationException ? "cancelled" : "error";
+        if (json) {
+            out.println(String.format(Locale.ROOT,
+                "{\"file\":%s,\"operation\":\"%s\",\"status\":\"%s\",\"bytes\":%d,\"millis\":%.3f%s}",
+                quote(result.input.toString()), command, status, result.bytes, millis,
+                result.error == null ? "" : ",\"error\":" + quote(String.valueOf(result.error.getMessage()))));
+        }
+        else if (result.error == null) {
+            out.println(String.format(Locale.ROOT, "%s  %.1f MB  %.1f ms  %.1f MB/s", result.input,
+                                      result.bytes / 1048576.0, millis, megabytesPerSecond(result.bytes, result.nanos)));
+        }
+        else {
+            out.println(result.input + "  " + status.toUpperCase(Locale.ROOT) + ": " + result.error.getMessage());
+        }
+    }
+
+    private void printSummary(int files, int failed, long bytes, long nanos) {
+
+        if (json) {
+            out.println(String.format(Locale.ROOT,
+                "{\"summary\":true,\"operation\":\"%s\",\"files\":%d,\"failed\":%d,\"bytes\":%d," +
+                "\"millis\":%.3f,\"megabytesPerSecond\":%.3f,\"threads\":%d}",
+                command, files, failed, bytes, nanos / 1e6, megabytesPerSecond(bytes, nanos), threads));
+        }
+        else {
+            out.println(String.format(Locale.ROOT, "%d files, %d failed, %.1f MB in %.1f ms, %.1f MB/s",
+                                      files, failed, bytes / 1048576.0, nanos / 1e6, megabytesPerSecond(bytes, nanos)));
+        }
+    }
+
+    private static double megabytesPerSecond(long bytes, long nanos) {
+        return nanos == 0 ? 0 : bytes / 1048576.0 / (nanos / 1e9);
+    }
+
+    /**
+     * @return  {@code value} as a JSON string.
+     */
+    private static String quote(String value) {
+
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            }
+            else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
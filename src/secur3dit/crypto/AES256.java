@@ -5,35 +5,95 @@ package secur3dit.crypto;
  * Details at: https://en.wikipedia.org/wiki/Advanced_Encryption_Standard
  * @author  Priyanshul Govil
  */
-public final class AES256 {
+public final class AES256 implements BlockCipher {
 
     private static final int ROUND_COUNT = 14;
-    
+
     /**
-     * This method performs AES-256 encryption on 16 bytes of data.
-     * @param state      The 16 byte data block stored as char[16].
+     * Per-thread state block used by {@code encryptBlock}, so that encrypting
+     * a block does not allocate and one instance can be shared between threads.
+     */
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[16]);
+
+    /**
+     * The 15 round keys, expanded once from the key and reused for every block.
+     */
+    private final int[] roundKeys;
+
+    /**
+     * Prepares the cipher for a key by running the key schedule once.
+     * @param key       The 256-bit key stored as byte[32].
+     */
+    public AES256(byte[] key) {
+        super();
+        this.roundKeys = Helpers.keyExpansion(key);
+    }
+
+    /**
+     * Prepares the cipher for a key by running the key schedule once.
      * @param key       The 256-bit key stored as char[32].
+     */
+    public AES256(char[] key) {
+        this(Helpers.toBytes(key));
+    }
+
+    /**
+     * This method performs AES-256 encryption on 16 bytes of data,
+     * using the round keys prepared by the constructor.
+     * @param state     The 16 byte data block.
      * @return Nothing  The data gets encrypted.
      */
-    public static void encrypt(char[] state, char[] key) {
-        
-        // Step 1: Key Expansion
-        char[][] keys = Helpers.keyExpansion(key);
+    public void encrypt(byte[] state) {
 
-        // Step 2: Intial Round Key Addtion
-        Helpers.addRoundKey(state, keys[0]);
+        // Step 1: Intial Round Key Addtion
+        Helpers.addRoundKey(state, roundKeys, 0);
 
-        // Step 3: 13 rounds
+        // Step 2: 13 rounds
         for (int i = 1; i < ROUND_COUNT; ++i) {
             Helpers.subBytes(state);
             Helpers.shiftRows(state);
             Helpers.mixColumns(state);
-            Helpers.addRoundKey(state, keys[i]);
+            Helpers.addRoundKey(state, roundKeys, i);
         }
 
-        // Step 4: Final round
+        // Step 3: Final round
         Helpers.subBytes(state);
         Helpers.shiftRows(state);
-        Helpers.addRoundKey(state, keys[ROUND_COUNT]);
+        Helpers.addRoundKey(state, roundKeys, ROUND_COUNT);
+    }
+
+    @Override
+    public void encryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+
+        byte[] state = SCRATCH.get();
+        System.arraycopy(in, inOff, state, 0, state.length);
+        encrypt(state);
+        System.arraycopy(state, 0, out, outOff, state.length);
+    }
+
+    /**
+     * This method performs AES-256 encryption on 16 bytes of data.
+     * The key schedule is run on every call, so prefer an instance of
+     * {@code AES256} when encrypting more than one block with the same key.
+     * @param state     The 16 byte data block.
+     * @param key       The 256-bit key stored as byte[32].
+     * @return Nothing  The data gets encrypted.
+     */
+    public static void encrypt(byte[] state, byte[] key) {
+
+        new AES256(key).encrypt(state);
+    }
+    
+    /**
+     * This method performs AES-256 encryption on 16 bytes of data.
+     * The key schedule is run on every call, so prefer an instance of
+     * {@code AES256} when encrypting more than one block with the same key.
+     * @param state      The 16 byte data block stored as char[16].
+     * @param key       The 256-bit key stored as char[32].
+     * @return Nothing  The data gets encrypted.
+     */
+    public static void encrypt(char[] state, char[] key) {
+        
+        new AES256(key).encrypt(state);
     }
 }
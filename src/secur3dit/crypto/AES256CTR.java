@@ -3,14 +3,30 @@ package secur3dit.crypto;
 import java.io.IOException;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
 import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.regex.Pattern;
 
 /**
  * This class implements AES-256 encryption/decryption on an
@@ -20,9 +36,89 @@ import java.security.NoSuchAlgorithmException;
  * @author  Priyanshul Govil
  */
 public final class AES256CTR {
-    
-    private final char[] key;
-    private final char[] nonce;
+
+    private static final int BLOCK_SIZE = 16;
+
+    /**
+     * Number of bytes read, transformed and written back at a time.
+     * It is a multiple of {@code BLOCK_SIZE}, so every chunk starts on a block
+     * boundary and the counter simply continues from the previous chunk.
+     */
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    /**
+     * Chunk size used in parallel mode. It is larger so that every chunk
+     * holds enough independent blocks to keep all the worker threads busy.
+     */
+    private static final int PARALLEL_CHUNK_SIZE = 1 << 24;
+
+    /**
+     * Number of blocks below which a {@code KeystreamTask} is not split any further.
+     */
+    private static final int SEGMENT_BLOCKS = 1 << 12;
+
+    /**
+     * Number of bytes of the file mapped into memory at a time in mapped mode.
+     * It is a multiple of {@code BLOCK_SIZE} and of the page size.
+     */
+    private static final int MAP_WINDOW = 1 << 26;
+
+    /**
+     * Source of the nonce of every file.
+     */
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * The direct buffer of every thread, see {@link #directBuffer(int)}.
+     */
+    private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<>();
+
+    /**
+     * The names of the files of {@link #createTemporaryFile(Path)}, whose random part is a number.
+     */
+    private static final Pattern TEMPORARY_NAME = Pattern.compile("\\..+\\.[0-9]+\\.tmp");
+
+    /**
+     * Number of bytes written to a temporary file between two requests to write it to the disk.
+     */
+    private static final long WRITEBACK_BYTES = 1L << 25;
+
+    /**
+     * The thread which writes the temporary files to the disk while they are being written,
+     * see {@link #writeAtomically}.
+     */
+    private static final ExecutorService BACKGROUND = daemon("secur3dit-writeback");
+
+    /**
+     * The thread which releases the files replaced by the temporary files. It is not
+     * BACKGROUND, so that freeing a large file never delays writing another one.
+     */
+    private static final ExecutorService RELEASER = daemon("secur3dit-release");
+
+    /**
+     * The password, from which a key is derived with PBKDF2 for every salt.
+     * {@code null} for the testing constructor, which only has a key.
+     */
+    private final String password;
+    private final CipherCore core;
+
+    /**
+     * The key hashed from the password with SHA-256, the cipher prepared with it, and the
+     * nonce hashed from the key. They are only used to decrypt files without a KDF in the
+     * trailer, i.e. the files encrypted by previous versions.
+     */
+    private final byte[] hashedKey;
+    private final BlockCipher hashedCipher;
+    private final byte[] hashedNonce;
+
+    private final CounterLayout layout;
+    private final Backend backend;
+
+    /**
+     * {@code true} if new files get a tag for every chunk, see ChunkMac,
+     * and files without tags are refused when decrypting.
+     */
+    private final boolean authenticated;
 
     /**
      * WARNING: This constructor is only for testing purposes.
@@ -31,17 +127,94 @@ public final class AES256CTR {
      */
     public AES256CTR(char[] key) {
         super();
-        this.key = key;
-        this.nonce = new char[] {' '};
+        this.password = null;
+        this.core = CipherCore.T_TABLE;
+        this.hashedKey = Helpers.toBytes(key);
+        this.hashedCipher = core.newCipher(this.hashedKey);
+        this.hashedNonce = Arrays.copyOf(new byte[] {' '}, BLOCK_SIZE);
+        this.layout = CounterLayout.ADD_128;
+        this.backend = Backend.configured();
+        this.authenticated = false;
     }
 
     /**
      * THIS CONSTRUCTOR SHOULD BE USED FOR ALL ENCRYTPION/DECRYPTION PURPOSES.
+     * The backend is {@code Backend.configured()}, with the T-table cipher core.
+     * The key of every file is derived from the password with PBKDF2 and a random salt,
+     * and every file gets a random nonce. The derivation is slow on purpose, so it is
+     * not done here but by the first call which needs it, and it is then cached
+     * for the whole session, see {@link #clearKeyCache()}.
+     * Files are authenticated: decrypting one with a wrong password, or one which was
+     * modified, fails with an AuthenticationException and leaves the file as it was.
+     * So does decrypting a file without tags, since a file whose tags were removed
+     * cannot be told apart from a file of a previous version.
+     * The tags take about a third more time than the keystream alone with {@code Backend.JCE},
+     * see {@link #AES256CTR(String, Backend, CipherCore, CounterLayout, boolean)} to turn them off.
      * @param password  The password with which to encrypt the file.    
      * @throws NoSuchAlgorithmException
      */
     public AES256CTR(String password) throws NoSuchAlgorithmException {
         
+        this(password, CipherCore.T_TABLE);
+    }
+
+    /**
+     * Same as {@link #AES256CTR(String)}, with a choice of the cipher core.
+     * @param password  The password with which to encrypt the file.
+     * @param core      The cipher core with which to encrypt the blocks.
+     * @throws NoSuchAlgorithmException
+     */
+    public AES256CTR(String password, CipherCore core) throws NoSuchAlgorithmException {
+        
+        this(password, core, CounterLayout.ADD_128);
+    }
+
+    /**
+     * Same as {@link #AES256CTR(String, CipherCore)}, with a choice of the counter layout
+     * used to encrypt. Decryption always uses the layout recorded in the file.
+     * @param password  The password with which to encrypt the file.
+     * @param core      The cipher core with which to encrypt the blocks.
+     * @param layout    The counter layout with which to encrypt.
+     * @throws NoSuchAlgorithmException
+     */
+    public AES256CTR(String password, CipherCore core, CounterLayout layout) 
+            throws NoSuchAlgorithmException {
+        
+        this(password, Backend.configured(), core, layout);
+    }
+
+    /**
+     * Same as {@link #AES256CTR(String, CipherCore, CounterLayout)}, with a choice of the backend.
+     * @param password  The password with which to encrypt the file.
+     * @param backend   The backend with which to apply the keystream.
+     * @param core      The cipher core used by {@code Backend.JAVA}.
+     * @param layout    The counter layout with which to encrypt.
+     * @throws NoSuchAlgorithmException
+     */
+    public AES256CTR(String password, Backend backend, CipherCore core, CounterLayout layout) 
+            throws NoSuchAlgorithmException {
+        
+        this(password, backend, core, layout, true);
+    }
+
+    /**
+     * Same as {@link #AES256CTR(String, Backend, CipherCore, CounterLayout)}, with a choice of
+     * authenticating the files it encrypts. Decryption always checks the tags of a file which has them.
+     * An instance without authentication also decrypts files without tags, including the files
+     * of previous versions, which is the only way to decrypt them. Nothing detects a wrong
+     * password for those files: it turns them into garbage which cannot be recovered.
+     * @param password      The password with which to encrypt the file.
+     * @param backend       The backend with which to apply the keystream.
+     * @param core          The cipher core used by {@code Backend.JAVA}.
+     * @param layout        The counter layout with which to encrypt.
+     * @param authenticated {@code false} to encrypt without tags, which is faster, e.g. about
+     *                      1.1 GB/s instead of 0.8 GB/s with {@code Backend.JCE} on one core,
+     *                      but does not detect a wrong password or a modified file.
+     * @throws NoSuchAlgorithmException
+     */
+    public AES256CTR(String password, Backend backend, CipherCore core, CounterLayout layout,
+            boolean authenticated) throws NoSuchAlgorithmException {
+        
         super();
         
         byte[] keyByte = MessageDigest.getInstance("SHA-256").digest(
@@ -51,116 +224,971 @@ public final class AES256CTR {
         byte[] nonceByte = MessageDigest.getInstance("SHA-256").digest(
             keyByte
         );
-        
-        char[] keyChar = new char[keyByte.length];
-        for (int i = 0; i < keyByte.length; ++i) {
-            keyChar[i] = (char) Byte.toUnsignedInt(keyByte[i]);
+
+        this.password = password;
+        this.core = core;
+        this.hashedKey = keyByte;
+        this.hashedCipher = core.newCipher(keyByte);
+        this.hashedNonce = Arrays.copyOf(nonceByte, BLOCK_SIZE);
+        this.layout = layout;
+        this.backend = backend;
+        this.authenticated = authenticated;
+    }
+
+    /**
+     * Drops every key derived from a password, together with its expanded round keys.
+     * Keys are otherwise kept for ten minutes after their last use, so that encrypting
+     * or decrypting many files with one password derives the key only once.
+     */
+    public static void clearKeyCache() {
+        KeyCache.clear();
+    }
+
+    /**
+     * Creates an empty temporary file next to an output, named {@code .<name>.<random>.tmp},
+     * to be moved over the output once it is complete.
+     * @param output    The path to the output.
+     * @return          The path to the temporary file.
+     * @throws IOException
+     */
+    public static Path createTemporaryFile(Path output) throws IOException {
+
+        Path absolute = output.toAbsolutePath();
+        return Files.createTempFile(absolute.getParent(), "." + absolute.getFileName() + ".", ".tmp");
+    }
+
+    /**
+     * @param path  The path to a file.
+     * @return      {@code true} if its name is one of {@link #createTemporaryFile(Path)}.
+     *              Such a file is left behind if the process is killed while writing it,
+     *              and must not be encrypted or decrypted as a file of its own.
+     */
+    public static boolean isTemporaryFile(Path path) {
+
+        Path name = path.getFileName();
+        return name != null && TEMPORARY_NAME.matcher(name.toString()).matches();
+    }
+
+    /**
+     * Prepares the trailer of a file about to be encrypted, with a fresh nonce.
+     * @param dataLength    The length of the file.
+     * @return              The trailer.
+     * @throws IOException  If the file is too large to be authenticated.
+     */
+    private Trailer newTrailer(long dataLength) throws IOException {
+
+        if (password == null) {
+            return Trailer.hashed(layout, dataLength);
+        }
+        if (authenticated && dataLength > Trailer.MAX_AUTHENTICATED_LENGTH) {
+            throw new IOException("File is too large to be authenticated");
         }
 
-        char[] nonceChar = new char[16];
-        for (int i = 0; i < nonceChar.length; ++i) {
-            nonceChar[i] = (char) Byte.toUnsignedInt(nonceByte[i]);
+        KeyCache.Keys keys = KeyCache.session(password, core);
+        byte[] fileNonce = new byte[BLOCK_SIZE];
+        RANDOM.nextBytes(fileNonce);
+        if (authenticated) {
+            return Trailer.authenticated(layout, keys.iterations, keys.salt, fileNonce, dataLength);
         }
+        return Trailer.derived(layout, keys.iterations, keys.salt, fileNonce, dataLength);
+    }
+
+    /**
+     * Reads the trailer of a file to decrypt. A file without a trailer was encrypted by
+     * the first versions, and is described as a version 1 trailer with {@code CounterLayout.XOR_32}.
+     * @param channel       The channel of the file.
+     * @return              The trailer.
+     * @throws AuthenticationException  If the file has no tags and this instance authenticates.
+     * @throws IOException  If the trailer is damaged or of an unknown version.
+     */
+    private Trailer readTrailer(FileChannel channel) throws IOException {
 
-        this.key = keyChar;
-        this.nonce = nonceChar;
+        Trailer trailer = Trailer.read(channel);
+        if (trailer == null) {
+            trailer = Trailer.hashed(CounterLayout.XOR_32, channel.size());
+        }
+        if (authenticated && !trailer.isAuthenticated()) {
+            throw new AuthenticationException("The file has no tags: it was encrypted by a previous version "
+                                              + "or without authentication, or its tags were removed");
+        }
+        return trailer;
     }
 
     /**
-     * This method performs bitwise-XOR on two 128-bit long data.
-     * This is required to generate the cyphertext (Output_of_AES256 XOR Plaintext)
-     * @param img       The image file loaded in char[].
-     * @param state     The encrypted state matrix char[16] from AES-256.
-     * @param blockNum  The block number which is being XORed.
-     * @return Nothing  The specific block in that image gets encrypted.
+     * Prepares the backend for a file, from the key derivation recorded in its trailer.
+     * @param trailer       The trailer of the file.
+     * @return              The backend.
+     * @throws IOException  If the file needs a password and this instance has none.
      */
-    private static void XOR(char[] img, final char[] state, final int blockNum) {
-        final int blockStartIndex = state.length * blockNum;
-        for (int i = blockStartIndex; i < blockStartIndex + state.length && i < img.length; ++i) {
-                img[i] = (char) (img[i] ^ state[i % state.length]);
+    CipherBackend newBackend(Trailer trailer) throws IOException {
+
+        if (!trailer.isDerived()) {
+            return backend.newBackend(hashedKey, hashedNonce, trailer.layout, hashedCipher);
+        }
+        if (password == null) {
+            throw new IOException("The file was encrypted with a password");
         }
+
+        KeyCache.Keys keys = KeyCache.forSalt(password, trailer.salt, trailer.iterations, core);
+        return backend.newBackend(keys.key, trailer.nonce, trailer.layout, keys.cipher);
     }
 
     /**
-     * This method performs bitwise-XOR on two 128-bit long data.
-     * This is required to generate input to AES256 (Nonce XOR BlockNumber)
-     * @param nonce     First 128-bit data of type char[16].
-     * @param blockNum  Second 128-bit data of type char[16].
-     * @return          The output string after performing bitwise-XOR
-     * @throws  ReadOnlyBufferException
-     * @throws  BufferOverflowException
+     * Prepares the tags of a file, from the key derivation recorded in its trailer.
+     * @param trailer       The trailer of the file.
+     * @return              The MAC, {@code null} if the file is not authenticated.
+     * @throws IOException  If the file needs a password and this instance has none.
      */
-    private static char[] XOR(char[] nonce, int blockNum) throws 
-            ReadOnlyBufferException, BufferOverflowException {
-        
-        ByteBuffer bf = ByteBuffer.allocate(nonce.length);
-        bf.order(ByteOrder.BIG_ENDIAN);
-        bf.putInt(blockNum);
-        byte[] b = bf.array();
+    ChunkMac newMac(Trailer trailer) throws IOException {
+
+        if (!trailer.isAuthenticated()) {
+            return null;
+        }
+        if (password == null) {
+            throw new IOException("The file was encrypted with a password");
+        }
+
+        KeyCache.Keys keys = KeyCache.forSalt(password, trailer.salt, trailer.iterations, core);
+        return new ChunkMac(keys.key, trailer);
+    }
+
+    /**
+     * Checks an authenticated file against its tags, without writing anything.
+     * The trailer tag is checked first, so a wrong password fails before the data is read.
+     * The chunks of every buffer are then hashed in parallel on {@code pool}.
+     * @param channel       The channel of the file.
+     * @param trailer       The trailer of the file.
+     * @param mac           The MAC of the file.
+     * @param pool          The pool on which to hash the chunks, {@code null} for serial mode.
+     * @return Nothing      The file is left as it is.
+     * @throws AuthenticationException  If the password is wrong or the file was modified.
+     * @throws IOException
+     */
+    private static void authenticate(FileChannel channel, Trailer trailer, ChunkMac mac,
+            ForkJoinPool pool) throws IOException {
+
+        if (!mac.verifyTrailer(trailer)) {
+            throw new AuthenticationException("Wrong password, or the trailer was modified");
+        }
+
+        // The buffer holds whole chunks, so that every chunk is hashed in one piece
+        int chunks = Math.max(1, (pool == null ? CHUNK_SIZE : PARALLEL_CHUNK_SIZE) / trailer.chunkSize);
+        int size = (int) Math.min((long) chunks * trailer.chunkSize, Math.max(BLOCK_SIZE, trailer.dataLength));
+        ByteBuffer buffer = directBuffer(size);
+        CryptoMetrics metrics = CryptoMetrics.get();
+        long position = 0;
+
+        while (position < trailer.dataLength) {
+            buffer.clear();
+            buffer.limit((int) Math.min(size, trailer.dataLength - position));
+            long start = System.nanoTime();
+            int length = readFully(channel, buffer, position);
+            if (length < buffer.limit()) {
+                throw new IOException("Unexpected end of file");
+            }
+
+            long read = System.nanoTime();
+            boolean valid = mac.verify(buffer, length, position, trailer.chunkTags, pool);
+            metrics.addRead(read - start);
+            metrics.addMac(System.nanoTime() - read);
+            if (!valid) {
+                throw new AuthenticationException("The file was modified after byte " + position);
+            }
+            position += length;
+        }
+    }
+
+    /**
+     * Fills {@code buffer} with bytes read from {@code channel} starting at {@code position}.
+     * A single read may return fewer bytes than requested, so this keeps reading
+     * until the buffer is full or the end of the file is reached.
+     * @param channel   The channel to read from.
+     * @param buffer    The buffer to fill, from its current position.
+     * @param position  The file position at which to start reading.
+     * @return          The number of bytes read, 0 at the end of the file.
+     * @throws IOException
+     */
+    private static int readFully(FileChannel channel, ByteBuffer buffer, long position) 
+            throws IOException {
+
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Since every block of CTR mode is independent, the blocks of a chunk
+     * can be encrypted in any order. This task splits the block range of a chunk
+     * in halves until it is small enough, and encrypts every segment in place.
+     */
+    private static final class KeystreamTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CipherBackend backend;
+        private final ByteBuffer chunk;
+        private final int length;
+        private final long firstBlock;
+        private final int from;
+        private final int to;
+
+        KeystreamTask(CipherBackend backend, ByteBuffer chunk, int length,
+                long firstBlock, int from, int to) {
+            this.backend = backend;
+            this.chunk = chunk;
+            this.length = length;
+            this.firstBlock = firstBlock;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
 
-        char[] result = new char[nonce.length];
-        for (int i = 0; i < nonce.length; ++i) {
-            result[i] = (char) (nonce[i] ^ (char) Byte.toUnsignedInt(b[i]));
+            if (to - from <= SEGMENT_BLOCKS) {
+                backend.apply(chunk, length, firstBlock, from, to);
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new KeystreamTask(backend, chunk, length, firstBlock, from, middle),
+                      new KeystreamTask(backend, chunk, length, firstBlock, middle, to));
+        }
+    }
+
+    /**
+     * This method encrypts one chunk of the file in memory.
+     * @param backend       The backend with which to apply the keystream.
+     * @param chunk         The bytes of the chunk, accessed by absolute index.
+     * @param length        The number of valid bytes in {@code chunk}.
+     * @param firstBlock    The block number of the first block of the chunk in the file.
+     * @param pool          The pool on which to encrypt the blocks, {@code null} to
+     *                      encrypt them on the calling thread.
+     * @return Nothing      The chunk gets encrypted.
+     */
+    private static void encryptChunk(CipherBackend backend, ByteBuffer chunk, int length,
+            long firstBlock, ForkJoinPool pool) {
+
+        final int NUMBER_OF_BLOCKS = length / BLOCK_SIZE + (length % BLOCK_SIZE == 0 ? 0 : 1);
+        if (pool == null) {
+            backend.apply(chunk, length, firstBlock, 0, NUMBER_OF_BLOCKS);
+        }
+        else {
+            pool.invoke(new KeystreamTask(backend, chunk, length, firstBlock, 0, NUMBER_OF_BLOCKS));
+        }
+    }
+
+    /**
+     * Returns the direct buffer of the calling thread, with at least {@code capacity} bytes.
+     * Direct buffers are read into and written from by the operating system without
+     * an extra copy, but they are slow to allocate, so every thread keeps its own.
+     * @param capacity  The number of bytes needed.
+     * @return          The buffer, cleared.
+     */
+    private static ByteBuffer directBuffer(int capacity) {
+
+        ByteBuffer buffer = BUFFERS.get();
+        if (buffer == null || buffer.capacity() < capacity) {
+            buffer = ByteBuffer.allocateDirect(capacity);
+            BUFFERS.set(buffer);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Checks that the blocks of a file fit in the counter of its layout.
+     * @param dataLength    The number of bytes to transform.
+     * @param layout        The counter layout of the file.
+     * @throws IOException  If the file is too large for the counter layout.
+     */
+    private static ExecutorService daemon(String name) {
+
+        return Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static void checkLength(long dataLength, CounterLayout layout) throws IOException {
+
+        if ((dataLength + BLOCK_SIZE - 1) / BLOCK_SIZE > layout.maxBlocks) {
+            throw new IOException("File is too large for the counter layout " + layout);
+        }
+    }
+
+    /**
+     * Writes a file to the disk on the background thread while it is being written,
+     * so that the disk works while the next chunks are encrypted, and forcing the file
+     * at the end only waits for the last chunks. A request is skipped while the
+     * previous one is still running.
+     */
+    private static final class Writeback {
+
+        private final FileChannel channel;
+        private long requested = 0;
+        private Future<?> pending;
+
+        Writeback(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * @param position  The number of bytes written so far.
+         */
+        void written(long position) {
+
+            if (position - requested < WRITEBACK_BYTES || (pending != null && !pending.isDone())) {
+                return;
+            }
+            requested = position;
+            pending = BACKGROUND.submit(() -> {
+                try {
+                    channel.force(false);
+                }
+                catch (IOException e) {
+                    // The file is forced again at the end, which reports the error
+                }
+            });
+        }
+
+        /**
+         * Waits for the last request if it is running, then forces the whole file to the disk.
+         * A request still queued behind other files is cancelled instead of waited for.
+         * @throws IOException
+         */
+        void force() throws IOException {
+
+            if (pending != null && !pending.cancel(false)) {
+                try {
+                    pending.get();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                catch (ExecutionException e) {
+                    // Not thrown, errors are reported by the force below
+                }
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * This method streams the first {@code dataLength} bytes of {@code source} in chunks,
+     * and writes every chunk to {@code target} at the position it was read from,
+     * so the memory used does not depend on the size of the file.
+     * @param ob            Instance of AES256CTR which stores the password.
+     * @param source        The channel of the file which needs to be transformed.
+     * @param target        The channel of the file into which the output is written.
+     * @param dataLength    The number of bytes to transform, from the start of the file.
+     * @param trailer       The trailer of the file, with its counter layout and key derivation.
+     * @param pool          The pool on which to encrypt the blocks, {@code null} for serial mode.
+     * @param progress      Receives every chunk written, {@code null} if not needed.
+     * @param signer        Computes the tags of the ciphertext into the trailer,
+     *                      {@code null} when decrypting or for a file without tags.
+     * @param verifier      Checks the ciphertext against the tags of the trailer before
+     *                      it is decrypted, {@code null} when encrypting or for a file without tags.
+     * @param writeback     Writes {@code target} to the disk as it goes, {@code null} if not needed.
+     * @return Nothing      The output gets written.
+     * @throws IOException  If the file is too large for the counter layout.
+     * @throws AuthenticationException  If a chunk does not match its tag.
+     * @throws CancellationException    If {@code progress} was cancelled.
+     */
+    private static void transform(AES256CTR ob, FileChannel source, FileChannel target, long dataLength,
+            Trailer trailer, ForkJoinPool pool, Progress progress, ChunkMac signer, ChunkMac verifier,
+            Writeback writeback) throws IOException {
+
+        checkLength(dataLength, trailer.layout);
+
+        // The chunks of the trailer are never split between two buffers
+        CipherBackend backend = ob.newBackend(trailer);
+        int chunks = Math.max(1, (pool == null ? CHUNK_SIZE : PARALLEL_CHUNK_SIZE) / trailer.chunkSize);
+        int size = (int) Math.min((long) chunks * trailer.chunkSize, Math.max(BLOCK_SIZE, dataLength));
+        ByteBuffer chunk = directBuffer(size);
+        CryptoMetrics metrics = CryptoMetrics.get();
+        long position = 0;
+
+        while (position < dataLength) {
+            chunk.clear();
+            chunk.limit((int) Math.min(size, dataLength - position));
+            long start = System.nanoTime();
+            int length = readFully(source, chunk, position);
+            if (length < chunk.limit()) {
+                throw new IOException("Unexpected end of file");
+            }
+            long read = System.nanoTime();
+            metrics.addRead(read - start);
+
+            if (verifier != null) {
+                boolean valid = verifier.verify(chunk, length, position, trailer.chunkTags, pool);
+                long verified = System.nanoTime();
+                metrics.addMac(verified - read);
+                read = verified;
+                if (!valid) {
+                    throw new AuthenticationException("The file was modified after byte " + position);
+                }
+            }
+            encryptChunk(backend, chunk, length, position / BLOCK_SIZE, pool);
+            long encrypted = System.nanoTime();
+            metrics.addCipher(encrypted - read, length);
+            if (signer != null) {
+                signer.sign(chunk, length, position, trailer.chunkTags, pool);
+                long signed = System.nanoTime();
+                metrics.addMac(signed - encrypted);
+                encrypted = signed;
+            }
+
+            chunk.flip();
+            while (chunk.hasRemaining()) {
+                target.write(chunk, position + chunk.position());
+            }
+            metrics.addWrite(System.nanoTime() - encrypted);
+            position += length;
+            if (writeback != null) {
+                writeback.written(position);
+            }
+
+            if (progress != null) {
+                progress.advance(length);
+                if (progress.isCancelled()) {
+                    throw new CancellationException("Cancelled after " + position + " bytes");
+                }
+            }
+        }
+    }
+
+    /**
+     * This method encrypts or decrypts a file into a temporary file in the directory of
+     * {@code outputPath}, forces it to the disk, and then moves it over {@code outputPath}
+     * in one atomic step. If the process stops at any point, {@code outputPath} is either
+     * left as it was or holds the whole output, never a part of it.
+     *
+     * Compared to transforming the file in place, this costs writing the file to the disk,
+     * and freeing the file it replaces, which takes about as long for a file in the page cache.
+     * The disk is written while the file is encrypted, see Writeback, and the replaced file
+     * is released on a thread of its own, so that neither waits for the other.
+     * @param ob            Instance of AES256CTR which stores the password.
+     * @param filePath      The path to the input file.
+     * @param outputPath    The path to the output file, which may be {@code filePath}.
+     * @param pool          The pool on which to encrypt the blocks, {@code null} for serial mode.
+     * @param progress      Receives the number of bytes processed, {@code null} if not needed.
+     * @param encrypt       {@code true} to encrypt, {@code false} to decrypt.
+     * @return Nothing      The output file gets written.
+     * @throws IOException
+     * @throws CancellationException    If {@code progress} was cancelled.
+     */
+    private static void writeAtomically(AES256CTR ob, String filePath, String outputPath,
+            ForkJoinPool pool, Progress progress, boolean encrypt) throws IOException {
+
+        Path source = Paths.get(filePath);
+        Path output = Paths.get(outputPath).toAbsolutePath();
+        Path directory = output.getParent();
+        Path temp = createTemporaryFile(output);
+        CryptoMetrics metrics = CryptoMetrics.get();
+        long start = System.nanoTime();
+        long dataLength = 0;
+        boolean moved = false;
+
+        try {
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+
+                Writeback writeback = new Writeback(out);
+                if (encrypt) {
+                    dataLength = in.size();
+                    Trailer trailer = ob.newTrailer(dataLength);
+                    ChunkMac mac = ob.newMac(trailer);
+                    transform(ob, in, out, dataLength, trailer, pool, progress, mac, null, writeback);
+                    if (mac != null) {
+                        mac.seal(trailer);
+                    }
+                    trailer.write(out);
+                }
+                else {
+                    Trailer trailer = ob.readTrailer(in);
+                    ChunkMac mac = ob.newMac(trailer);
+                    if (mac != null && !mac.verifyTrailer(trailer)) {
+                        throw new AuthenticationException("Wrong password, or the trailer was modified");
+                    }
+                    dataLength = trailer.dataLength;
+                    transform(ob, in, out, dataLength, trailer, pool, progress, null, mac, writeback);
+                }
+                long forced = System.nanoTime();
+                writeback.force();
+                metrics.addWrite(System.nanoTime() - forced);
+            }
+
+            copyPermissions(source, temp);
+            FileChannel replaced = openReplaced(output, temp);
+            try {
+                Files.move(temp, output, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                moved = true;
+            }
+            finally {
+                release(replaced, moved);
+            }
+            forceDirectory(directory);
+            metrics.addFile(encrypt, dataLength, System.nanoTime() - start);
+        }
+        finally {
+            if (!moved) {
+                metrics.addFailure();
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Opens the file which a move is about to replace, so that it is freed when this
+     * channel is closed instead of during the move. Only done where a file can be
+     * replaced while it is open, i.e. on POSIX file systems.
+     * @return  The channel, {@code null} if there is no such file or it cannot be opened.
+     */
+    private static FileChannel openReplaced(Path output, Path temp) {
+
+        try {
+            if (Files.getFileStore(temp).supportsFileAttributeView(PosixFileAttributeView.class)) {
+                return FileChannel.open(output, StandardOpenOption.READ);
+            }
+        }
+        catch (IOException | UnsupportedOperationException e) {
+            // Freed during the move
+        }
+        return null;
+    }
+
+    /**
+     * Closes the channel of a replaced file, on RELEASER once it was replaced, so that freeing its pages and blocks does not hold up the caller.
+     */
+    private static void release(FileChannel replaced, boolean moved) {
+
+        if (replaced == null) {
+            return;
+        }
+        Runnable close = () -> {
+            try {
+                replaced.close();
+            }
+            catch (IOException e) {
+                // Nothing to do, the file is unlinked already
+            }
+        };
+        if (moved) {
+            RELEASER.execute(close);
+        }
+        else {
+            close.run();
+        }
+    }
+
+    /**
+     * Gives the output the permissions of the input, since a temporary file
+     * is only readable by its owner.
+     */
+    private static void copyPermissions(Path source, Path temp) throws IOException {
+
+        if (Files.getFileStore(temp).supportsFileAttributeView(PosixFileAttributeView.class)) {
+            Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(source));
+        }
+    }
+
+    /**
+     * Forces the entry of a moved file to the disk. Some platforms cannot open
+     * a directory, in which case the move is as durable as the platform allows.
+     */
+    private static void forceDirectory(Path directory) {
+
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+        catch (IOException e) {
+            // Not supported on this platform
+        }
+    }
+
+    /**
+     * This method maps the first {@code dataLength} bytes of the file into memory
+     * in windows of {@code MAP_WINDOW} bytes, and XORs the keystream directly into
+     * the mapped pages. No copy of the file is made on the heap, and only the pages
+     * that were modified are written back by the operating system.
+     * The caller prepares the backend and checks the length first, so that nothing
+     * which can fail is left between modifying the file and transforming it.
+     * @param backend       The backend with which to apply the keystream.
+     * @param channel       The channel of the file which needs to be transformed.
+     * @param dataLength    The number of bytes to transform, from the start of the file.
+     * @param trailer       The trailer of the file, with its counter layout and key derivation.
+     * @param pool          The pool on which to encrypt the blocks, {@code null} for serial mode.
+     * @param signer        Computes the tags of the ciphertext into the trailer,
+     *                      {@code null} when decrypting or for a file without tags.
+     * @return Nothing      The file gets transformed.
+     * @throws IOException
+     */
+    private static void transformMapped(CipherBackend backend, FileChannel channel, long dataLength,
+            Trailer trailer, ForkJoinPool pool, ChunkMac signer) throws IOException {
+
+        // The pages are read on first access, so the cipher time includes reading them
+        CryptoMetrics metrics = CryptoMetrics.get();
+        for (long position = 0; position < dataLength; position += MAP_WINDOW) {
+
+            int length = (int) Math.min(MAP_WINDOW, dataLength - position);
+            long start = System.nanoTime();
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_WRITE, position, length);
+            long mapped = System.nanoTime();
+            metrics.addRead(mapped - start);
+
+            encryptChunk(backend, window, length, position / BLOCK_SIZE, pool);
+            long encrypted = System.nanoTime();
+            metrics.addCipher(encrypted - mapped, length);
+            if (signer != null) {
+                signer.sign(window, length, position, trailer.chunkTags, pool);
+                long signed = System.nanoTime();
+                metrics.addMac(signed - encrypted);
+                encrypted = signed;
+            }
+            window.force();
+            metrics.addWrite(System.nanoTime() - encrypted);
         }
-        return result;
     }
 
     /**
      * This method performs encryption on the image.
-     * @param ob        Instance of AES256CTR which stores the nonce and key.
+     * The ciphertext is followed by a trailer that records the counter layout,
+     * the salt from which the key was derived, and the random nonce of the file.
+     * @param ob        Instance of AES256CTR which stores the password.
      * @param filePath  The path to the file which needs to be encrypted.
      * @return Nothing  The file specified by {@code filePath} gets encrypted.
      * @throws IOException
-     * @throws OutOfMemoryError
      * @throws SecurityException
      * @throws InvalidPathException
      * @throws ReadOnlyBufferException
      * @throws BufferOverflowException
      */
     public static void encrypt(AES256CTR ob, String filePath) throws 
-            IOException, OutOfMemoryError, SecurityException, InvalidPathException,
+            IOException, SecurityException, InvalidPathException,
             ReadOnlyBufferException, BufferOverflowException {
 
-        // Read the file into bytes[], convert into char[]
-        byte[] bytes = Files.readAllBytes(Paths.get(filePath));
+        encrypt(ob, filePath, null);
+    }
 
-        char[] img = new char[bytes.length];
-        for (int i = 0; i < img.length; ++i) {
-            img[i] = (char) Byte.toUnsignedInt(bytes[i]);
-        }
+    /**
+     * This method performs encryption on the image, using all the threads of {@code pool}.
+     * The blocks of every chunk are split across the pool and XORed in place.
+     * The output is identical to that of {@link #encrypt(AES256CTR, String)}.
+     * @param ob        Instance of AES256CTR which stores the password.
+     * @param filePath  The path to the file which needs to be encrypted.
+     * @param pool      The pool on which to encrypt, e.g. {@code ForkJoinPool.commonPool()}
+     *                  or {@code new ForkJoinPool(threads)}, {@code null} for serial mode.
+     * @return Nothing  The file specified by {@code filePath} gets encrypted.
+     * @throws IOException
+     * @throws SecurityException
+     * @throws InvalidPathException
+     * @throws ReadOnlyBufferException
+     * @throws BufferOverflowException
+     */
+    public static void encrypt(AES256CTR ob, String filePath, ForkJoinPool pool) throws 
+            IOException, SecurityException, InvalidPathException,
+            ReadOnlyBufferException, BufferOverflowException {
 
-        final int NUMBER_OF_BLOCKS = img.length / 16 + (img.length % 16 == 0 ? 0 : 1);
-        for (int i = 0; i < NUMBER_OF_BLOCKS; ++i) {
-            char[] result = XOR(ob.nonce, i);
-            AES256.encrypt(result, ob.key);
-            XOR(img, result, i);
-        }
+        encrypt(ob, filePath, pool, null);
+    }
 
-        for (int i = 0; i < img.length; ++i) {
-            bytes[i] = (byte) img[i];
-        }
-        Files.write(Paths.get(filePath), bytes);
+    /**
+     * This method performs encryption on the image, and reports its progress.
+     * The ciphertext is written to a temporary file next to the image, which then
+     * replaces the image in one atomic step, so a crash never leaves a half-encrypted file.
+     * If {@code progress} is cancelled, the file is left as it was before the call.
+     * @param ob        Instance of AES256CTR which stores the password.
+     * @param filePath  The path to the file which needs to be encrypted.
+     * @param pool      The pool on which to encrypt, {@code null} for serial mode.
+     * @param progress  Receives the number of bytes encrypted, {@code null} if not needed.
+     * @return Nothing  The file specified by {@code filePath} gets encrypted.
+     * @throws IOException
+     * @throws SecurityException
+     * @throws InvalidPathException
+     * @throws ReadOnlyBufferException
+     * @throws BufferOverflowException
+     * @throws CancellationException    If {@code progress} was cancelled.
+     */
+    public static void encrypt(AES256CTR ob, String filePath, ForkJoinPool pool, Progress progress) throws 
+            IOException, SecurityException, InvalidPathException,
+            ReadOnlyBufferException, BufferOverflowException {
+
+        writeAtomically(ob, filePath, filePath, pool, progress, true);
+    }
+
+    /**
+     * This method encrypts the image into another file, and keeps the image as it is.
+     * The output file is replaced in one atomic step, as with
+     * {@link #encrypt(AES256CTR, String, ForkJoinPool, Progress)}.
+     * @param ob            Instance of AES256CTR which stores the password.
+     * @param filePath      The path to the file which needs to be encrypted.
+     * @param outputPath    The path to the encrypted file, which is replaced if it exists.
+     * @param pool          The pool on which to encrypt, {@code null} for serial mode.
+     * @param progress      Receives the number of bytes encrypted, {@code null} if not needed.
+     * @return Nothing      The file specified by {@code outputPath} gets written.
+     * @throws IOException
+     * @throws SecurityException
+     * @throws InvalidPathException
+     * @throws CancellationException    If {@code progress} was cancelled.
+     */
+    public static void encrypt(AES256CTR ob, String filePath, String outputPath, ForkJoinPool pool,
+            Progress progress) throws IOException, SecurityException, InvalidPathException {
+
+        writeAtomically(ob, filePath, outputPath, pool, progress, true);
     }
 
     /**
      * This method performs decryption on the image. Decryption is equivalent
-     * to encryption in case of CTR mode of operation.
-     * This method is added to make the codebase more readable for those who are
-     * less familiar with the CTR mode of operation.
-     * @param ob            Instance of AES256CTR which stores the nonce and key.
+     * to encryption in case of CTR mode of operation, except that the counter layout
+     * is taken from the trailer of the file, which is then removed.
+     * Files without a trailer were encrypted by the first versions with
+     * {@code CounterLayout.XOR_32}, and are decrypted as such.
+     * An authenticated file is checked against its tags before anything is written:
+     * with a wrong password, or if it was modified, the call fails with an
+     * AuthenticationException and the file is left as it was. A file without tags
+     * fails the same way, unless {@code ob} was built without authentication, see
+     * {@link #AES256CTR(String, Backend, CipherCore, CounterLayout, boolean)}.
+     * @param ob            Instance of AES256CTR which stores the password.
      * @param filePath      The path to the file which needs to be decrypted.
      * @return Nothing      The file specified by {@code filePath} gets decrypted.
      * @throws IOException
-     * @throws OutOfMemoryError
      * @throws SecurityException
      * @throws InvalidPathException
      * @throws ReadOnlyBufferException
      * @throws BufferOverflowException
      */
     public static void decryption(AES256CTR ob, String filePath) throws 
-            IOException, OutOfMemoryError, SecurityException, InvalidPathException,
+            IOException, SecurityException, InvalidPathException,
             ReadOnlyBufferException, BufferOverflowException {
         
-        encrypt(ob, filePath);
+        decryption(ob, filePath, null);
+    }
+
+    /**
+     * This method performs decryption on the image, using all the threads of {@code pool}.
+     * @param ob            Instance of AES256CTR which stores the password.
+     * @param filePath      The path to the file which needs to be decrypted.
+     * @param pool          The pool on which to decrypt, {@code null} for serial mode.
+     * @return Nothing      The file specified by {@code filePath} gets decrypted.
+     * @throws IOException
+     * @throws SecurityException
+     * @throws InvalidPathException
+     * @throws ReadOnlyBufferException
+     * @throws BufferOverflowException
+     */
+    public static void decryption(AES256CTR ob, String filePath, ForkJoinPool pool) throws 
+            IOException, SecurityException, InvalidPathException,
+            ReadOnlyBufferException, BufferOverflowException {
+        
+        decryption(ob, filePath, pool, null);
+    }
+
+    /**
+     * This method performs decryption on the image, and reports its progress.
+     * The image is replaced in one atomic step, as with {@link #encrypt(AES256CTR, String, ForkJoinPool, Progress)}.
+     * If {@code progress} is cancelled, the file is left as it was before the call.
+     * @param ob            Instance of AES256CTR which stores the password.
+     * @param filePath      The path to the file which needs to be decrypted.
+     * @param pool          The pool on which to decrypt, {@code null} for serial mode.
+     * @param progress      Receives the number of bytes decrypted, {@code null} if not needed.
+     * @return Nothing      The file specified by {@code filePath} gets decrypted.
+     * @throws IOException
+     * @throws SecurityException
+     * @throws InvalidPathException
+     * @throws ReadOnlyBufferException
+     * @throws BufferOverflowException
+     * @throws CancellationException    If {@code progress} was cancelled.
+     */
+    public static void decryption(AES256CTR ob, String filePath, ForkJoinPool pool, Progress progress) throws 
+            IOException, SecurityException, InvalidPathException,
+            ReadOnlyBufferException, BufferOverflowException {
+        
+        writeAtomically(ob, filePath, filePath, pool, progress, false);
+    }
+
+    /**
+     * This method decrypts the image into another file, and keeps the image as it is.
+     * @param ob            Instance of AES256CTR which stores the password.
+     * @param filePath      The path to the file which needs to be decrypted.
+     * @param outputPath    The path to the decrypted file, which is replaced if it exists.
+     * @param pool          The pool on which to decrypt, {@code null} for serial mode.
+     * @param progress      Receives the number of bytes decrypted, {@code null} if not needed.
+     * @return Nothing      The file specified by {@code outputPath} gets written.
+     * @throws IOException
+     * @throws SecurityException
+     * @throws InvalidPathException
+     * @throws CancellationException    If {@code progress} was cancelled.
+     */
+    public static void decryption(AES256CTR ob, String filePath, String outputPath, ForkJoinPool pool,
+            Progress progress) throws IOException, SecurityException, InvalidPathException {
+
+        writeAtomically(ob, filePath, outputPath, pool, progress, false);
+    }
+
+    /**
+     * This method performs encryption on the image in mapped mode.
+     * Instead of reading the file into buffers, windows of the file are mapped into
+     * memory with {@code FileChannel.map} and encrypted directly in the mapped pages.
+     * This is meant for very large files, e.g. virtual machine images.
+     * Unlike the other modes, the file is modified in place, which needs no free disk space,
+     * but a crash in the middle leaves the file partly encrypted.
+     * The output is identical to that of {@link #encrypt(AES256CTR, String, ForkJoinPool)}.
+     * @param ob        Instance of AES256CTR which stores the password.
+     * @param filePath  The path to the file which needs to be encrypted.
+     * @param pool      The pool on which to encrypt, {@code null} for serial mode.
+     * @return Nothing  The file specified by {@code filePath} gets encrypted.
+     * @throws IOException
+     * @throws SecurityException
+     * @throws InvalidPathException
+     */
+    public static void encryptMapped(AES256CTR ob, String filePath, ForkJoinPool pool) throws 
+            IOException, SecurityException, InvalidPathException {
+
+        CryptoMetrics metrics = CryptoMetrics.get();
+        long start = System.nanoTime();
+        boolean done = false;
+
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            long dataLength = channel.size();
+            Trailer trailer = ob.newTrailer(dataLength);
+            ChunkMac mac = ob.newMac(trailer);
+            CipherBackend backend = ob.newBackend(trailer);
+            checkLength(dataLength, trailer.layout);
+            transformMapped(backend, channel, dataLength, trailer, pool, mac);
+            if (mac != null) {
+                mac.seal(trailer);
+            }
+            trailer.write(channel);
+            metrics.addFile(true, dataLength, System.nanoTime() - start);
+            done = true;
+        }
+        finally {
+            if (!done) {
+                metrics.addFailure();
+            }
+        }
+    }
+
+    /**
+     * This method performs decryption on the image in mapped mode.
+     * See {@link #encryptMapped(AES256CTR, String, ForkJoinPool)}.
+     * @param ob            Instance of AES256CTR which stores the password.
+     * @param filePath      The path to the file which needs to be decrypted.
+     * @param pool          The pool on which to decrypt, {@code null} for serial mode.
+     * @return Nothing      The file specified by {@code filePath} gets decrypted.
+     * @throws IOException
+     * @throws SecurityException
+     * @throws InvalidPathException
+     */
+    public static void decryptionMapped(AES256CTR ob, String filePath, ForkJoinPool pool) throws 
+            IOException, SecurityException, InvalidPathException {
+        
+        CryptoMetrics metrics = CryptoMetrics.get();
+        long start = System.nanoTime();
+        boolean done = false;
+
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            Trailer trailer = ob.readTrailer(channel);
+
+            // Everything which can fail is done before the trailer is removed, since the
+            // salt and nonce in it are needed to decrypt the file
+            long dataLength = trailer.dataLength;
+            ChunkMac mac = ob.newMac(trailer);
+            CipherBackend backend = ob.newBackend(trailer);
+            checkLength(dataLength, trailer.layout);
+            if (mac != null) {
+                authenticate(channel, trailer, mac, pool);
+            }
+
+            // Some platforms cannot truncate a file while parts of it are mapped,
+            // so the trailer is removed before mapping the file. A file without
+            // a trailer is not modified by this.
+            channel.truncate(dataLength);
+            transformMapped(backend, channel, dataLength, trailer, pool, null);
+            metrics.addFile(false, dataLength, System.nanoTime() - start);
+            done = true;
+        }
+        finally {
+            if (!done) {
+                metrics.addFailure();
+            }
+        }
+    }
+
+    /**
+     * This method opens a read-only channel on the plaintext of an encrypted file.
+     * The file itself is not modified: every read only decrypts the blocks which
+     * cover the bytes being read, so reading a few bytes anywhere in a very large file
+     * takes one seek and the time to decrypt a block or two.
+     * For an authenticated file, every read checks the whole chunk around it
+     * before returning any of its bytes. A file without tags is refused as by
+     * {@link #decryption(AES256CTR, String)}.
+     * @param ob            Instance of AES256CTR which stores the password.
+     * @param filePath      The path to the encrypted file.
+     * @return              The channel, whose size is the length of the plaintext.
+     * @throws IOException
+     * @throws SecurityException
+     * @throws InvalidPathException
+     */
+    public static SeekableByteChannel openDecrypting(AES256CTR ob, String filePath) throws 
+            IOException, SecurityException, InvalidPathException {
+
+        FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+        try {
+            Trailer trailer = ob.readTrailer(channel);
+            ChunkMac mac = ob.newMac(trailer);
+            if (mac != null && !mac.verifyTrailer(trailer)) {
+                throw new AuthenticationException("Wrong password, or the trailer was modified");
+            }
+            return new DecryptingChannel(channel, ob.newBackend(trailer), trailer, mac);
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * This method decrypts the bytes [offset, offset + length) of the plaintext of an
+     * encrypted file, without modifying the file. See {@link #openDecrypting(AES256CTR, String)}.
+     * @param ob            Instance of AES256CTR which stores the password.
+     * @param filePath      The path to the encrypted file.
+     * @param offset        The position of the first byte in the plaintext.
+     * @param length        The number of bytes to decrypt.
+     * @return              The plaintext of the range.
+     * @throws IOException
+     * @throws SecurityException
+     * @throws InvalidPathException
+     * @throws IndexOutOfBoundsException    If the range is not within the plaintext.
+     */
+    public static byte[] decryptRange(AES256CTR ob, String filePath, long offset, int length) throws 
+            IOException, SecurityException, InvalidPathException {
+
+        try (SeekableByteChannel channel = openDecrypting(ob, filePath)) {
+
+            if (offset < 0 || length < 0 || offset > channel.size() - length) {
+                throw new IndexOutOfBoundsException("Range [" + offset + ", " + (offset + length) +
+                                                    ") of " + channel.size() + " bytes");
+            }
+
+            ByteBuffer range = ByteBuffer.allocate(length);
+            channel.position(offset);
+            while (range.hasRemaining()) {
+                channel.read(range);
+            }
+            return range.array();
+        }
     }
 }
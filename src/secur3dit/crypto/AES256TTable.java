@@ -0,0 +1,108 @@
+package secur3dit.crypto;
+
+/**
+ * This class implements AES-256 encryption on a single 128-bit data block
+ * using 32-bit words and T-tables. Every column of the state is held in an int,
+ * and one round is 16 table lookups and 16 XORs instead of the byte by byte
+ * steps of {@link AES256}. The output is identical to that of {@link AES256}.
+ * Details at: https://en.wikipedia.org/wiki/Advanced_Encryption_Standard#Optimization_of_the_cipher
+ * @author  Priyanshul Govil
+ */
+public final class AES256TTable implements BlockCipher {
+
+    private static final int ROUND_COUNT = 14;
+
+    /**
+     * The 60 words of the expanded key, 4 words per round key.
+     */
+    private final int[] roundKeys;
+
+    /**
+     * Prepares the cipher for a key by running the key schedule once.
+     * @param key       The 256-bit key stored as byte[32].
+     */
+    public AES256TTable(byte[] key) {
+        super();
+        this.roundKeys = Helpers.keyExpansion(key);
+    }
+
+    /**
+     * Prepares the cipher for a key by running the key schedule once.
+     * @param key       The 256-bit key stored as char[32].
+     */
+    public AES256TTable(char[] key) {
+        this(Helpers.toBytes(key));
+    }
+
+    /**
+     * This method performs AES-256 encryption on 16 bytes of data,
+     * using the round keys prepared by the constructor.
+     */
+    @Override
+    public void encryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+
+        final int[] rk = roundKeys;
+        final int[] T0 = Constants.TE0;
+        final int[] T1 = Constants.TE1;
+        final int[] T2 = Constants.TE2;
+        final int[] T3 = Constants.TE3;
+
+        // Step 1: Intial Round Key Addtion, one word per column
+        int s0 = Helpers.toWord(in, inOff) ^ rk[0];
+        int s1 = Helpers.toWord(in, inOff + 4) ^ rk[1];
+        int s2 = Helpers.toWord(in, inOff + 8) ^ rk[2];
+        int s3 = Helpers.toWord(in, inOff + 12) ^ rk[3];
+
+        // Step 2: 13 rounds, the row shifts are done by picking the bytes
+        // of the new column from the four different columns
+        int k = 4;
+        for (int i = 1; i < ROUND_COUNT; ++i) {
+            int t0 = T0[s0 >>> 24] ^ T1[(s1 >>> 16) & 0xff] ^ T2[(s2 >>> 8) & 0xff] ^ T3[s3 & 0xff] ^ rk[k];
+            int t1 = T0[s1 >>> 24] ^ T1[(s2 >>> 16) & 0xff] ^ T2[(s3 >>> 8) & 0xff] ^ T3[s0 & 0xff] ^ rk[k + 1];
+            int t2 = T0[s2 >>> 24] ^ T1[(s3 >>> 16) & 0xff] ^ T2[(s0 >>> 8) & 0xff] ^ T3[s1 & 0xff] ^ rk[k + 2];
+            int t3 = T0[s3 >>> 24] ^ T1[(s0 >>> 16) & 0xff] ^ T2[(s1 >>> 8) & 0xff] ^ T3[s2 & 0xff] ^ rk[k + 3];
+            s0 = t0;
+            s1 = t1;
+            s2 = t2;
+            s3 = t3;
+            k += 4;
+        }
+
+        // Step 3: Final round, without MixColumns
+        final int[] S = Constants.SBOX;
+        Helpers.fromWord(((S[s0 >>> 24] << 24) | (S[(s1 >>> 16) & 0xff] << 16)
+                | (S[(s2 >>> 8) & 0xff] << 8) | S[s3 & 0xff]) ^ rk[k], out, outOff);
+        Helpers.fromWord(((S[s1 >>> 24] << 24) | (S[(s2 >>> 16) & 0xff] << 16)
+                | (S[(s3 >>> 8) & 0xff] << 8) | S[s0 & 0xff]) ^ rk[k + 1], out, outOff + 4);
+        Helpers.fromWord(((S[s2 >>> 24] << 24) | (S[(s3 >>> 16) & 0xff] << 16)
+                | (S[(s0 >>> 8) & 0xff] << 8) | S[s1 & 0xff]) ^ rk[k + 2], out, outOff + 8);
+        Helpers.fromWord(((S[s3 >>> 24] << 24) | (S[(s0 >>> 16) & 0xff] << 16)
+                | (S[(s1 >>> 8) & 0xff] << 8) | S[s2 & 0xff]) ^ rk[k + 3], out, outOff + 12);
+    }
+
+    /**
+     * This method performs AES-256 encryption on 16 bytes of data.
+     * The key schedule is run on every call, so prefer an instance of
+     * {@code AES256TTable} when encrypting more than one block with the same key.
+     * @param state     The 16 byte data block.
+     * @param key       The 256-bit key stored as byte[32].
+     * @return Nothing  The data gets encrypted.
+     */
+    public static void encrypt(byte[] state, byte[] key) {
+
+        new AES256TTable(key).encryptBlock(state, 0, state, 0);
+    }
+
+    /**
+     * This method performs AES-256 encryption on 16 bytes of data.
+     * The key schedule is run on every call, so prefer an instance of
+     * {@code AES256TTable} when encrypting more than one block with the same key.
+     * @param state     The 16 byte data block stored as char[16].
+     * @param key       The 256-bit key stored as char[32].
+     * @return Nothing  The data gets encrypted.
+     */
+    public static void encrypt(char[] state, char[] key) {
+
+        new AES256TTable(key).encrypt(state);
+    }
+}
@@ -0,0 +1,21 @@
+package secur3dit.crypto;
+
+import java.io.IOException;
+
+/**
+ * This exception is thrown when an authenticated file does not match its tags,
+ * because the password is wrong or because the file was modified.
+ * It is always thrown before anything is written, so the file is left as it was.
+ * @author  Priyanshul Govil
+ */
+public class AuthenticationException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param message   The part of the file which failed.
+     */
+    public AuthenticationException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,126 @@
+package secur3dit.crypto;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+
+/**
+ * The backends that AES256CTR can apply the keystream with.
+ * Both produce exactly the same output, they only differ in speed.
+ *
+ * The backend used by default is read from the system property
+ * {@code secur3dit.crypto.backend}, which can be {@code java} or {@code jce}.
+ * Without the property, {@code JCE} is used. Either way, {@code JCE} is only used
+ * if the self-test passes, which is run once, the first time the backend is resolved.
+ * @author  Priyanshul Govil
+ */
+public enum Backend {
+
+    /**
+     * The pure-Java cipher cores of this package, see {@link CipherCore}.
+     */
+    JAVA,
+
+    /**
+     * "AES/CTR/NoPadding" from the JDK, which can use the AES instructions of the processor.
+     * It only supports {@code CounterLayout.ADD_128}, the other layouts use {@code JAVA}.
+     */
+    JCE;
+
+    /**
+     * The system property which selects the default backend.
+     */
+    public static final String PROPERTY = "secur3dit.crypto.backend";
+
+    /**
+     * Number of bytes encrypted by the self-test. It is not a multiple of
+     * the block size, so that a partial last block is covered as well.
+     */
+    private static final int SELF_TEST_SIZE = 4099;
+
+    /**
+     * Holds the configured backend, so that the self-test runs only once and only when needed.
+     */
+    private static final class Configured {
+        static final Backend VALUE = resolve();
+    }
+
+    /**
+     * Prepares a backend for a key, nonce and counter layout.
+     * @param key       The 256-bit key stored as byte[32].
+     * @param nonce     The nonce of type byte[16].
+     * @param layout    The counter layout.
+     * @param cipher    The pure-Java cipher core prepared with the key, used by {@code JAVA}.
+     * @return          The backend.
+     */
+    CipherBackend newBackend(byte[] key, byte[] nonce, CounterLayout layout, BlockCipher cipher) {
+
+        if (this == JCE && layout == CounterLayout.ADD_128) {
+            return new JceBackend(key, nonce);
+        }
+        return new JavaBackend(cipher, nonce, layout);
+    }
+
+    /**
+     * @return The backend selected by the system property, see the class description.
+     */
+    public static Backend configured() {
+        return Configured.VALUE;
+    }
+
+    /**
+     * Reads the system property and runs the self-test if needed.
+     * @return The backend to use by default.
+     */
+    private static Backend resolve() {
+
+        String property = System.getProperty(PROPERTY, "jce");
+        if (property.equalsIgnoreCase("java")) {
+            return JAVA;
+        }
+        return selfTest() ? JCE : JAVA;
+    }
+
+    /**
+     * Encrypts the same random data with a random key and nonce on every backend,
+     * and checks that they all produce identical ciphertext.
+     * @return {@code true} if all the backends agree.
+     */
+    public static boolean selfTest() {
+
+        if (!JceBackend.isAvailable()) {
+            return false;
+        }
+
+        SecureRandom random = new SecureRandom();
+        byte[] key = new byte[32];
+        byte[] nonce = new byte[16];
+        byte[] data = new byte[SELF_TEST_SIZE];
+        random.nextBytes(key);
+        random.nextBytes(nonce);
+        random.nextBytes(data);
+
+        // Start from a block number that carries into the upper half of the counter
+        long firstBlock = 0xffffffffL;
+        int blocks = (SELF_TEST_SIZE + 15) / 16;
+        BlockCipher cipher = CipherCore.T_TABLE.newCipher(key);
+
+        ByteBuffer expected = ByteBuffer.wrap(data.clone());
+        JAVA.newBackend(key, nonce, CounterLayout.ADD_128, cipher)
+            .apply(expected, SELF_TEST_SIZE, firstBlock, 0, blocks);
+
+        // Heap chunks and mapped windows go through different paths of the JDK
+        ByteBuffer actual = ByteBuffer.wrap(data.clone());
+        ByteBuffer actualDirect = ByteBuffer.allocateDirect(SELF_TEST_SIZE);
+        actualDirect.put(data).clear();
+        try {
+            CipherBackend jce = JCE.newBackend(key, nonce, CounterLayout.ADD_128, cipher);
+            jce.apply(actual, SELF_TEST_SIZE, firstBlock, 0, blocks);
+            jce.apply(actualDirect, SELF_TEST_SIZE, firstBlock, 0, blocks);
+        }
+        catch (IllegalStateException e) {
+            return false;
+        }
+
+        return expected.equals(actual) && expected.equals(actualDirect);
+    }
+}
@@ -0,0 +1,34 @@
+package secur3dit.crypto;
+
+/**
+ * This interface is implemented by every AES-256 cipher core.
+ * An instance is prepared for a single key and encrypts 128-bit blocks with it.
+ * Implementations must not modify any state other than the output block,
+ * so one instance can be shared by all the threads of AES256CTR in parallel mode.
+ * @author  Priyanshul Govil
+ */
+public interface BlockCipher {
+
+    /**
+     * This method performs AES-256 encryption on 16 bytes of data.
+     * {@code in} and {@code out} may be the same array, even at the same offset.
+     * @param in        The array holding the plaintext block.
+     * @param inOff     The index of the first byte of the plaintext block.
+     * @param out       The array in which to store the encrypted block.
+     * @param outOff    The index at which to store the encrypted block.
+     * @return Nothing  The encrypted block gets stored in {@code out}.
+     */
+    void encryptBlock(byte[] in, int inOff, byte[] out, int outOff);
+
+    /**
+     * This method performs AES-256 encryption on 16 bytes of data.
+     * @param state     The 16 byte data block stored as char[16].
+     * @return Nothing  The data gets encrypted.
+     */
+    default void encrypt(char[] state) {
+
+        byte[] block = Helpers.toBytes(state);
+        encryptBlock(block, 0, block, 0);
+        Helpers.toChars(block, state);
+    }
+}
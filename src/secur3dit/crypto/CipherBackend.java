@@ -0,0 +1,25 @@
+package secur3dit.crypto;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This interface is implemented by every backend that applies the CTR keystream.
+ * An instance is prepared for a single key, nonce and counter layout.
+ * AES256CTR splits a file into chunks, and a chunk into ranges of blocks, and hands
+ * every range to the backend. Ranges are independent, so implementations must allow
+ * several threads to transform disjoint ranges of the same chunk at once.
+ * @author  Priyanshul Govil
+ */
+public interface CipherBackend {
+
+    /**
+     * XORs the keystream into the blocks [from, to) of a chunk of the file, in place.
+     * @param chunk         The bytes of the chunk, accessed by absolute index.
+     * @param length        The number of valid bytes in {@code chunk}, the last block may be partial.
+     * @param firstBlock    The block number of the first block of the chunk in the file.
+     * @param from          The first block of the chunk to transform.
+     * @param to            The block of the chunk at which to stop, exclusive.
+     * @return Nothing      The blocks of the chunk get encrypted, or decrypted.
+     */
+    void apply(ByteBuffer chunk, int length, long firstBlock, int from, int to);
+}
@@ -0,0 +1,42 @@
+package secur3dit.crypto;
+
+/**
+ * The cipher cores that AES256CTR can be built on.
+ * Both produce exactly the same output, they only differ in speed.
+ * @author  Priyanshul Govil
+ */
+public enum CipherCore {
+
+    /**
+     * The byte oriented reference implementation, {@link AES256}.
+     */
+    REFERENCE,
+
+    /**
+     * The 32-bit word implementation using T-tables, {@link AES256TTable}.
+     */
+    T_TABLE;
+
+    /**
+     * Prepares a cipher of this core for a key.
+     * @param key   The 256-bit key stored as byte[32].
+     * @return      The cipher.
+     */
+    public BlockCipher newCipher(byte[] key) {
+
+        if (this == REFERENCE) {
+            return new AES256(key);
+        }
+        return new AES256TTable(key);
+    }
+
+    /**
+     * Prepares a cipher of this core for a key.
+     * @param key   The 256-bit key stored as char[32].
+     * @return      The cipher.
+     */
+    public BlockCipher newCipher(char[] key) {
+
+        return newCipher(Helpers.toBytes(key));
+    }
+}
@@ -10,7 +10,7 @@ final class Constants {
     /**
      * This S-BOX is used for the SubBytes step in AES encryption.
      */
-    static final char[] SBOX = {
+    static final int[] SBOX = {
         0x63, 0x7c, 0x77, 0x7b, 0xf2, 0x6b, 0x6f, 0xc5, 0x30, 0x01, 0x67, 0x2b, 0xfe, 0xd7, 0xab, 0x76,
         0xca, 0x82, 0xc9, 0x7d, 0xfa, 0x59, 0x47, 0xf0, 0xad, 0xd4, 0xa2, 0xaf, 0x9c, 0xa4, 0x72, 0xc0,
         0xb7, 0xfd, 0x93, 0x26, 0x36, 0x3f, 0xf7, 0xcc, 0x34, 0xa5, 0xe5, 0xf1, 0x71, 0xd8, 0x31, 0x15,
@@ -33,7 +33,7 @@ final class Constants {
      * This lookup table gives the multiplication of a byte with 2
      * in the Galois Field over 2^8.
      */
-    static final char[] MUL2 = {
+    static final int[] MUL2 = {
         0x00, 0x02, 0x04, 0x06, 0x08, 0x0a, 0x0c, 0x0e, 0x10, 0x12, 0x14, 0x16, 0x18, 0x1a, 0x1c, 0x1e,
         0x20, 0x22, 0x24, 0x26, 0x28, 0x2a, 0x2c, 0x2e, 0x30, 0x32, 0x34, 0x36, 0x38, 0x3a, 0x3c, 0x3e,
         0x40, 0x42, 0x44, 0x46, 0x48, 0x4a, 0x4c, 0x4e, 0x50, 0x52, 0x54, 0x56, 0x58, 0x5a, 0x5c, 0x5e,
@@ -56,7 +56,7 @@ final class Constants {
      * This lookup table gives the multiplication of a byte with 3
      * in the Galois Field over 2^8.
      */
-    static final char[] MUL3 = {
+    static final int[] MUL3 = {
         0x00, 0x03, 0x06, 0x05, 0x0c, 0x0f, 0x0a, 0x09, 0x18, 0x1b, 0x1e, 0x1d, 0x14, 0x17, 0x12, 0x11,
         0x30, 0x33, 0x36, 0x35, 0x3c, 0x3f, 0x3a, 0x39, 0x28, 0x2b, 0x2e, 0x2d, 0x24, 0x27, 0x22, 0x21,
         0x60, 0x63, 0x66, 0x65, 0x6c, 0x6f, 0x6a, 0x69, 0x78, 0x7b, 0x7e, 0x7d, 0x74, 0x77, 0x72, 0x71,
@@ -74,4 +74,27 @@ final class Constants {
         0x3b, 0x38, 0x3d, 0x3e, 0x37, 0x34, 0x31, 0x32, 0x23, 0x20, 0x25, 0x26, 0x2f, 0x2c, 0x29, 0x2a,
         0x0b, 0x08, 0x0d, 0x0e, 0x07, 0x04, 0x01, 0x02, 0x13, 0x10, 0x15, 0x16, 0x1f, 0x1c, 0x19, 0x1a
     };
+
+    /**
+     * These T-tables merge the SubBytes, ShiftRows and MixColumns steps for the
+     * 32-bit word implementation in {@code AES256TTable}. {@code TE0[x]} is the column
+     * (2 * S[x], S[x], S[x], 3 * S[x]) packed big-endian into an int, and every other
+     * table is the previous one rotated right by 8 bits.
+     * Details at: https://en.wikipedia.org/wiki/Advanced_Encryption_Standard#Optimization_of_the_cipher
+     */
+    static final int[] TE0 = new int[256];
+    static final int[] TE1 = new int[256];
+    static final int[] TE2 = new int[256];
+    static final int[] TE3 = new int[256];
+
+    static {
+        for (int x = 0; x < 256; ++x) {
+            int s = SBOX[x];
+            int word = (MUL2[s] << 24) | (s << 16) | (s << 8) | MUL3[s];
+            TE0[x] = word;
+            TE1[x] = Integer.rotateRight(word, 8);
+            TE2[x] = Integer.rotateRight(word, 16);
+            TE3[x] = Integer.rotateRight(word, 24);
+        }
+    }
 }
@@ -0,0 +1,127 @@
+package secur3dit.crypto;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class describes a file encrypted by AES256CTR, from the trailer at its end,
+ * without the password and without decrypting anything.
+ * It tells whether a file is encrypted, how the key was derived, and where every chunk
+ * of the data is, so that a reader can seek to any chunk directly.
+ * @author  Priyanshul Govil
+ */
+public final class Container {
+
+    private final Trailer trailer;
+
+    private Container(Trailer trailer) {
+        this.trailer = trailer;
+    }
+
+    /**
+     * Reads the description of an encrypted file.
+     * @param filePath      The path to the file.
+     * @return              The description, {@code null} if the file has no trailer.
+     *                      Files encrypted by the first versions have none, and cannot
+     *                      be told apart from plaintext.
+     * @throws IOException  If the trailer is damaged or of an unknown version.
+     */
+    public static Container read(String filePath) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            Trailer trailer = Trailer.read(channel);
+            return trailer == null ? null : new Container(trailer);
+        }
+    }
+
+    /**
+     * @param filePath      The path to the file.
+     * @return              {@code true} if the file ends with a trailer of AES256CTR.
+     * @throws IOException  If the trailer is damaged or of an unknown version.
+     */
+    public static boolean isEncrypted(String filePath) throws IOException {
+        return read(filePath) != null;
+    }
+
+    /**
+     * @return  The version of the trailer.
+     */
+    public int getVersion() {
+        return trailer.version;
+    }
+
+    /**
+     * @return  The counter layout with which the file was encrypted.
+     */
+    public CounterLayout getLayout() {
+        return trailer.layout;
+    }
+
+    /**
+     * @return  {@code true} if the key was derived with PBKDF2-HMAC-SHA256, {@code false}
+     *          if it was hashed from the password with SHA-256 by an older version.
+     */
+    public boolean isKeyDerived() {
+        return trailer.isDerived();
+    }
+
+    /**
+     * @return  {@code true} if every chunk has a tag, so that a wrong password
+     *          or a modified file is detected before decrypting.
+     */
+    public boolean isAuthenticated() {
+        return trailer.isAuthenticated();
+    }
+
+    /**
+     * @return  The number of PBKDF2 iterations, 0 if the key was not derived.
+     */
+    public int getIterations() {
+        return trailer.iterations;
+    }
+
+    /**
+     * @return  The number of bytes of ciphertext, which is also the length of the plaintext.
+     */
+    public long getDataLength() {
+        return trailer.dataLength;
+    }
+
+    /**
+     * @return  The size of the chunks of the data.
+     */
+    public int getChunkSize() {
+        return trailer.chunkSize;
+    }
+
+    /**
+     * @return  The number of chunks of the data, the last one may be partial.
+     */
+    public long getChunkCount() {
+        return trailer.chunkCount();
+    }
+
+    /**
+     * @param chunk     The index of a chunk.
+     * @return          The offset of the chunk in the file, and in the plaintext.
+     * @throws IndexOutOfBoundsException    If there is no such chunk.
+     */
+    public long getChunkOffset(long chunk) {
+
+        if (chunk < 0 || chunk >= trailer.chunkCount()) {
+            throw new IndexOutOfBoundsException("Chunk " + chunk + " of " + trailer.chunkCount());
+        }
+        return trailer.chunkOffset(chunk);
+    }
+
+    /**
+     * @param chunk     The index of a chunk.
+     * @return          The length of the chunk.
+     * @throws IndexOutOfBoundsException    If there is no such chunk.
+     */
+    public int getChunkLength(long chunk) {
+        return (int) Math.min(trailer.chunkSize, trailer.dataLength - getChunkOffset(chunk));
+    }
+}
@@ -0,0 +1,107 @@
+package secur3dit.crypto;
+
+/**
+ * The ways in which AES256CTR builds the counter block of every block from the nonce.
+ * The layout used is recorded in the trailer of every encrypted file.
+ * Details at: https://en.wikipedia.org/wiki/Block_cipher_mode_of_operation#Counter_(CTR)
+ * @author  Priyanshul Govil
+ */
+public enum CounterLayout {
+
+    /**
+     * Counter block = Nonce XOR BlockNumber, where the block number is a 32-bit
+     * big-endian integer in the first 4 bytes. This is the layout of the first versions,
+     * kept to decrypt their files. The keystream repeats after 2^32 blocks (64 GB).
+     */
+    XOR_32((byte) 1, 1L << 32) {
+
+        @Override
+        void initialize(byte[] counter, byte[] nonce, long blockNum) {
+            System.arraycopy(nonce, 0, counter, 0, counter.length);
+            next(counter, nonce, blockNum);
+        }
+
+        @Override
+        void next(byte[] counter, byte[] nonce, long blockNum) {
+            counter[0] = (byte) (nonce[0] ^ (blockNum >>> 24));
+            counter[1] = (byte) (nonce[1] ^ (blockNum >>> 16));
+            counter[2] = (byte) (nonce[2] ^ (blockNum >>> 8));
+            counter[3] = (byte) (nonce[3] ^ blockNum);
+        }
+    },
+
+    /**
+     * Counter block = Nonce + BlockNumber, where both are treated as 128-bit
+     * big-endian integers. This is the standard CTR counter, as used by
+     * "AES/CTR/NoPadding" in the JDK. Moving to the next block is an in-place
+     * increment, and a 64-bit block number never repeats a counter block.
+     */
+    ADD_128((byte) 2, Long.MAX_VALUE) {
+
+        @Override
+        void initialize(byte[] counter, byte[] nonce, long blockNum) {
+            int carry = 0;
+            for (int i = counter.length - 1; i >= 0; --i) {
+                int sum = (nonce[i] & 0xff) + (int) (blockNum & 0xff) + carry;
+                counter[i] = (byte) sum;
+                carry = sum >>> 8;
+                blockNum >>>= 8;
+            }
+        }
+
+        @Override
+        void next(byte[] counter, byte[] nonce, long blockNum) {
+            for (int i = counter.length - 1; i >= 0; --i) {
+                if (++counter[i] != 0) {
+                    break;
+                }
+            }
+        }
+    };
+
+    /**
+     * The value stored in the trailer for this layout.
+     */
+    final byte id;
+
+    /**
+     * The number of blocks after which the counter block would repeat.
+     */
+    final long maxBlocks;
+
+    CounterLayout(byte id, long maxBlocks) {
+        this.id = id;
+        this.maxBlocks = maxBlocks;
+    }
+
+    /**
+     * Sets {@code counter} to the counter block of {@code blockNum}.
+     * @param counter   The counter block of type byte[16], which gets modified.
+     * @param nonce     The nonce of type byte[16].
+     * @param blockNum  The block number.
+     */
+    abstract void initialize(byte[] counter, byte[] nonce, long blockNum);
+
+    /**
+     * Moves {@code counter} from the counter block of {@code blockNum - 1}
+     * to the counter block of {@code blockNum}.
+     * @param counter   The counter block of type byte[16], which gets modified.
+     * @param nonce     The nonce of type byte[16].
+     * @param blockNum  The new block number.
+     */
+    abstract void next(byte[] counter, byte[] nonce, long blockNum);
+
+    /**
+     * @param id    A value stored in a trailer.
+     * @return      The layout with that value, {@code null} if there is none.
+     */
+    static CounterLayout fromId(byte id) {
+
+        for (CounterLayout layout : values()) {
+            if (layout.id == id) {
+                return layout;
+            }
+        }
+        return null;
+    }
+}
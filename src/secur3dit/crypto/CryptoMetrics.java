@@ -0,0 +1,252 @@
+package secur3dit.crypto;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * This class counts the work done by AES256CTR, so that it can be told whether the disk
+ * or the CPU limits the throughput: when the read and write times dominate the cipher
+ * time, more threads will not help.
+ *
+ * The counters are LongAdders, updated once per chunk and once per file, so they cost
+ * nothing noticeable next to the cipher. They are exposed through JMX, see
+ * {@link CryptoMetricsMXBean}, and as text with {@link #dump()}.
+ * @author  Priyanshul Govil
+ */
+public final class CryptoMetrics implements CryptoMetricsMXBean {
+
+    private static final CryptoMetrics INSTANCE = new CryptoMetrics();
+
+    /**
+     * Latency buckets, the last one holds every file of 2^20 ms (about 17 minutes) and more.
+     */
+    private static final int BUCKETS = 22;
+
+    private static volatile boolean registered = false;
+
+    private final LongAdder filesEncrypted = new LongAdder();
+    private final LongAdder filesDecrypted = new LongAdder();
+    private final LongAdder filesFailed = new LongAdder();
+    private final LongAdder bytesEncrypted = new LongAdder();
+    private final LongAdder bytesDecrypted = new LongAdder();
+    private final LongAdder readNanos = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+    private final LongAdder cipherNanos = new LongAdder();
+    private final LongAdder cipherBytes = new LongAdder();
+    private final LongAdder macNanos = new LongAdder();
+    private final LongAdder keyDerivations = new LongAdder();
+    private final LongAdder keyDerivationNanos = new LongAdder();
+    private final AtomicLongArray latency = new AtomicLongArray(BUCKETS);
+
+    private CryptoMetrics() {
+    }
+
+    /**
+     * Returns the metrics of this process, and registers them with the platform
+     * MBean server the first time. Registering loads JMX, which takes a while,
+     * so it is not done before the first file.
+     * @return  The metrics.
+     */
+    public static CryptoMetrics get() {
+
+        if (!registered) {
+            register();
+        }
+        return INSTANCE;
+    }
+
+    private static synchronized void register() {
+
+        if (registered) {
+            return;
+        }
+        registered = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                INSTANCE, new ObjectName("secur3dit:type=CryptoMetrics"));
+        }
+        catch (JMException | SecurityException e) {
+            // The metrics still work without JMX, e.g. through dump()
+        }
+    }
+
+    /**
+     * Records the time spent in one stage of a file.
+     */
+    void addRead(long nanos) {
+        readNanos.add(nanos);
+    }
+
+    void addWrite(long nanos) {
+        writeNanos.add(nanos);
+    }
+
+    void addCipher(long nanos, long bytes) {
+        cipherNanos.add(nanos);
+        cipherBytes.add(bytes);
+    }
+
+    void addMac(long nanos) {
+        macNanos.add(nanos);
+    }
+
+    void addKeyDerivation(long nanos) {
+        keyDerivations.increment();
+        keyDerivationNanos.add(nanos);
+    }
+
+    /**
+     * Records a file which was encrypted or decrypted.
+     * @param encrypt   {@code true} if it was encrypted.
+     * @param bytes     The length of its plaintext.
+     * @param nanos     The time the whole file took, key derivation included.
+     */
+    void addFile(boolean encrypt, long bytes, long nanos) {
+
+        (encrypt ? filesEncrypted : filesDecrypted).increment();
+        (encrypt ? bytesEncrypted : bytesDecrypted).add(bytes);
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int bucket = millis == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+        latency.incrementAndGet(bucket);
+    }
+
+    void addFailure() {
+        filesFailed.increment();
+    }
+
+    @Override
+    public long getFilesEncrypted() {
+        return filesEncrypted.sum();
+    }
+
+    @Override
+    public long getFilesDecrypted() {
+        return filesDecrypted.sum();
+    }
+
+    @Override
+    public long getFilesFailed() {
+        return filesFailed.sum();
+    }
+
+    @Override
+    public long getBytesEncrypted() {
+        return bytesEncrypted.sum();
+    }
+
+    @Override
+    public long getBytesDecrypted() {
+        return bytesDecrypted.sum();
+    }
+
+    @Override
+    public long getReadNanos() {
+        return readNanos.sum();
+    }
+
+    @Override
+    public long getWriteNanos() {
+        return writeNanos.sum();
+    }
+
+    @Override
+    public long getCipherNanos() {
+        return cipherNanos.sum();
+    }
+
+    @Override
+    public long getMacNanos() {
+        return macNanos.sum();
+    }
+
+    @Override
+    public long getKeyDerivations() {
+        return keyDerivations.sum();
+    }
+
+    @Override
+    public long getKeyDerivationNanos() {
+        return keyDerivationNanos.sum();
+    }
+
+    @Override
+    public double getBlocksPerSecond() {
+
+        long nanos = cipherNanos.sum();
+        return nanos == 0 ? 0 : (cipherBytes.sum() / 16.0) / (nanos / 1e9);
+    }
+
+    @Override
+    public long[] getFileLatencyHistogram() {
+
+        long[] histogram = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; ++i) {
+            histogram[i] = latency.get(i);
+        }
+        return histogram;
+    }
+
+    @Override
+    public long getFileLatencyPercentileMillis(double percentile) {
+
+        long[] histogram = getFileLatencyHistogram();
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += histogram[i];
+            if (seen >= rank && histogram[i] > 0) {
+                return 1L << i;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public String dump() {
+
+        StringBuilder text = new StringBuilder();
+        line(text, "files encrypted", "%d, %.1f MB", getFilesEncrypted(), getBytesEncrypted() / 1048576.0);
+        line(text, "files decrypted", "%d, %.1f MB", getFilesDecrypted(), getBytesDecrypted() / 1048576.0);
+        line(text, "files failed", "%d", getFilesFailed());
+        line(text, "read", "%.1f ms", getReadNanos() / 1e6);
+        line(text, "write", "%.1f ms", getWriteNanos() / 1e6);
+        line(text, "cipher", "%.1f ms, %.0f blocks/s", getCipherNanos() / 1e6, getBlocksPerSecond());
+        line(text, "mac", "%.1f ms", getMacNanos() / 1e6);
+        line(text, "key derivations", "%d, %.1f ms", getKeyDerivations(), getKeyDerivationNanos() / 1e6);
+        line(text, "file latency", "p50 <= %d ms, p90 <= %d ms, p99 <= %d ms",
+             getFileLatencyPercentileMillis(50), getFileLatencyPercentileMillis(90),
+             getFileLatencyPercentileMillis(99));
+        return text.toString();
+    }
+
+    private static void line(StringBuilder text, String name, String format, Object... values) {
+        text.append(String.format(Locale.ROOT, "%-16s ", name + ":"))
+            .append(String.format(Locale.ROOT, format, values))
+            .append(System.lineSeparator());
+    }
+
+    @Override
+    public void reset() {
+
+        LongAdder[] adders = {
+            filesEncrypted, filesDecrypted, filesFailed, bytesEncrypted, bytesDecrypted, readNanos,
+            writeNanos, cipherNanos, cipherBytes, macNanos, keyDerivations, keyDerivationNanos
+        };
+        for (LongAdder adder : adders) {
+            adder.reset();
+        }
+        for (int i = 0; i < BUCKETS; ++i) {
+            latency.set(i, 0);
+        }
+    }
+}
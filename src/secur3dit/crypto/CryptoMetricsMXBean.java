@@ -0,0 +1,75 @@
+package secur3dit.crypto;
+
+/**
+ * This interface is the JMX view of {@link CryptoMetrics}, registered as
+ * {@code secur3dit:type=CryptoMetrics}, e.g. to be watched with JConsole or VisualVM.
+ * Times are wall-clock nanoseconds summed over all the files, and counters are totals
+ * since the start of the process or the last {@link #reset()}.
+ * @author  Priyanshul Govil
+ */
+public interface CryptoMetricsMXBean {
+
+    long getFilesEncrypted();
+
+    long getFilesDecrypted();
+
+    long getFilesFailed();
+
+    long getBytesEncrypted();
+
+    long getBytesDecrypted();
+
+    /**
+     * @return  The time spent reading files, and waiting for them to be mapped.
+     */
+    long getReadNanos();
+
+    /**
+     * @return  The time spent writing files, including forcing them to the disk.
+     */
+    long getWriteNanos();
+
+    /**
+     * @return  The time spent applying the keystream.
+     */
+    long getCipherNanos();
+
+    /**
+     * @return  The time spent computing and checking the tags of authenticated files.
+     */
+    long getMacNanos();
+
+    /**
+     * @return  The number of keys derived with PBKDF2, i.e. the misses of the key cache.
+     */
+    long getKeyDerivations();
+
+    long getKeyDerivationNanos();
+
+    /**
+     * @return  The blocks transformed per second of cipher time.
+     */
+    double getBlocksPerSecond();
+
+    /**
+     * @return  The number of files whose latency was in each bucket: bucket 0 holds
+     *          the files under 1 ms, and bucket {@code i} those under {@code 2^i} ms.
+     */
+    long[] getFileLatencyHistogram();
+
+    /**
+     * @param percentile    The percentile, in (0, 100].
+     * @return              An upper bound of the latency of that percentile of the files, in ms.
+     */
+    long getFileLatencyPercentileMillis(double percentile);
+
+    /**
+     * @return  Every metric, one per line, for a log or a support request.
+     */
+    String dump();
+
+    /**
+     * Sets every metric back to zero.
+     */
+    void reset();
+}
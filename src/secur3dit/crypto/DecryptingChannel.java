@@ -0,0 +1,207 @@
+package secur3dit.crypto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * This channel reads the plaintext of an encrypted file without decrypting the file itself.
+ * Since every block of CTR mode only depends on its block number, a read at any position
+ * only decrypts the blocks which cover the bytes being read.
+ * Its size is the length of the plaintext, the trailer is not part of it.
+ * The chunks of an authenticated file are read whole instead, and checked against
+ * their tags before any of their bytes are returned. The last chunk read is kept,
+ * so that reading a chunk in small pieces checks it only once.
+ * The channel is read-only, and like FileChannel, it is not meant to be shared between threads.
+ * @author  Priyanshul Govil
+ */
+final class DecryptingChannel implements SeekableByteChannel {
+
+    private static final int BLOCK_SIZE = 16;
+
+    /**
+     * Size of the buffer in which the ciphertext is decrypted. A multiple of {@code BLOCK_SIZE}.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final CipherBackend backend;
+    private final long size;
+    private final ByteBuffer buffer;
+    private long position = 0;
+
+    private final Trailer trailer;
+    private final ChunkMac mac;
+
+    /**
+     * The chunk held by {@code buffer} when the file is authenticated, -1 if none.
+     */
+    private long loadedChunk = -1;
+
+    /**
+     * @param channel   The channel of the encrypted file, which is closed with this channel.
+     * @param backend   The backend prepared for the file.
+     * @param trailer   The trailer of the file.
+     * @param mac       The MAC of the file, {@code null} if it is not authenticated.
+     */
+    DecryptingChannel(FileChannel channel, CipherBackend backend, Trailer trailer, ChunkMac mac) {
+        this.channel = channel;
+        this.backend = backend;
+        this.size = trailer.dataLength;
+        this.trailer = trailer;
+        this.mac = mac;
+        this.buffer = ByteBuffer.allocate(mac == null ? BUFFER_SIZE : trailer.chunkSize);
+    }
+
+    /**
+     * Decrypts bytes from the current position into {@code dst}.
+     * At most one buffer of ciphertext is read per call, starting at the block
+     * which holds the current position.
+     * @param dst   The buffer into which the plaintext is copied.
+     * @return      The number of bytes copied, -1 at the end of the plaintext.
+     * @throws IOException
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+
+        ensureOpen();
+        if (position >= size) {
+            return -1;
+        }
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        if (mac != null) {
+            return readChunk(dst);
+        }
+
+        long start = position - position % BLOCK_SIZE;
+        int skip = (int) (position - start);
+        int length = (int) Math.min(buffer.capacity(), size - start);
+        length = (int) Math.min(length, (long) skip + dst.remaining());
+
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+
+        backend.apply(buffer, length, start / BLOCK_SIZE, 0, (length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+
+        buffer.position(skip);
+        buffer.limit(length);
+        int count = buffer.remaining();
+        dst.put(buffer);
+        position += count;
+        return count;
+    }
+
+    /**
+     * Copies bytes from the chunk which holds the current position,
+     * after loading and checking it if it is not the chunk already loaded.
+     * @param dst   The buffer into which the plaintext is copied.
+     * @return      The number of bytes copied.
+     * @throws IOException
+     * @throws AuthenticationException  If the chunk does not match its tag.
+     */
+    private int readChunk(ByteBuffer dst) throws IOException {
+
+        long chunk = position / trailer.chunkSize;
+        long start = trailer.chunkOffset(chunk);
+        int length = (int) Math.min(trailer.chunkSize, size - start);
+
+        if (chunk != loadedChunk) {
+            loadedChunk = -1;
+            buffer.clear();
+            buffer.limit(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of file");
+                }
+            }
+            if (!mac.verify(buffer, length, start, trailer.chunkTags, null)) {
+                throw new AuthenticationException("The file was modified after byte " + start);
+            }
+            backend.apply(buffer, length, start / BLOCK_SIZE, 0, (length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+            loadedChunk = chunk;
+        }
+
+        buffer.limit(length);
+        buffer.position((int) (position - start));
+        int count = Math.min(buffer.remaining(), dst.remaining());
+        buffer.limit(buffer.position() + count);
+        dst.put(buffer);
+        position += count;
+        return count;
+    }
+
+    /**
+     * @throws NonWritableChannelException  Always, the channel is read-only.
+     */
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() throws IOException {
+        ensureOpen();
+        return position;
+    }
+
+    /**
+     * Moves to a position of the plaintext. Nothing is read until the next {@code read}.
+     * @param newPosition   The position, which may be past the end.
+     * @return              This channel.
+     * @throws IOException
+     */
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        position = newPosition;
+        return this;
+    }
+
+    /**
+     * @return  The length of the plaintext.
+     * @throws IOException
+     */
+    @Override
+    public long size() throws IOException {
+        ensureOpen();
+        return size;
+    }
+
+    /**
+     * @throws NonWritableChannelException  Always, the channel is read-only.
+     */
+    @Override
+    public SeekableByteChannel truncate(long newSize) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!channel.isOpen()) {
+            throw new ClosedChannelException();
+        }
+    }
+}
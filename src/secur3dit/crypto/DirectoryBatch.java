@@ -0,0 +1,344 @@
+package secur3dit.crypto;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class encrypts or decrypts every file of a directory tree with AES256CTR,
+ * on a bounded pool of worker threads.
+ * Small files are grouped so that one task encrypts several of them one after the other,
+ * and large files are encrypted in parallel mode, so that their blocks are split across the pool.
+ * A batch can be cancelled from another thread, or through its Progress.
+ * Files are always processed whole, so cancelling never leaves a file half encrypted:
+ * the files which were already started are finished, and the others are left untouched.
+ * @author  Priyanshul Govil
+ */
+public final class DirectoryBatch {
+
+    /**
+     * Files of at least this many bytes get a task of their own in parallel mode.
+     */
+    private static final long LARGE_FILE = 1L << 24;
+
+    /**
+     * Smaller files are grouped into tasks of up to this many bytes...
+     */
+    private static final long GROUP_BYTES = 1L << 24;
+
+    /**
+     * ...or this many files, whichever comes first.
+     */
+    private static final int GROUP_FILES = 64;
+
+    private final AES256CTR ob;
+    private final int workers;
+    private final Progress progress;
+
+    private volatile boolean cancelled;
+    private final AtomicLong processedFiles = new AtomicLong();
+    private final AtomicLong processedBytes = new AtomicLong();
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    /**
+     * The outcome of a batch.
+     */
+    public static final class Report {
+
+        /** The number of files which were encrypted or decrypted. */
+        public final long files;
+
+        /** The number of bytes in those files. */
+        public final long bytes;
+
+        /** The time taken by the whole batch, in nanoseconds. */
+        public final long nanos;
+
+        /** Whether the batch was cancelled before every file was processed. */
+        public final boolean cancelled;
+
+        /** The files which could not be processed, with the reason. */
+        public final Map<String, Exception> failures;
+
+        Report(long files, long bytes, long nanos, boolean cancelled, Map<String, Exception> failures) {
+            this.files = files;
+            this.bytes = bytes;
+            this.nanos = nanos;
+            this.cancelled = cancelled;
+            this.failures = Collections.unmodifiableMap(failures);
+        }
+
+        /**
+         * @return  The aggregate throughput of the batch, in MB/s.
+         */
+        public double megabytesPerSecond() {
+            return nanos == 0 ? 0 : (bytes / (double) (1 << 20)) / (nanos / 1e9);
+        }
+    }
+
+    /**
+     * A file and its size, as found by the walk.
+     */
+    private static final class Entry {
+
+        final Path path;
+        final long size;
+
+        Entry(Path path, long size) {
+            this.path = path;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Walks the directory tree and lists its files. Every file is listed before
+     * the first one is processed, since processing a file writes a temporary file
+     * next to it, which the walk would otherwise find and process as well.
+     * Temporary files left by a run which was killed are skipped.
+     */
+    private final class Walker extends SimpleFileVisitor<Path> {
+
+        private final Map<String, Exception> failures;
+        private final List<Entry> entries = new ArrayList<>();
+
+        Walker(Map<String, Exception> failures) {
+            this.failures = failures;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+
+            if (isCancelled()) {
+                return FileVisitResult.TERMINATE;
+            }
+            if (!attrs.isRegularFile() || AES256CTR.isTemporaryFile(file)) {
+                return FileVisitResult.CONTINUE;
+            }
+
+            entries.add(new Entry(file, attrs.size()));
+            totalBytes.addAndGet(attrs.size());
+            return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException exc) {
+            failures.put(file.toString(), exc);
+            return FileVisitResult.CONTINUE;
+        }
+    }
+
+    /**
+     * Prepares a batch with one worker per available processor.
+     * @param ob    Instance of AES256CTR which stores the password.
+     */
+    public DirectoryBatch(AES256CTR ob) {
+        this(ob, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Prepares a batch.
+     * @param ob        Instance of AES256CTR which stores the password.
+     * @param workers   The maximum number of threads used by the batch.
+     */
+    public DirectoryBatch(AES256CTR ob, int workers) {
+        this(ob, workers, null);
+    }
+
+    /**
+     * Prepares a batch which reports its progress.
+     * @param ob        Instance of AES256CTR which stores the password.
+     * @param workers   The maximum number of threads used by the batch.
+     * @param progress  Receives the size of every file once it is processed, from the worker
+     *                  threads. Cancelling it cancels the batch. {@code null} if not needed.
+     */
+    public DirectoryBatch(AES256CTR ob, int workers, Progress progress) {
+
+        if (workers < 1) {
+            throw new IllegalArgumentException("A batch needs at least one worker");
+        }
+        this.ob = ob;
+        this.workers = workers;
+        this.progress = progress;
+    }
+
+    /**
+     * Encrypts every regular file under {@code directory}, recursively.
+     * Symbolic links are not followed.
+     * @param directory     The root of the directory tree.
+     * @return              The outcome of the batch.
+     * @throws IOException  If the directory tree cannot be walked.
+     */
+    public Report encrypt(String directory) throws IOException {
+        return run(Paths.get(directory), true);
+    }
+
+    /**
+     * Decrypts every regular file under {@code directory}, recursively.
+     * Symbolic links are not followed.
+     * @param directory     The root of the directory tree.
+     * @return              The outcome of the batch.
+     * @throws IOException  If the directory tree cannot be walked.
+     */
+    public Report decryption(String directory) throws IOException {
+        return run(Paths.get(directory), false);
+    }
+
+    /**
+     * Stops the batch as soon as the files which were already started are done.
+     * This can be called from any thread. A cancelled instance stays cancelled.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return  {@code true} if the batch was cancelled.
+     */
+    public boolean isCancelled() {
+        return cancelled || (progress != null && progress.isCancelled());
+    }
+
+    /**
+     * @return  The number of bytes processed so far, for progress reporting.
+     */
+    public long getProcessedBytes() {
+        return processedBytes.get();
+    }
+
+    /**
+     * @return  The number of bytes of the files found by the walk of the directory tree,
+     *          which is done before the first file is processed.
+     */
+    public long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    /**
+     * This method walks the whole tree, then processes its files and waits for every task to finish.
+     * @param root          The root of the directory tree.
+     * @param encrypt       {@code true} to encrypt, {@code false} to decrypt.
+     * @return              The outcome of the batch.
+     * @throws IOException  If the directory tree cannot be walked.
+     */
+    private Report run(Path root, boolean encrypt) throws IOException {
+
+        long start = System.nanoTime();
+        processedFiles.set(0);
+        processedBytes.set(0);
+        totalBytes.set(0);
+
+        Map<String, Exception> failures = new ConcurrentHashMap<>();
+        ForkJoinPool pool = new ForkJoinPool(workers);
+        Walker walker = new Walker(failures);
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+
+        try {
+            Files.walkFileTree(root, walker);
+            if (!isCancelled()) {
+                submit(walker.entries, pool, encrypt, failures, tasks);
+            }
+        }
+        finally {
+            // Files which were already submitted are always finished
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+            pool.shutdown();
+        }
+
+        return new Report(processedFiles.get(), processedBytes.get(), System.nanoTime() - start,
+                          isCancelled(), failures);
+    }
+
+    /**
+     * Submits the files to the pool. Large files get a task of their own in parallel mode,
+     * and smaller files are grouped into tasks which process them one after the other.
+     * @param entries   The files.
+     * @param pool      The pool of the batch.
+     * @param encrypt   {@code true} to encrypt, {@code false} to decrypt.
+     * @param failures  Where to record the files which cannot be processed.
+     * @param tasks     Receives the tasks, as they are submitted.
+     */
+    private void submit(List<Entry> entries, ForkJoinPool pool, boolean encrypt,
+            Map<String, Exception> failures, List<ForkJoinTask<?>> tasks) {
+
+        List<Entry> group = new ArrayList<>();
+        long groupBytes = 0;
+
+        for (Entry entry : entries) {
+
+            if (entry.size >= LARGE_FILE) {
+                tasks.add(pool.submit(() -> process(entry, pool, encrypt, failures)));
+                continue;
+            }
+
+            group.add(entry);
+            groupBytes += entry.size;
+            if (group.size() >= GROUP_FILES || groupBytes >= GROUP_BYTES) {
+                tasks.add(submitGroup(group, pool, encrypt, failures));
+                group = new ArrayList<>();
+                groupBytes = 0;
+            }
+        }
+
+        if (!group.isEmpty()) {
+            tasks.add(submitGroup(group, pool, encrypt, failures));
+        }
+    }
+
+    /**
+     * Submits a group of small files as one task, in serial mode.
+     */
+    private ForkJoinTask<?> submitGroup(List<Entry> group, ForkJoinPool pool, boolean encrypt,
+            Map<String, Exception> failures) {
+
+        return pool.submit(() -> {
+            for (Entry entry : group) {
+                process(entry, null, encrypt, failures);
+            }
+        });
+    }
+
+    /**
+     * This method encrypts or decrypts one file, unless the batch was cancelled.
+     * @param entry     The file.
+     * @param pool      The pool on which to split the blocks of the file, {@code null} for serial mode.
+     * @param encrypt   {@code true} to encrypt, {@code false} to decrypt.
+     * @param failures  Where to record the file if it cannot be processed.
+     */
+    private void process(Entry entry, ForkJoinPool pool, boolean encrypt, Map<String, Exception> failures) {
+
+        if (isCancelled()) {
+            return;
+        }
+
+        try {
+            if (encrypt) {
+                AES256CTR.encrypt(ob, entry.path.toString(), pool);
+            }
+            else {
+                AES256CTR.decryption(ob, entry.path.toString(), pool);
+            }
+            processedFiles.incrementAndGet();
+            processedBytes.addAndGet(entry.size);
+            if (progress != null) {
+                progress.advance(entry.size);
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            failures.put(entry.path.toString(), e);
+        }
+    }
+}
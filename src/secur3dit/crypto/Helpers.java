@@ -2,6 +2,8 @@ package secur3dit.crypto;
 
 /**
  * This class contains all the functions required to perform AES encryption.
+ * The state is a block of 16 bytes stored as byte[16], in column-major order,
+ * and the expanded key is stored as 32-bit big-endian words.
  * Details at: https://en.wikipedia.org/wiki/Advanced_Encryption_Standard
  * @author  Priyanshul Govil
  */
@@ -12,24 +14,24 @@ final class Helpers {
      * @param state     The state block of AES encryption.
      * @return Nothing  The value of state gets modified.
      */
-    static void subBytes(char[] state) {
+    static void subBytes(byte[] state) {
 
         for (int i = 0; i < state.length; ++i) {
-            state[i] = Constants.SBOX[state[i]];
+            state[i] = (byte) Constants.SBOX[state[i] & 0xff];
         }
     }
 
     /**
      * This method performs the ShiftRows step on a block of 16 bytes.
-     * @param state     The state block of AES encryption (char[16]).
+     * @param state     The state block of AES encryption (byte[16]).
      * @return Nothing  The value of state gets modified.
      */
-    static void shiftRows(char[] state) {
+    static void shiftRows(byte[] state) {
 
         // Row0 <<< 0
 
         // Row1 <<< 1
-        char _temp = state[1];
+        byte _temp = state[1];
         state[1] = state[5];
         state[5] = state[9];
         state[9] = state[13];
@@ -54,159 +56,149 @@ final class Helpers {
     /**
      * This method performs the MixColumns step on a block of 16 bytes.
      * Details at: https://en.wikipedia.org/wiki/Rijndael_MixColumns
-     * 
+     *
      * Addition is bitwise XOR in GF(2^8)
      * Multiplication is done using lookup tables from Constants.java
-     * 
-     * @param state     The state block of AES encryption (char[16]).
+     *
+     * @param state     The state block of AES encryption (byte[16]).
      * @return Nothing  The value of state gets modified.
      */
-    static void mixColumns(char[] state) {
+    static void mixColumns(byte[] state) {
 
         for (int i = 0; i < 4; ++i) {
 
-            char[] s = new char[4];
-            s[0] = state[4 * i];
-            s[1] = state[4 * i + 1];
-            s[2] = state[4 * i + 2];
-            s[3] = state[4 * i + 3];
+            int s0 = state[4 * i] & 0xff;
+            int s1 = state[4 * i + 1] & 0xff;
+            int s2 = state[4 * i + 2] & 0xff;
+            int s3 = state[4 * i + 3] & 0xff;
 
-            state[4 * i + 0] = (char) (Constants.MUL2[s[0]] ^ Constants.MUL3[s[1]] ^ s[2] ^ s[3]);
-            state[4 * i + 1] = (char) (s[0] ^ Constants.MUL2[s[1]] ^ Constants.MUL3[s[2]] ^ s[3]);
-            state[4 * i + 2] = (char) (s[0] ^ s[1] ^ Constants.MUL2[s[2]] ^ Constants.MUL3[s[3]]);
-            state[4 * i + 3] = (char) (Constants.MUL3[s[0]] ^ s[1] ^ s[2] ^ Constants.MUL2[s[3]]);
+            state[4 * i + 0] = (byte) (Constants.MUL2[s0] ^ Constants.MUL3[s1] ^ s2 ^ s3);
+            state[4 * i + 1] = (byte) (s0 ^ Constants.MUL2[s1] ^ Constants.MUL3[s2] ^ s3);
+            state[4 * i + 2] = (byte) (s0 ^ s1 ^ Constants.MUL2[s2] ^ Constants.MUL3[s3]);
+            state[4 * i + 3] = (byte) (Constants.MUL3[s0] ^ s1 ^ s2 ^ Constants.MUL2[s3]);
         }
     }
 
     /**
      * This method performs the round key addition step of AES.
      * Essentially, it performs bitwiseXOR(Key, State) for all 16 bytes.
-     * 
-     * @param state     The state block of AES encryption (char[16]).
-     * @param key       The round key with which to mask the state.
+     *
+     * @param state     The state block of AES encryption (byte[16]).
+     * @param W         The expanded key, as returned by {@code keyExpansion}.
+     * @param round     The round whose key is used to mask the state.
      * @return Nothing  The value of state gets modified.
      */
-    static void addRoundKey(char[] state, final char[] key) {
-
-        for (int i = 0; i < state.length; ++i) {
-            state[i] ^= key[i];
+    static void addRoundKey(byte[] state, final int[] W, final int round) {
+
+        for (int c = 0; c < 4; ++c) {
+            int word = W[4 * round + c];
+            state[4 * c] ^= (byte) (word >>> 24);
+            state[4 * c + 1] ^= (byte) (word >>> 16);
+            state[4 * c + 2] ^= (byte) (word >>> 8);
+            state[4 * c + 3] ^= (byte) word;
         }
     }
 
     /**
-     * This method performs the key expansion for AES-256 encryption.
-     * It gives 15 round keys (14 rounds + 1 initial) from the initial key.
-     * 
-     * Standard letter notations are used from the algorithm on Wikipedia.
-     * Details at: https://en.wikipedia.org/wiki/AES_key_schedule
-     * 
-     * @param K     The initial key (char[32]) to be expanded into round keys.
-     * @return W    The final 15 round keys.
+     * Packs 4 bytes into a big-endian word.
+     * @param bytes     The bytes.
+     * @param offset    The index of the first byte.
+     * @return          The word.
      */
-    static char[][] keyExpansion(char[] K) {
-
-        /**
-         * This inner class contains helper functions for keyExpansion.
-         * Details at: https://en.wikipedia.org/wiki/AES_key_schedule#The_key_schedule
-         */
-        final class KeyExpansionHelpers {
+    static int toWord(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16)
+             | ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+    }
 
-            public char[] bytesToWord(char b0, char b1, char b2, char b3) {
-                return new char[] { b0, b1, b2, b3 };
-            }
+    /**
+     * Unpacks a big-endian word into 4 bytes.
+     * @param word      The word.
+     * @param bytes     The bytes.
+     * @param offset    The index of the first byte.
+     */
+    static void fromWord(int word, byte[] bytes, int offset) {
+        bytes[offset] = (byte) (word >>> 24);
+        bytes[offset + 1] = (byte) (word >>> 16);
+        bytes[offset + 2] = (byte) (word >>> 8);
+        bytes[offset + 3] = (byte) word;
+    }
 
-            /**
-             * @param W     The resultant round keys.
-             * @param word  The word to be stored inside W.
-             * @param i     The word number.
-             */
-            public void wordToBytes(char[][] W, char[] word, int i) {
-                W[i / 4][4 * (i % 4) + 0] = word[0];
-                W[i / 4][4 * (i % 4) + 1] = word[1];
-                W[i / 4][4 * (i % 4) + 2] = word[2];
-                W[i / 4][4 * (i % 4) + 3] = word[3];
-            }
-            
-            public char[] rotWord(char[] word) {
-                char[] result = new char[word.length];
-                result[0] = word[1];
-                result[1] = word[2];
-                result[2] = word[3];
-                result[3] = word[0];
-                return result;
-            }
+    /**
+     * Applies the S-BOX to every byte of a word.
+     * @param word  The word.
+     * @return      The substituted word.
+     */
+    private static int subWord(int word) {
+        return (Constants.SBOX[word >>> 24] << 24) | (Constants.SBOX[(word >>> 16) & 0xff] << 16)
+             | (Constants.SBOX[(word >>> 8) & 0xff] << 8) | Constants.SBOX[word & 0xff];
+    }
 
-            public char[] subWord(char[] word) {
-                char[] result = new char[word.length];
-                for (int i = 0; i < word.length; ++i) {
-                    result[i] = Constants.SBOX[word[i]];
-                }
-                return result;
-            }
+    /**
+     * This method performs the key expansion for AES-256 encryption.
+     * It gives 15 round keys (14 rounds + 1 initial) from the initial key,
+     * as 60 words where words [4 * i, 4 * i + 4) are the i-th round key.
+     *
+     * Standard letter notations are used from the algorithm on Wikipedia.
+     * Details at: https://en.wikipedia.org/wiki/AES_key_schedule
+     *
+     * @param K     The initial key (byte[32]) to be expanded into round keys.
+     * @return W    The final 15 round keys, as int[60].
+     */
+    static int[] keyExpansion(byte[] K) {
 
-            public char[] xorWords(char[] first, char[] second) {
-                char[] result = new char[first.length];
-                for (int i = 0; i < first.length; ++i) {
-                    result[i] = (char) (first[i] ^ second[i]);
-                }
-                return result;
-            }
-        }
-        KeyExpansionHelpers operations = new KeyExpansionHelpers();
-        
         int N = 8;
         int R = 15;
-        char[][] W = new char[15][16];
-        
-        final char[][] rcon = {
-            {0x01, 0x00, 0x00, 0x00},
-            {0x02, 0x00, 0x00, 0x00},
-            {0x04, 0x00, 0x00, 0x00},
-            {0x08, 0x00, 0x00, 0x00},
-            {0x10, 0x00, 0x00, 0x00},
-            {0x20, 0x00, 0x00, 0x00},
-            {0x40, 0x00, 0x00, 0x00}
+        int[] W = new int[4 * R];
+
+        // The round constants, as the first byte of a word
+        final int[] rcon = {
+            0x01000000, 0x02000000, 0x04000000, 0x08000000, 0x10000000, 0x20000000, 0x40000000
         };
 
         for (int i = 0; i < 4 * R; ++i) {
 
             if (i < N) {
-                char[] word = operations.bytesToWord(K[4 * i], K[4 * i + 1], K[4 * i + 2], K[4 * i + 3]);
-                operations.wordToBytes(W, word, i);
+                W[i] = toWord(K, 4 * i);
+            }
+            else if (i % N == 0) {
+                W[i] = W[i - N] ^ rcon[i / N - 1] ^ subWord(Integer.rotateLeft(W[i - 1], 8));
+            }
+            else if (i % N == 4) {
+                W[i] = W[i - N] ^ subWord(W[i - 1]);
             }
             else {
-
-                // Get (i - 1)th word
-                int r = (i - 1) / 4;
-                int c = 4 * ((i - 1) % 4);
-                char[] prevWord = operations.bytesToWord(W[r][c + 0], W[r][c + 1], W[r][c + 2], W[r][c + 3]);
-                
-                // Get (i - N)th word
-                r = (i - N) / 4;
-                c = 4 * ((i - N) % 4);
-                char[] prevNWord = operations.bytesToWord(W[r][c + 0], W[r][c + 1], W[r][c + 2], W[r][c + 3]);
-
-                if (i % N == 0) {
-                    char[] result = operations.xorWords(
-                                        prevNWord, operations.xorWords(
-                                            rcon[i / N - 1], operations.subWord(
-                                                operations.rotWord(prevWord)
-                                    )));
-                    operations.wordToBytes(W, result, i);
-                }
-                else if (i % N == 4) {
-                    char[] result = operations.xorWords(
-                                        prevNWord, operations.subWord(prevWord)
-                                    );
-                    operations.wordToBytes(W, result, i);
-                }
-                else {
-                    char[] result = operations.xorWords(prevWord, prevNWord);
-                    operations.wordToBytes(W, result, i);
-                }
-            } 
+                W[i] = W[i - N] ^ W[i - 1];
+            }
         }
-        
+
         return W;
     }
+
+    /**
+     * Converts bytes stored as char[] into a byte[].
+     * This is used by the char[] entry points of the package.
+     * @param chars     The bytes, one per char.
+     * @return          The same bytes as byte[].
+     */
+    static byte[] toBytes(char[] chars) {
+
+        byte[] bytes = new byte[chars.length];
+        for (int i = 0; i < chars.length; ++i) {
+            bytes[i] = (byte) chars[i];
+        }
+        return bytes;
+    }
+
+    /**
+     * Copies a byte[] back into bytes stored as char[].
+     * This is used by the char[] entry points of the package.
+     * @param bytes     The bytes.
+     * @param chars     The array to copy the bytes into, one per char.
+     */
+    static void toChars(byte[] bytes, char[] chars) {
+
+        for (int i = 0; i < bytes.length; ++i) {
+            chars[i] = (char) (bytes[i] & 0xff);
+        }
+    }
 }
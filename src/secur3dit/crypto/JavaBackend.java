@@ -0,0 +1,93 @@
+package secur3dit.crypto;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This backend generates the CTR keystream with the pure-Java cipher cores of this package.
+ * It supports every counter layout.
+ * @author  Priyanshul Govil
+ */
+final class JavaBackend implements CipherBackend {
+
+    private static final int BLOCK_SIZE = 16;
+
+    /**
+     * Number of blocks of keystream generated before they are XORed into the chunk.
+     * 4 KB of keystream stays in the L1 cache.
+     */
+    private static final int RUN_BLOCKS = 256;
+
+    /**
+     * Per-thread counter block, so that no range allocates one.
+     */
+    private static final ThreadLocal<byte[]> COUNTER =
+        ThreadLocal.withInitial(() -> new byte[BLOCK_SIZE]);
+
+    /**
+     * Per-thread run of keystream, wrapped once and put in the byte order of every chunk.
+     */
+    private static final ThreadLocal<ByteBuffer> KEYSTREAM =
+        ThreadLocal.withInitial(() -> ByteBuffer.wrap(new byte[RUN_BLOCKS * BLOCK_SIZE]));
+
+    private final BlockCipher cipher;
+    private final byte[] nonce;
+    private final CounterLayout layout;
+
+    /**
+     * @param cipher    The cipher core, prepared with the key.
+     * @param nonce     The nonce of type byte[16].
+     * @param layout    The counter layout.
+     */
+    JavaBackend(BlockCipher cipher, byte[] nonce, CounterLayout layout) {
+        this.cipher = cipher;
+        this.nonce = nonce;
+        this.layout = layout;
+    }
+
+    /**
+     * This method XORs a run of keystream into a chunk, 8 bytes at a time.
+     * Both are read as longs in the byte order of the chunk, so the result is the same
+     * as a XOR byte by byte, whatever that order. Only the tail of the last block,
+     * if it is partial, is XORed byte by byte.
+     * @param chunk     The chunk of the file currently in memory, read into
+     *                  the heap or mapped from the file.
+     * @param length    The number of valid bytes in {@code chunk}.
+     * @param keystream The keystream, in the same byte order as {@code chunk}.
+     * @param start     The index in {@code chunk} at which the keystream starts.
+     * @param count     The number of keystream bytes to XOR, a multiple of 16.
+     * @return Nothing  The bytes of the chunk get encrypted.
+     */
+    private static void XOR(ByteBuffer chunk, final int length, final ByteBuffer keystream,
+            final int start, final int count) {
+
+        final int end = Math.min(start + count, length);
+        int i = start;
+        for (; i + Long.BYTES <= end; i += Long.BYTES) {
+            chunk.putLong(i, chunk.getLong(i) ^ keystream.getLong(i - start));
+        }
+        for (; i < end; ++i) {
+            chunk.put(i, (byte) (chunk.get(i) ^ keystream.get(i - start)));
+        }
+    }
+
+    @Override
+    public void apply(ByteBuffer chunk, int length, long firstBlock, int from, int to) {
+
+        // Scratch blocks of the thread, reused for every run of the range
+        byte[] counter = COUNTER.get();
+        ByteBuffer keystream = KEYSTREAM.get().order(chunk.order());
+        byte[] run = keystream.array();
+
+        layout.initialize(counter, nonce, firstBlock + from);
+        for (int i = from; i < to; i += RUN_BLOCKS) {
+
+            // Generate the keystream of a whole run first, then XOR it in one pass
+            int blocks = Math.min(RUN_BLOCKS, to - i);
+            for (int b = 0; b < blocks; ++b) {
+                cipher.encryptBlock(counter, 0, run, b * BLOCK_SIZE);
+                layout.next(counter, nonce, firstBlock + i + b + 1);
+            }
+            XOR(chunk, length, keystream, i * BLOCK_SIZE, blocks * BLOCK_SIZE);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package secur3dit.crypto;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * This backend applies the CTR keystream with "AES/CTR/NoPadding" from the JDK.
+ * Unlike the pure-Java cores, the JDK implementation can use the AES instructions
+ * of the processor. It only supports {@code CounterLayout.ADD_128}, which is the
+ * counter that the JDK uses, with the nonce as the initial counter block.
+ * @author  Priyanshul Govil
+ */
+final class JceBackend implements CipherBackend {
+
+    private static final int BLOCK_SIZE = 16;
+    private static final String TRANSFORMATION = "AES/CTR/NoPadding";
+
+    /**
+     * Size of the scratch buffers. The JDK copies the whole input when it is
+     * encrypted in place, so the data goes through scratch buffers of this size instead.
+     */
+    private static final int SCRATCH_SIZE = 1 << 14;
+
+    /**
+     * The cipher and scratch of a thread. A {@code Cipher} is not thread-safe, so every
+     * thread gets its own. It stays initialized for the range it last transformed, and
+     * a range which starts where that one stopped, as every range does in serial mode,
+     * goes on with it instead of initializing it again.
+     */
+    private static final class State {
+
+        final Cipher cipher;
+
+        /**
+         * [0] holds the input, [1] the output.
+         */
+        final byte[][] scratch = new byte[2][SCRATCH_SIZE];
+        final byte[] counter = new byte[BLOCK_SIZE];
+
+        /**
+         * The backend for which the cipher was last initialized, and the block
+         * at which its keystream goes on, -1 if it stopped inside a block.
+         */
+        JceBackend owner;
+        long next = -1;
+
+        State() {
+            try {
+                this.cipher = Cipher.getInstance(TRANSFORMATION);
+            }
+            catch (GeneralSecurityException e) {
+                throw new IllegalStateException(TRANSFORMATION + " is not available", e);
+            }
+        }
+    }
+
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+    private final SecretKeySpec key;
+    private final byte[] nonce;
+
+    /**
+     * @param key       The 256-bit key stored as byte[32].
+     * @param nonce     The nonce of type byte[16].
+     */
+    JceBackend(byte[] key, byte[] nonce) {
+        this.key = new SecretKeySpec(key, "AES");
+        this.nonce = nonce;
+    }
+
+    /**
+     * Checks that "AES/CTR/NoPadding" can be used with a 256-bit key.
+     * @return {@code true} if it is available.
+     */
+    static boolean isAvailable() {
+
+        try {
+            return Cipher.getMaxAllowedKeyLength("AES") >= 256 && STATE.get() != null;
+        }
+        catch (GeneralSecurityException | IllegalStateException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void apply(ByteBuffer chunk, int length, long firstBlock, int from, int to) {
+
+        int start = from * BLOCK_SIZE;
+        int end = Math.min(to * BLOCK_SIZE, length);
+        if (start >= end) {
+            return;
+        }
+
+        State state = STATE.get();
+        Cipher cipher = state.cipher;
+
+        try {
+            if (state.owner != this || state.next != firstBlock + from) {
+                state.owner = null;
+                CounterLayout.ADD_128.initialize(state.counter, nonce, firstBlock + from);
+                cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(state.counter));
+                state.owner = this;
+            }
+            state.next = -1;
+
+            byte[][] scratch = state.scratch;
+            byte[] output = scratch[1];
+
+            if (chunk.hasArray()) {
+                byte[] array = chunk.array();
+                int offset = chunk.arrayOffset();
+                for (int i = start; i < end; i += SCRATCH_SIZE) {
+                    int n = Math.min(SCRATCH_SIZE, end - i);
+                    cipher.update(array, offset + i, n, output, 0);
+                    System.arraycopy(output, 0, array, offset + i, n);
+                }
+            }
+            else {
+                byte[] input = scratch[0];
+                ByteBuffer view = chunk.duplicate();
+                for (int i = start; i < end; i += SCRATCH_SIZE) {
+                    int n = Math.min(SCRATCH_SIZE, end - i);
+                    view.position(i);
+                    view.get(input, 0, n);
+                    cipher.update(input, 0, n, output, 0);
+                    view.position(i);
+                    view.put(output, 0, n);
+                }
+            }
+
+            // A partial last block leaves the keystream inside that block
+            state.next = end % BLOCK_SIZE == 0 ? firstBlock + end / BLOCK_SIZE : -1;
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException(TRANSFORMATION + " failed", e);
+        }
+    }
+}
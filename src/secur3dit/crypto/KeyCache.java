@@ -0,0 +1,220 @@
+package secur3dit.crypto;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * This class derives keys from passwords with PBKDF2-HMAC-SHA256, and keeps them in memory
+ * for a while, together with the cipher prepared with them (i.e. the expanded round keys).
+ *
+ * Deriving a key is slow on purpose, so it should happen once per session rather than per file.
+ * Encryption uses a session: one random salt per password, reused for every file
+ * encrypted with that password until the session expires. Every file still gets its own
+ * random nonce, so no keystream is ever reused. Decryption looks keys up by password and salt,
+ * so a whole directory encrypted in one session is decrypted with a single derivation.
+ *
+ * Keys which are not used for {@code EXPIRY} are dropped. The cache is indexed by
+ * a digest of the password mixed with a random value of this process,
+ * so that the passwords themselves are not stored by the cache.
+ * @author  Priyanshul Govil
+ */
+final class KeyCache {
+
+    /**
+     * The identifier of PBKDF2-HMAC-SHA256 in the trailer.
+     */
+    static final byte PBKDF2_SHA256 = 1;
+
+    /**
+     * The number of PBKDF2 iterations for new files.
+     */
+    static final int ITERATIONS = 310_000;
+
+    /**
+     * The largest number of iterations accepted from a file, so that a damaged
+     * or malicious trailer cannot keep the application busy for hours.
+     */
+    static final int MAX_ITERATIONS = 10_000_000;
+
+    static final int SALT_SIZE = 16;
+
+    /**
+     * Keys are dropped when they were not used for this long.
+     */
+    private static final long EXPIRY = TimeUnit.MINUTES.toNanos(10);
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Random value mixed into every index of the cache.
+     */
+    private static final byte[] PEPPER = new byte[32];
+
+    static {
+        RANDOM.nextBytes(PEPPER);
+    }
+
+    /**
+     * The keys, by password, salt, iterations and cipher core.
+     */
+    private static final Map<String, Keys> KEYS = new ConcurrentHashMap<>();
+
+    /**
+     * The keys of the current session of every password, by password, iterations and cipher core.
+     */
+    private static final Map<String, Keys> SESSIONS = new ConcurrentHashMap<>();
+
+    /**
+     * A derived key, with the parameters it was derived with and the cipher prepared with it.
+     */
+    static final class Keys {
+
+        final byte[] salt;
+        final int iterations;
+        final byte[] key;
+        final BlockCipher cipher;
+        private volatile long lastUse;
+
+        Keys(byte[] salt, int iterations, byte[] key, BlockCipher cipher) {
+            this.salt = salt;
+            this.iterations = iterations;
+            this.key = key;
+            this.cipher = cipher;
+            this.lastUse = System.nanoTime();
+        }
+
+        /**
+         * Marks the keys as used now.
+         * @return  The keys.
+         */
+        Keys touch() {
+            lastUse = System.nanoTime();
+            return this;
+        }
+
+        /**
+         * @param now   The current value of {@code System.nanoTime()}.
+         * @return      {@code true} if the keys were not used for {@code EXPIRY}.
+         */
+        boolean isExpired(long now) {
+            return now - lastUse > EXPIRY;
+        }
+    }
+
+    private KeyCache() {
+    }
+
+    /**
+     * Returns the keys of the current session of a password, and starts
+     * a new session with a fresh salt if there is none.
+     * @param password      The password.
+     * @param core          The cipher core to prepare.
+     * @return              The keys.
+     */
+    static Keys session(String password, CipherCore core) {
+
+        purge();
+        String index = index(password, null, ITERATIONS, core);
+        return SESSIONS.compute(index, (k, keys) -> {
+            if (keys != null && !keys.isExpired(System.nanoTime())) {
+                return keys.touch();
+            }
+            byte[] salt = new byte[SALT_SIZE];
+            RANDOM.nextBytes(salt);
+            Keys derived = derive(password, salt, ITERATIONS, core);
+            KEYS.put(index(password, salt, ITERATIONS, core), derived);
+            return derived;
+        });
+    }
+
+    /**
+     * Returns the keys for a password and salt, deriving them if they are not cached.
+     * @param password      The password.
+     * @param salt          The salt recorded in the file.
+     * @param iterations    The number of iterations recorded in the file.
+     * @param core          The cipher core to prepare.
+     * @return              The keys.
+     */
+    static Keys forSalt(String password, byte[] salt, int iterations, CipherCore core) {
+
+        purge();
+        return KEYS.compute(index(password, salt, iterations, core), (k, keys) -> {
+            if (keys != null && !keys.isExpired(System.nanoTime())) {
+                return keys.touch();
+            }
+            return derive(password, salt, iterations, core);
+        });
+    }
+
+    /**
+     * Drops every key, e.g. when the user leaves the encryption screen.
+     */
+    static void clear() {
+        SESSIONS.clear();
+        KEYS.clear();
+    }
+
+    /**
+     * Drops the keys which expired.
+     */
+    private static void purge() {
+
+        long now = System.nanoTime();
+        SESSIONS.values().removeIf(keys -> keys.isExpired(now));
+        KEYS.values().removeIf(keys -> keys.isExpired(now));
+    }
+
+    /**
+     * Runs PBKDF2 and prepares the cipher core with the key.
+     * @return  The keys.
+     */
+    private static Keys derive(String password, byte[] salt, int iterations, CipherCore core) {
+
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, 256);
+        long start = System.nanoTime();
+        try {
+            byte[] key = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+            Keys keys = new Keys(salt, iterations, key, core.newCipher(key));
+            CryptoMetrics.get().addKeyDerivation(System.nanoTime() - start);
+            return keys;
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2WithHmacSHA256 is not available", e);
+        }
+        finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * Computes the index of some keys in the cache.
+     * @param salt  The salt, {@code null} for the index of a session.
+     * @return      The index.
+     */
+    private static String index(String password, byte[] salt, int iterations, CipherCore core) {
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(PEPPER);
+            digest.update(ByteBuffer.allocate(12).putInt(iterations).putInt(core.ordinal())
+                                    .putInt(salt == null ? -1 : salt.length).array());
+            if (salt != null) {
+                digest.update(salt);
+            }
+            digest.update(password.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest.digest());
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package secur3dit.crypto;
+
+/**
+ * This interface receives the progress of an encryption or decryption, and can cancel it.
+ * AES256CTR reports every chunk once it is written back, and checks for cancellation
+ * between chunks. A cancelled file is left as it was before the call, since the output
+ * goes to a temporary file which is then deleted.
+ * Implementations must be thread-safe when used by a DirectoryBatch.
+ * @author  Priyanshul Govil
+ */
+public interface Progress {
+
+    /**
+     * Called after {@code bytes} more bytes of the file were transformed.
+     * @param bytes     The number of bytes transformed since the last call.
+     */
+    void advance(long bytes);
+
+    /**
+     * @return  {@code true} to stop at the next chunk boundary and leave the file as it was.
+     */
+    default boolean isCancelled() {
+        return false;
+    }
+}
@@ -0,0 +1,349 @@
+package secur3dit.crypto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * This class reads and writes the trailer that AES256CTR appends to the files it encrypts,
+ * which makes an encrypted file a self-describing container.
+ * The trailer records how a file was encrypted, so that it can be decrypted later.
+ * It is placed after the ciphertext instead of before it, so that a file can still
+ * be encrypted in place, without shifting its contents, and mapped into memory as it is.
+ *
+ * Format, all integers big-endian:
+ *      [body][body length: 4 bytes][version: 1 byte][magic: 8 bytes]
+ * Body of version 1, for keys hashed from the password with SHA-256:
+ *      [counter layout: 1 byte]
+ * Body of version 2, for keys derived from the password with a KDF:
+ *      [counter layout: 1 byte][KDF: 1 byte][iterations: 4 bytes]
+ *      [salt length: 1 byte][salt][nonce: 16 bytes]
+ * Body of version 3, the same as version 2 followed by:
+ *      [chunk size: 4 bytes][data length: 8 bytes]
+ * Body of version 4, for authenticated files, the same as version 3 followed by:
+ *      [MAC: 1 byte][tag of every chunk: 16 bytes each][trailer tag: 16 bytes]
+ * where the MAC is always {@code ChunkMac.AES_GCM}, and any other value is refused.
+ *
+ * The data is divided into chunks of {@code chunkSize} bytes. CTR mode does not
+ * change the length of the data, so chunk {@code i} always starts at
+ * {@code i * chunkSize}, both in the plaintext and in the ciphertext, and the chunk
+ * index is computed instead of stored. Every chunk can be decrypted on its own,
+ * since its first counter block only depends on its offset, and checked on its own
+ * against its tag in version 4, see ChunkMac.
+ * The data length is recorded as well, so that a trailer which does not belong
+ * to the data before it is detected.
+ *
+ * Files encrypted by the first versions have no trailer, and use {@code CounterLayout.XOR_32}.
+ * @author  Priyanshul Govil
+ */
+final class Trailer {
+
+    /**
+     * The chunk size of new files. It is the chunk size of AES256CTR in serial mode,
+     * and divides the chunk sizes of the other modes.
+     */
+    static final int CHUNK_SIZE = 1 << 20;
+
+    private static final byte[] MAGIC = { 'S', 'E', 'C', 'U', 'R', '3', 'D', 'T' };
+    private static final byte VERSION_HASHED = 1;
+    private static final byte VERSION_DERIVED = 2;
+    private static final byte VERSION_CONTAINER = 3;
+    private static final byte VERSION_AUTHENTICATED = 4;
+    private static final int NONCE_SIZE = 16;
+
+    /**
+     * The largest chunk size accepted from a file, so that a chunk always fits in a buffer.
+     */
+    private static final int MAX_CHUNK_SIZE = 1 << 24;
+
+    /**
+     * The longest file which can be authenticated, so that the tags of its chunks
+     * take at most 1 GB in the trailer.
+     */
+    static final long MAX_AUTHENTICATED_LENGTH = (long) CHUNK_SIZE * ((1 << 30) / ChunkMac.TAG_SIZE);
+
+    /**
+     * Length of the fixed part at the very end: body length, version and magic.
+     */
+    private static final int TAIL_SIZE = 4 + 1 + MAGIC.length;
+
+    /**
+     * The version of the trailer.
+     */
+    final byte version;
+
+    /**
+     * The counter layout with which the file was encrypted.
+     */
+    final CounterLayout layout;
+
+    /**
+     * The number of KDF iterations, the salt and the nonce of the file.
+     * {@code salt} and {@code nonce} are {@code null} in version 1.
+     */
+    final int iterations;
+    final byte[] salt;
+    final byte[] nonce;
+
+    /**
+     * The size of the chunks, and the number of bytes of ciphertext before the trailer.
+     * Files older than version 3 are indexed with {@code CHUNK_SIZE}.
+     */
+    final int chunkSize;
+    final long dataLength;
+
+    /**
+     * The tag of every chunk, and the tag of the trailer, {@code null} before version 4.
+     * The tags of a new file are filled in while it is encrypted.
+     */
+    final byte[] chunkTags;
+    final byte[] trailerTag;
+
+    /**
+     * The total length of the trailer in bytes.
+     */
+    final int length;
+
+    private Trailer(byte version, CounterLayout layout, int iterations, byte[] salt, byte[] nonce,
+            int chunkSize, long dataLength, byte[] chunkTags, byte[] trailerTag) {
+        this.version = version;
+        this.layout = layout;
+        this.iterations = iterations;
+        this.salt = salt;
+        this.nonce = nonce;
+        this.chunkSize = chunkSize;
+        this.dataLength = dataLength;
+        this.chunkTags = chunkTags;
+        this.trailerTag = trailerTag;
+        this.length = bodyLength() + TAIL_SIZE;
+    }
+
+    /**
+     * A trailer of version 1, for a key hashed from the password.
+     * @param layout        The counter layout.
+     * @param dataLength    The length of the ciphertext.
+     * @return              The trailer.
+     */
+    static Trailer hashed(CounterLayout layout, long dataLength) {
+        return new Trailer(VERSION_HASHED, layout, 0, null, null, CHUNK_SIZE, dataLength,
+                           null, null);
+    }
+
+    /**
+     * A trailer of version 3, for a key derived with PBKDF2.
+     * @param layout        The counter layout.
+     * @param iterations    The number of PBKDF2 iterations.
+     * @param salt          The salt of PBKDF2.
+     * @param nonce         The nonce of the file, byte[16].
+     * @param dataLength    The length of the ciphertext.
+     * @return              The trailer.
+     */
+    static Trailer derived(CounterLayout layout, int iterations, byte[] salt, byte[] nonce, long dataLength) {
+        return new Trailer(VERSION_CONTAINER, layout, iterations, salt, nonce, CHUNK_SIZE, dataLength,
+                           null, null);
+    }
+
+    /**
+     * A trailer of version 4, for a key derived with PBKDF2 and authenticated chunks.
+     * Its tags are zero until they are computed.
+     * See {@link #derived(CounterLayout, int, byte[], byte[], long)} for the parameters.
+     * @return              The trailer.
+     */
+    static Trailer authenticated(CounterLayout layout, int iterations, byte[] salt, byte[] nonce,
+            long dataLength) {
+
+        int tags = (int) ((dataLength + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        return new Trailer(VERSION_AUTHENTICATED, layout, iterations, salt, nonce, CHUNK_SIZE, dataLength,
+                           new byte[tags * ChunkMac.TAG_SIZE], new byte[ChunkMac.TAG_SIZE]);
+    }
+
+    /**
+     * @return  {@code true} if the key of the file was derived with PBKDF2.
+     */
+    boolean isDerived() {
+        return salt != null;
+    }
+
+    /**
+     * @return  {@code true} if the chunks of the file have tags.
+     */
+    boolean isAuthenticated() {
+        return chunkTags != null;
+    }
+
+    /**
+     * @return  The number of chunks of the data, the last one may be partial.
+     */
+    long chunkCount() {
+        return (dataLength + chunkSize - 1) / chunkSize;
+    }
+
+    /**
+     * @param chunk     The index of a chunk.
+     * @return          The offset of the chunk in the file.
+     */
+    long chunkOffset(long chunk) {
+        return chunk * chunkSize;
+    }
+
+    /**
+     * @return  The length of the body.
+     */
+    private int bodyLength() {
+
+        switch (version) {
+            case VERSION_HASHED:
+                return 1;
+            case VERSION_DERIVED:
+                return 1 + 1 + 4 + 1 + salt.length + NONCE_SIZE;
+            case VERSION_CONTAINER:
+                return 1 + 1 + 4 + 1 + salt.length + NONCE_SIZE + 4 + 8;
+            default:
+                return 1 + 1 + 4 + 1 + salt.length + NONCE_SIZE + 4 + 8 + 1 +
+                       chunkTags.length + trailerTag.length;
+        }
+    }
+
+    /**
+     * Appends the trailer right after the ciphertext, at {@code dataLength}.
+     * @param channel   The channel of the encrypted file.
+     * @throws IOException
+     */
+    void write(FileChannel channel) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.put(layout.id);
+        if (isDerived()) {
+            buffer.put(KeyCache.PBKDF2_SHA256);
+            buffer.putInt(iterations);
+            buffer.put((byte) salt.length);
+            buffer.put(salt);
+            buffer.put(nonce);
+        }
+        if (version >= VERSION_CONTAINER) {
+            buffer.putInt(chunkSize);
+            buffer.putLong(dataLength);
+        }
+        if (isAuthenticated()) {
+            buffer.put(ChunkMac.AES_GCM);
+            buffer.put(chunkTags);
+            buffer.put(trailerTag);
+        }
+        buffer.putInt(bodyLength());
+        buffer.put(version);
+        buffer.put(MAGIC);
+        buffer.flip();
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, dataLength + buffer.position());
+        }
+    }
+
+    /**
+     * Reads the trailer at the end of a file.
+     * @param channel   The channel of the file.
+     * @return          The trailer, {@code null} if the file has none.
+     * @throws IOException  If the trailer is of an unknown version or is damaged.
+     */
+    static Trailer read(FileChannel channel) throws IOException {
+
+        long size = channel.size();
+        if (size < TAIL_SIZE) {
+            return null;
+        }
+
+        ByteBuffer tail = ByteBuffer.allocate(TAIL_SIZE);
+        readFully(channel, tail, size - TAIL_SIZE);
+        int bodyLength = tail.getInt();
+        byte version = tail.get();
+        byte[] magic = new byte[MAGIC.length];
+        tail.get(magic);
+
+        if (!Arrays.equals(magic, MAGIC)) {
+            return null;
+        }
+        if (version < VERSION_HASHED || version > VERSION_AUTHENTICATED) {
+            throw new IOException("Unsupported trailer version: " + Byte.toString(version));
+        }
+        if (bodyLength < 1 || bodyLength > size - TAIL_SIZE) {
+            throw new IOException("Damaged trailer");
+        }
+
+        long dataLength = size - TAIL_SIZE - bodyLength;
+        ByteBuffer body = ByteBuffer.allocate(bodyLength);
+        readFully(channel, body, dataLength);
+        CounterLayout layout = CounterLayout.fromId(body.get());
+        if (layout == null) {
+            throw new IOException("Unknown counter layout");
+        }
+        if (version == VERSION_HASHED) {
+            return hashed(layout, dataLength);
+        }
+
+        if (bodyLength < 1 + 1 + 4 + 1 + NONCE_SIZE) {
+            throw new IOException("Damaged trailer");
+        }
+        if (body.get() != KeyCache.PBKDF2_SHA256) {
+            throw new IOException("Unknown key derivation function");
+        }
+        int iterations = body.getInt();
+        byte[] salt = new byte[body.get() & 0xff];
+        byte[] nonce = new byte[NONCE_SIZE];
+        int rest = version == VERSION_DERIVED ? 0 : 4 + 8;
+        if (iterations < 1 || iterations > KeyCache.MAX_ITERATIONS || salt.length == 0 ||
+            body.remaining() < salt.length + NONCE_SIZE + rest ||
+            (version != VERSION_AUTHENTICATED && body.remaining() != salt.length + NONCE_SIZE + rest)) {
+            throw new IOException("Damaged trailer");
+        }
+        body.get(salt);
+        body.get(nonce);
+
+        if (version == VERSION_DERIVED) {
+            return new Trailer(version, layout, iterations, salt, nonce, CHUNK_SIZE, dataLength, null, null);
+        }
+
+        int chunkSize = body.getInt();
+        if (chunkSize <= 0 || chunkSize % 16 != 0 || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IOException("Damaged trailer");
+        }
+        if (body.getLong() != dataLength) {
+            throw new IOException("The trailer does not match the length of the file");
+        }
+        if (version == VERSION_CONTAINER) {
+            return new Trailer(version, layout, iterations, salt, nonce, chunkSize, dataLength, null, null);
+        }
+
+        long chunkCount = (dataLength + chunkSize - 1) / chunkSize;
+        if (body.remaining() != 1 + chunkCount * ChunkMac.TAG_SIZE + ChunkMac.TAG_SIZE) {
+            throw new IOException("Damaged trailer");
+        }
+        if (body.get() != ChunkMac.AES_GCM) {
+            throw new IOException("Unknown MAC");
+        }
+        byte[] chunkTags = new byte[(int) chunkCount * ChunkMac.TAG_SIZE];
+        byte[] trailerTag = new byte[ChunkMac.TAG_SIZE];
+        body.get(chunkTags);
+        body.get(trailerTag);
+        return new Trailer(version, layout, iterations, salt, nonce, chunkSize, dataLength,
+                           chunkTags, trailerTag);
+    }
+
+    /**
+     * Fills {@code buffer} from {@code position} and flips it for reading.
+     * @param channel   The channel to read from.
+     * @param buffer    The buffer to fill.
+     * @param position  The file position at which to start reading.
+     * @throws IOException  If the end of the file is reached first.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        buffer.flip();
+    }
+}
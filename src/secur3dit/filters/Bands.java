@@ -0,0 +1,79 @@
+package secur3dit.filters;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits the work of a filter into bands, e.g. bands of rows, and runs them on a pool.
+ * A band writes only its own pixels of the result and reads the input, which no band
+ * writes, so a filter which needs the rows around a band, e.g. sharpen, reads them from
+ * the input as halo rows, and the result is the same as on one thread.
+ * @author Vivek Nathani
+ */
+final class Bands {
+
+    /**
+     * The number of pixels of a band, a band of 256 KB fits in the L2 cache with its input.
+     * Smaller images are not split, as the tasks would cost more than they save.
+     */
+    static final int BAND_PIXELS = 1 << 16;
+
+    /**
+     * The work of a filter on the units, e.g. the rows, in {@code [from, to)}.
+     */
+    @FunctionalInterface
+    interface Body {
+        void run(int from, int to);
+    }
+
+    private static final class BandTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Body body;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        BandTask(Body body, int from, int to, int grain) {
+            this.body = body;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+
+            if (to - from <= grain) {
+                body.run(from, to);
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new BandTask(body, from, middle, grain), new BandTask(body, middle, to, grain));
+        }
+    }
+
+    private Bands() {
+    }
+
+    /**
+     * Runs {@code body} on the units {@code [0, count)}, split into bands of
+     * about {@link #BAND_PIXELS} pixels.
+     * @param pool          The pool on which to run the bands, {@code null} to run
+     *                      them on the calling thread.
+     * @param count         The number of units, e.g. the height of the image.
+     * @param unitPixels    The number of pixels of a unit, e.g. the width of the image.
+     * @param body          The work on a band.
+     */
+    static void run(ForkJoinPool pool, int count, int unitPixels, Body body) {
+
+        int grain = Math.max(1, BAND_PIXELS / Math.max(1, unitPixels));
+        if (pool == null || pool.getParallelism() == 1 || count <= grain) {
+            body.run(0, count);
+            return;
+        }
+        pool.invoke(new BandTask(body, 0, count, grain));
+    }
+}
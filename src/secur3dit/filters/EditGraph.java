@@ -0,0 +1,425 @@
+package secur3dit.filters;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleFunction;
+
+/**
+ * The edits of an image, kept as filters with their values instead of as images,
+ * so that none is lost: every edit can be undone, redone, or given another value.
+ *
+ * The edits are a chain of nodes, each one a filter applied to the image of its parent.
+ * Nodes never change, so an edit is changed by making new nodes for it and the edits
+ * after it, and every state of the history is the last node of its chain. The image of
+ * a node is kept in a cache which holds the most recently used images up to a number of
+ * bytes, so changing an edit only applies the edits after it, and going back to a recent
+ * state applies nothing.
+ *
+ * The edits can also be previewed on a copy of the input scaled down to the size of the
+ * preview, e.g. while a slider is dragged, see {@link #preview}. The previews have a cache
+ * and a lock of their own, so they are not held up while another thread applies the edits
+ * to the full image. The values of a filter which are sizes in pixels, e.g. the radius of
+ * a blur, are scaled with the image, so an edit is given as a function of the scale.
+ *
+ * The images returned are shared with the cache, and must not be modified.
+ * The edits may be changed by one thread at a time.
+ * @author Vivek Nathani
+ */
+public final class EditGraph {
+
+    /**
+     * One edit, applied to the image of its parent, or to the input for the first edit.
+     */
+    private static final class Node {
+
+        final Node parent;
+        final String kind;
+        final DoubleFunction<FilterPipeline> filter;
+
+        Node(Node parent, String kind, DoubleFunction<FilterPipeline> filter) {
+            this.parent = parent;
+            this.kind = kind;
+            this.filter = filter;
+        }
+    }
+
+    /**
+     * The images of the nodes at one size, the full one or the size of the preview.
+     */
+    private static final class Level {
+
+        final BufferedImage input;
+        final double scale;
+        final long cacheBytes;
+
+        /**
+         * The images of the nodes, the least recently used first. Nodes are compared by identity.
+         */
+        final LinkedHashMap<Node, BufferedImage> cache = new LinkedHashMap<>(16, 0.75f, true);
+        long cachedBytes = 0;
+
+        Level(BufferedImage input, double scale, long cacheBytes) {
+            this.input = input;
+            this.scale = scale;
+            this.cacheBytes = cacheBytes;
+        }
+
+        /**
+         * Computes the image of a node, from the image of its closest cached ancestor.
+         * A run of colour adjustments is applied in one pass, see {@link FilterPipeline},
+         * and only the image at the end of the run is cached.
+         */
+        synchronized BufferedImage render(Node node) {
+
+            // The nodes to apply, from the last one back to a cached image
+            List<Node> pending = new ArrayList<>();
+            BufferedImage image = input;
+            for (Node n = node; n != null; n = n.parent) {
+                BufferedImage cached = cache.get(n);
+                if (cached != null) {
+                    image = cached;
+                    break;
+                }
+                pending.add(0, n);
+            }
+
+            int i = 0;
+            while (i < pending.size()) {
+
+                FilterPipeline stage = new FilterPipeline().then(pending.get(i).filter.apply(scale));
+                boolean pointwise = stage.isPointwise();
+                ++i;
+                while (pointwise && i < pending.size()) {
+                    FilterPipeline next = pending.get(i).filter.apply(scale);
+                    if (!next.isPointwise()) {
+                        break;
+                    }
+                    stage.then(next);
+                    ++i;
+                }
+
+                image = stage.apply(image);
+                put(pending.get(i - 1), image);
+            }
+
+            return image;
+        }
+
+        /**
+         * Caches the image of a node, and forgets the least recently used images
+         * beyond the size of the cache, but never the one just added.
+         */
+        private void put(Node node, BufferedImage image) {
+
+            cache.put(node, image);
+            cachedBytes += bytes(image);
+
+            Iterator<Map.Entry<Node, BufferedImage>> eldest = cache.entrySet().iterator();
+            while (cachedBytes > cacheBytes && cache.size() > 1) {
+                Map.Entry<Node, BufferedImage> entry = eldest.next();
+                cachedBytes -= bytes(entry.getValue());
+                eldest.remove();
+            }
+        }
+
+        synchronized long getCachedBytes() {
+            return cachedBytes;
+        }
+    }
+
+    private final Level full;
+    private final Level preview;
+
+    /**
+     * The last node of every state, {@code null} for the input without edits.
+     */
+    private final List<Node> history = new ArrayList<>();
+    private int current = 0;
+
+    /**
+     * Makes a graph without edits, which caches up to a quarter of the maximum heap,
+     * and previews the edits at full size.
+     * @param input The image to edit, which is never modified.
+     */
+    public EditGraph(BufferedImage input) {
+        this(input, Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    /**
+     * Makes a graph which previews the edits at full size.
+     * @param input         The image to edit, which is never modified.
+     * @param cacheBytes    The number of bytes of images to keep, at least the image
+     *                      of the current state is kept whatever its size.
+     */
+    public EditGraph(BufferedImage input, long cacheBytes) {
+        this.full = new Level(input, 1.0, cacheBytes);
+        this.preview = full;
+        history.add(null);
+    }
+
+    /**
+     * @param input         The image to edit, which is never modified.
+     * @param cacheBytes    The number of bytes of images to keep, at least the image
+     *                      of the current state is kept whatever its size.
+     *                      The previews have a cache of an eighth of that.
+     * @param previewWidth  The largest width of the previews.
+     * @param previewHeight The largest height of the previews.
+     */
+    public EditGraph(BufferedImage input, long cacheBytes, int previewWidth, int previewHeight) {
+
+        BufferedImage proxy = Filters.scale(input, previewWidth, previewHeight);
+        this.full = new Level(input, 1.0, cacheBytes);
+        this.preview = new Level(proxy, (double) proxy.getWidth() / input.getWidth(), cacheBytes / 8);
+        history.add(null);
+    }
+
+    /**
+     * Adds an edit after the others, and forgets the states which were undone.
+     * @param kind      The kind of the edit, e.g. {@code "rotate"}, to find it with {@link #indexOf}.
+     * @param filter    The filter of the edit, which must not be modified afterwards.
+     * @return          The image with the edit.
+     * @throws IllegalArgumentException If a value of the filter is out of range for the image,
+     *                                  in which case the edit is not added.
+     */
+    public BufferedImage add(String kind, FilterPipeline filter) throws IllegalArgumentException {
+        return add(kind, scale -> filter);
+    }
+
+    /**
+     * Adds an edit whose values depend on the scale of the image, see {@link #preview}.
+     * @param filter    The filter of the edit for a scale, e.g. {@code 0.1} for a preview
+     *                  a tenth of the size of the input.
+     * @see #add(String, FilterPipeline)
+     */
+    public BufferedImage add(String kind, DoubleFunction<FilterPipeline> filter) throws IllegalArgumentException {
+        return push(edit(size(), kind, filter));
+    }
+
+    /**
+     * Changes the filter of an edit, e.g. the angle of a rotation, and applies the edits
+     * after it again. The change is a new state, which can be undone.
+     * @param index     The index of the edit, from 0 for the first.
+     * @param filter    The new filter of the edit, which must not be modified afterwards.
+     * @return          The image with the changed edit.
+     * @throws IndexOutOfBoundsException    If there is no such edit.
+     * @throws IllegalArgumentException     If a value of the filter is out of range for the image,
+     *                                      in which case nothing is changed.
+     */
+    public BufferedImage replace(int index, FilterPipeline filter)
+            throws IndexOutOfBoundsException, IllegalArgumentException {
+        return replace(index, scale -> filter);
+    }
+
+    /**
+     * Changes the filter of an edit to one whose values depend on the scale of the image.
+     * @see #replace(int, FilterPipeline)
+     */
+    public BufferedImage replace(int index, DoubleFunction<FilterPipeline> filter)
+            throws IndexOutOfBoundsException, IllegalArgumentException {
+
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("No edit " + index + " of " + size());
+        }
+        return push(edit(index, null, filter));
+    }
+
+    /**
+     * Removes an edit, and applies the edits after it again. This is a new state, which can be undone.
+     * @param index The index of the edit, from 0 for the first.
+     * @return      The image without the edit.
+     * @throws IndexOutOfBoundsException    If there is no such edit.
+     * @throws IllegalArgumentException     If a value of a later filter is out of range for the
+     *                                      image without the edit, in which case nothing is changed.
+     */
+    public BufferedImage remove(int index) throws IndexOutOfBoundsException, IllegalArgumentException {
+
+        List<Node> chain = chain(last());
+        if (index < 0 || index >= chain.size()) {
+            throw new IndexOutOfBoundsException("No edit " + index + " of " + chain.size());
+        }
+
+        Node node = chain.get(index).parent;
+        for (int i = index + 1; i < chain.size(); ++i) {
+            node = new Node(node, chain.get(i).kind, chain.get(i).filter);
+        }
+        return push(node);
+    }
+
+    /**
+     * Computes the preview of the current state with an edit changed or added,
+     * without changing the state, e.g. while a slider is dragged. The edits before
+     * the changed one are cached, so only the changed edit and those after it are applied.
+     * @param index     The index of the edit to change, or {@link #size()} to add one.
+     * @param filter    The filter of the edit for a scale.
+     * @return          The preview.
+     * @throws IndexOutOfBoundsException    If there is no such edit.
+     * @throws IllegalArgumentException     If a value of the filter is out of range for the preview.
+     */
+    public BufferedImage preview(int index, DoubleFunction<FilterPipeline> filter)
+            throws IndexOutOfBoundsException, IllegalArgumentException {
+
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("No edit " + index + " of " + size());
+        }
+        return preview.render(edit(index, "preview", filter));
+    }
+
+    /**
+     * @return  The preview of the current state.
+     */
+    public BufferedImage getPreview() {
+        return preview.render(last());
+    }
+
+    /**
+     * @return  The chain of the current state, with the edit at {@code index}
+     *          changed, or added if it is the number of edits.
+     */
+    private synchronized Node edit(int index, String kind, DoubleFunction<FilterPipeline> filter) {
+
+        List<Node> chain = chain(last());
+        if (index == chain.size()) {
+            return new Node(last(), kind, filter);
+        }
+
+        // The nodes before the edit are kept, with their images
+        Node node = new Node(chain.get(index).parent, chain.get(index).kind, filter);
+        for (int i = index + 1; i < chain.size(); ++i) {
+            node = new Node(node, chain.get(i).kind, chain.get(i).filter);
+        }
+        return node;
+    }
+
+    /**
+     * Makes a node the current state, once its image is computed.
+     */
+    private BufferedImage push(Node node) {
+
+        BufferedImage image = full.render(node);
+        synchronized (this) {
+            while (history.size() > current + 1) {
+                history.remove(history.size() - 1);
+            }
+            history.add(node);
+            ++current;
+        }
+        return image;
+    }
+
+    public synchronized boolean canUndo() {
+        return current > 0;
+    }
+
+    public synchronized boolean canRedo() {
+        return current < history.size() - 1;
+    }
+
+    /**
+     * Goes back to the previous state, which is instant if its image is still cached.
+     * @return  The image of the previous state.
+     * @throws IllegalStateException    If there is nothing to undo.
+     */
+    public BufferedImage undo() throws IllegalStateException {
+
+        synchronized (this) {
+            if (!canUndo()) {
+                throw new IllegalStateException("Nothing to undo");
+            }
+            --current;
+        }
+        return getOutput();
+    }
+
+    /**
+     * Goes forward to the state which was undone last.
+     * @return  The image of that state.
+     * @throws IllegalStateException    If there is nothing to redo.
+     */
+    public BufferedImage redo() throws IllegalStateException {
+
+        synchronized (this) {
+            if (!canRedo()) {
+                throw new IllegalStateException("Nothing to redo");
+            }
+            ++current;
+        }
+        return getOutput();
+    }
+
+    /**
+     * @return  The image of the current state, the input if there is no edit.
+     */
+    public BufferedImage getOutput() {
+        return full.render(last());
+    }
+
+    public BufferedImage getInput() {
+        return full.input;
+    }
+
+    /**
+     * @return  The number of edits of the current state.
+     */
+    public synchronized int size() {
+        return chain(last()).size();
+    }
+
+    /**
+     * @param kind  The kind of edit.
+     * @return      The index of the last edit of that kind in the current state, or -1.
+     */
+    public synchronized int indexOf(String kind) {
+
+        List<Node> chain = chain(last());
+        for (int i = chain.size() - 1; i >= 0; --i) {
+            if (chain.get(i).kind.equals(kind)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return  The edits of the current state, one per line, e.g. to show the history.
+     */
+    @Override
+    public synchronized String toString() {
+
+        StringBuilder text = new StringBuilder();
+        for (Node node : chain(last())) {
+            text.append(node.filter.apply(1.0)).append(System.lineSeparator());
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return  The number of bytes of the cached images, at full size.
+     */
+    public long getCachedBytes() {
+        return full.getCachedBytes();
+    }
+
+    private synchronized Node last() {
+        return history.get(current);
+    }
+
+    /**
+     * @return  The nodes from the first edit to {@code node}.
+     */
+    private static List<Node> chain(Node node) {
+
+        List<Node> chain = new ArrayList<>();
+        for (Node n = node; n != null; n = n.parent) {
+            chain.add(0, n);
+        }
+        return chain;
+    }
+
+    private static long bytes(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * 4;
+    }
+}
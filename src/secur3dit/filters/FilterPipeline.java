@@ -0,0 +1,292 @@
+package secur3dit.filters;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+/**
+ * A sequence of filters applied to an image as few passes as possible.
+ * The filters which compute a pixel from that pixel only (brighten, darken, grayscale,
+ * sepia, negative and posterize) are fused, so a run of them costs a single pass over
+ * the image, see {@link PointOp}. The other filters need the neighbours of a pixel and
+ * each starts a new stage. Only the first stage copies the input, the later ones work
+ * on the image of the stage before, which nothing else refers to.
+ *
+ * e.g. {@code new FilterPipeline().brighten(0.2).sepia().sharpen(2).negative().apply(image)}
+ * makes 3 passes instead of 4 filters each copying the image.
+ *
+ * The filters run on the pool of {@link Filters#setPool}, and give the same pixels as
+ * the methods of {@link Filters} applied one after another.
+ * @author Vivek Nathani
+ */
+public final class FilterPipeline {
+
+    /**
+     * One filter of the pipeline, with either {@code point} or {@code filter}.
+     */
+    private static final class Step {
+
+        final String name;
+        final PointOp point;
+        final UnaryOperator<BufferedImage> filter;
+
+        Step(String name, PointOp point, UnaryOperator<BufferedImage> filter) {
+            this.name = name;
+            this.point = point;
+            this.filter = filter;
+        }
+    }
+
+    private final List<Step> steps = new ArrayList<>();
+
+    private FilterPipeline point(String name, PointOp point) {
+        steps.add(new Step(name, point, null));
+        return this;
+    }
+
+    private FilterPipeline filter(String name, UnaryOperator<BufferedImage> filter) {
+        steps.add(new Step(name, null, filter));
+        return this;
+    }
+
+    /**
+     * @see Filters#mirror
+     */
+    public FilterPipeline mirror(boolean vertical) {
+        return filter(vertical ? "mirror(vertical)" : "mirror(horizontal)", image -> Filters.mirror(image, vertical));
+    }
+
+    /**
+     * @see Filters#rotate
+     */
+    public FilterPipeline rotate(double angle) {
+        return filter("rotate(" + angle + ")", image -> Filters.rotate(image, angle));
+    }
+
+    /**
+     * @see Filters#detectEdges
+     */
+    public FilterPipeline detectEdges() {
+        return filter("edges", Filters::detectEdges);
+    }
+
+    /**
+     * @see Filters#brighten
+     * @throws IllegalArgumentException If the dial is not in the range [0.0, 1.0].
+     */
+    public FilterPipeline brighten(double dial) throws IllegalArgumentException {
+
+        if (dial < 0.0 || dial > 1.0) {
+            throw new IllegalArgumentException("brighten needs a dial in [0, 1]: " + dial);
+        }
+        return point("brighten(" + dial + ")", PointOp.light(dial));
+    }
+
+    /**
+     * @see Filters#darken
+     * @throws IllegalArgumentException If the dial is not in the range [-1.0, 0.0].
+     */
+    public FilterPipeline darken(double dial) throws IllegalArgumentException {
+
+        if (dial > 0.0 || dial < -1.0) {
+            throw new IllegalArgumentException("darken needs a dial in [-1, 0]: " + dial);
+        }
+        return point("darken(" + dial + ")", PointOp.light(dial));
+    }
+
+    /**
+     * @see Filters#grayscale
+     */
+    public FilterPipeline grayscale() {
+        return point("grayscale", PointOp.grayscale());
+    }
+
+    /**
+     * @see Filters#sepia
+     */
+    public FilterPipeline sepia() {
+        return point("sepia", PointOp.sepia());
+    }
+
+    /**
+     * @see Filters#negative
+     */
+    public FilterPipeline negative() {
+        return point("negative", PointOp.negative());
+    }
+
+    /**
+     * @see Filters#posterize
+     */
+    public FilterPipeline posterize() {
+        return point("posterize", PointOp.posterize());
+    }
+
+    /**
+     * @see Filters#addWatermark
+     */
+    public FilterPipeline addWatermark(String watermarkText) {
+        return filter("watermark", image -> Filters.addWatermark(image, watermarkText));
+    }
+
+    /**
+     * A single box blur, see {@link Filters#boxBlur}.
+     * @throws IllegalArgumentException If the radius is negative.
+     */
+    public FilterPipeline boxBlur(int kernelRadius) throws IllegalArgumentException {
+
+        if (kernelRadius < 0) {
+            throw new IllegalArgumentException("boxblur needs a radius of at least 0: " + kernelRadius);
+        }
+        return filter("boxblur(" + kernelRadius + ")", image -> {
+            BufferedImage source = Pixels.copy(image);
+            BufferedImage target = Pixels.copy(image);
+            Filters.boxBlur(source, target, kernelRadius);
+            return target;
+        });
+    }
+
+    /**
+     * @see Filters#gaussianBlur
+     * @throws IllegalArgumentException If the intensity is negative.
+     */
+    public FilterPipeline gaussianBlur(int intensity) throws IllegalArgumentException {
+
+        if (intensity < 0) {
+            throw new IllegalArgumentException("blur needs an intensity of at least 0: " + intensity);
+        }
+        return filter("blur(" + intensity + ")", image -> Filters.gaussianBlur(image, intensity));
+    }
+
+    /**
+     * @see Filters#pixelate
+     * @throws IllegalArgumentException If the width is less than 1.
+     */
+    public FilterPipeline pixelate(int pixelWidth) throws IllegalArgumentException {
+
+        if (pixelWidth < 1) {
+            throw new IllegalArgumentException("pixelate needs a width of at least 1: " + pixelWidth);
+        }
+        return filter("pixelate(" + pixelWidth + ")", image -> Filters.pixelate(image, pixelWidth));
+    }
+
+    /**
+     * @see Filters#sharpen
+     */
+    public FilterPipeline sharpen(int intensity) {
+        return filter("sharpen(" + intensity + ")", image -> Filters.sharpen(image, intensity));
+    }
+
+    /**
+     * Adds the filters of another pipeline after those of this one.
+     * @param other The other pipeline, which is not modified.
+     * @return      This pipeline.
+     */
+    public FilterPipeline then(FilterPipeline other) {
+        steps.addAll(other.steps);
+        return this;
+    }
+
+    /**
+     * @return  {@code true} if the pipeline has no filter, and leaves an image as it is.
+     */
+    public boolean isEmpty() {
+        return steps.isEmpty();
+    }
+
+    /**
+     * @return  {@code true} if every filter computes a pixel from that pixel only,
+     *          so that the pipeline is applied in a single pass.
+     */
+    public boolean isPointwise() {
+
+        for (Step step : steps) {
+            if (step.point == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return  The number of filters of the pipeline.
+     */
+    public int size() {
+        return steps.size();
+    }
+
+    /**
+     * @return  The number of passes over the image, i.e. the filters which need
+     *          the neighbours of a pixel, and the runs of the other filters between them.
+     */
+    public int getStageCount() {
+
+        int stages = 0;
+        for (int i = 0; i < steps.size(); ++i) {
+            if (steps.get(i).point == null || i == 0 || steps.get(i - 1).point == null) {
+                ++stages;
+            }
+        }
+        return stages;
+    }
+
+    /**
+     * Applies the filters to an image.
+     * @param image The input image, which is not modified.
+     * @return      A new image with every filter applied, of {@code TYPE_INT_RGB} or
+     *              {@code TYPE_INT_ARGB} unless the pipeline ends with a watermark.
+     * @throws IllegalArgumentException If the value of a filter is out of range for this image,
+     *                                  e.g. a blur wider than the image.
+     */
+    public BufferedImage apply(BufferedImage image) throws IllegalArgumentException {
+
+        BufferedImage current = image;
+
+        // Whether current is an image of this pipeline, which a stage may modify
+        boolean owned = false;
+
+        int i = 0;
+        while (i < steps.size()) {
+
+            Step step = steps.get(i);
+            if (step.point == null) {
+                current = step.filter.apply(current);
+                if (current == null) {
+                    throw new IllegalArgumentException("Value of " + step.name + " out of range for this image");
+                }
+                owned = true;
+                ++i;
+                continue;
+            }
+
+            // The run of point operations which starts here
+            List<PointOp> run = new ArrayList<>();
+            while (i < steps.size() && steps.get(i).point != null) {
+                run.add(steps.get(i).point);
+                ++i;
+            }
+            current = PointOp.apply(current, owned, Filters.getPool(), run);
+            owned = true;
+        }
+
+        return owned ? current : Pixels.copy(image);
+    }
+
+    /**
+     * @return  The filters, with their values, the stages separated by {@code " | "}.
+     */
+    @Override
+    public String toString() {
+
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < steps.size(); ++i) {
+            if (i > 0) {
+                boolean fused = steps.get(i).point != null && steps.get(i - 1).point != null;
+                text.append(fused ? ", " : " | ");
+            }
+            text.append(steps.get(i).name);
+        }
+        return text.toString();
+    }
+}
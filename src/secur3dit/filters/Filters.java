@@ -7,14 +7,39 @@ import java.awt.FontMetrics;
 import java.awt.Graphics2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Contains methods to apply filters on images.
+ * The filters work on the packed pixels of the image, see {@link Pixels},
+ * and return images of {@code TYPE_INT_RGB} or {@code TYPE_INT_ARGB}.
+ * Large images are split into bands of rows which are filtered in parallel,
+ * see {@link #setPool(ForkJoinPool)}, and give the same pixels as on one thread.
  * @author Naman Nihal
  * @author Vivek Nathani
  */
 public final class Filters {
 
+    private static volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    /**
+     * Sets the pool on which the filters run, for every thread.
+     * @param pool  The pool, e.g. {@code ForkJoinPool.commonPool()}, which is the default,
+     *              or {@code new ForkJoinPool(threads)}, {@code null} for serial mode.
+     */
+    public static void setPool(ForkJoinPool pool) {
+        Filters.pool = pool;
+    }
+
+    /**
+     * @return  The pool on which the filters run, {@code null} in serial mode.
+     */
+    public static ForkJoinPool getPool() {
+        return pool;
+    }
+
     /**
      * Mirrors an image, works in {@code O(height * width)}
      * @param image     The input image
@@ -26,31 +51,39 @@ public final class Filters {
                                         throws ArrayIndexOutOfBoundsException {
 
         // Make a new object in memory
-        BufferedImage result = Helpers.deepCopy(image);
+        BufferedImage result = Pixels.copy(image);
         int height = result.getHeight();
         int width = result.getWidth();
+        int[] pixels = Pixels.data(result);
 
         if (vertical) {
-            for (int i = 0; i < height; ++i) {
-                for (int j = 0; j < width / 2; ++j) {
-
-                    // Swap pixel at (j, i) position with pixel at (width - j - 1, i) position
-                    int temp = result.getRGB(j, i);
-                    result.setRGB(j, i, result.getRGB(width - j - 1, i));
-                    result.setRGB(width - j - 1, i, temp);
+            Bands.run(pool, height, width, (from, to) -> {
+                for (int i = from; i < to; ++i) {
+                    int row = i * width;
+                    for (int j = 0; j < width / 2; ++j) {
+
+                        // Swap pixel at (j, i) position with pixel at (width - j - 1, i) position
+                        int temp = pixels[row + j];
+                        pixels[row + j] = pixels[row + width - j - 1];
+                        pixels[row + width - j - 1] = temp;
+                    }
                 }
-            }
-        } 
+            });
+        }
         else {
-            for (int j = 0; j < width; ++j) {
-                for (int i = 0; i < height / 2; ++i) {
-
-                    // Swap pixel at (j, i) position with pixel at (j, height - i - 1) position
-                    int temp = result.getRGB(j, i);
-                    result.setRGB(j, i, result.getRGB(j, height - i - 1));
-                    result.setRGB(j, height - i - 1, temp);
+            // A band swaps its rows of the top half with the rows they face
+            Bands.run(pool, height / 2, 2 * width, (from, to) -> {
+                int[] temp = new int[width];
+                for (int i = from; i < to; ++i) {
+
+                    // Swap row i with row height - i - 1
+                    int top = i * width;
+                    int bottom = (height - i - 1) * width;
+                    System.arraycopy(pixels, top, temp, 0, width);
+                    System.arraycopy(pixels, bottom, pixels, top, width);
+                    System.arraycopy(temp, 0, pixels, bottom, width);
                 }
-            }
+            });
         }
 
         return result;
@@ -59,89 +92,76 @@ public final class Filters {
     /**
      * Produces a clipped image rotated by {@code angle} degrees,
      * by treating the image as a rectangle on the cartesian plane
-     * and using bilinear interpolation to find the pixel value at every co-ordinate that 
+     * and using bilinear interpolation to find the pixel value at every co-ordinate that
      * will not have a black color after rotation. For more information about the math involved,
      * visit https://en.wikipedia.org/wiki/Bilinear_interpolation
      * @param image The input image
-     * @param angle Floating-point degree, anti-clockwise 
+     * @param angle Floating-point degree, anti-clockwise
      * @return      The rotated image
      */
     public static BufferedImage rotate(BufferedImage image, double angle)
                                     throws ArrayIndexOutOfBoundsException {
-                                                    
+
         int width = image.getWidth();
         int height = image.getHeight();
-        int imageType = BufferedImage.TYPE_INT_RGB;
-
-        if (image.isAlphaPremultiplied()) {
-            imageType = BufferedImage.TYPE_INT_ARGB;
-        }
+        int[] source = Pixels.data(Pixels.packed(image));
 
-        BufferedImage result = new BufferedImage(width, height, imageType);
+        BufferedImage result = Pixels.create(width, height, image.isAlphaPremultiplied());
+        int[] pixels = Pixels.data(result);
+        Arrays.fill(pixels, Color.black.getRGB());
 
         // Convert angle from degree to radians
-        angle = Helpers.toRadians(angle);
+        double radians = Helpers.toRadians(angle);
+
+        // Every point of the result is rotated by -angle around the centre with the rotation
+        // matrix, and takes the colour of the input at the point it lands on
+        double cos = Math.cos(radians);
+        double sin = Math.sin(radians);
 
         // Get centre co-ordinates
         int centreX = width / 2;
         int centreY = height / 2;
 
-        for (int i = 0; i < height; ++i) {
-            for (int j = 0; j < width; ++j) {
+        // Every row of the result is interpolated from the input on its own
+        Bands.run(pool, height, width, (from, to) -> {
+            for (int i = from; i < to; ++i) {
+                for (int j = 0; j < width; ++j) {
 
-                result.setRGB(j, i, Color.black.getRGB());
+                    // Raster to cartesian
+                    int x = j - centreX;
+                    int y = centreY - i;
 
-                // Raster to cartesian
-                int[] points = Helpers.toCartesian(j, i, centreX, centreY);
+                    // Rotate, and go back from cartesian to raster points
+                    double rasterX = (x * cos + y * sin) + centreX;
+                    double rasterY = centreY - (y * cos - x * sin);
 
-                // Continue if point is the origin
-                if (points[0] == 0 && points[1] == 0) {
-                    continue;
-                }
-
-                // Cartesian to polar form
-                double[] polarData = Helpers.toPolar(points[0], points[1]);
+                    int flooredX = (int) Math.floor(rasterX);
+                    int flooredY = (int) Math.floor(rasterY);
+                    int ceiledX = (int) Math.ceil(rasterX);
+                    int ceiledY = (int) Math.ceil(rasterY);
 
-                // Subtract the angle from the polar angle
-                polarData[1] -= angle;
+                    // Check for bounds
+                    if (Helpers.isOutOfBounds(flooredX, width)  ||
+                        Helpers.isOutOfBounds(flooredY, height) ||
+                        Helpers.isOutOfBounds(ceiledX, width)   ||
+                        Helpers.isOutOfBounds(ceiledY, height)) {
 
-                // Use the new polar angle to make new cartesian points
-                double[] cartesianPoints = Helpers.toCartesian(polarData);
-                
-                // Use the new cartesian points to make new raster points
-                double[] rasterPoints = Helpers.toRaster(cartesianPoints, centreX, centreY);
+                            continue;
+                    }
 
+                    // Compute the delta
+                    double deltaX = rasterX - (double) flooredX;
+                    double deltaY = rasterY - (double) flooredY;
 
-                int[] floored = Helpers.floorPoints(rasterPoints);
-                int[] ceiled = Helpers.ceilPoints(rasterPoints);
-                
-                // Check for bounds
-                if (Helpers.isOutOfBounds(floored[0], width)  || 
-                    Helpers.isOutOfBounds(floored[1], height) || 
-                    Helpers.isOutOfBounds(ceiled[0], width)   || 
-                    Helpers.isOutOfBounds(ceiled[1], height)) {
-                        
-                        continue;
+                    // Perform bilinear interpolation on the four surrounding pixels
+                    pixels[i * width + j] = Helpers.bilinearInterpolation(
+                        source[flooredY * width + flooredX], source[flooredY * width + ceiledX],
+                        source[ceiledY * width + flooredX], source[ceiledY * width + ceiledX],
+                        deltaX, deltaY);
                 }
-
-                // Compute the delta
-                double deltaX = rasterPoints[0] - (double) floored[0];
-                double deltaY = rasterPoints[1] - (double) floored[1];
-
-                // Use the floored and ceiled points to get four colors
-                Color topLeft = new Color(image.getRGB(floored[0], floored[1]));
-                Color topRight = new Color(image.getRGB(ceiled[0], floored[1]));
-                Color bottomLeft = new Color(image.getRGB(floored[0], ceiled[1]));
-                Color bottomRight = new Color(image.getRGB(ceiled[0], ceiled[1]));
-
-                // Perform bilinear interpolation on these four colors
-                int finalColor = Helpers.bilinearInterpolation(topLeft, topRight, bottomLeft,
-                                                                bottomRight, deltaX, deltaY);
-                    
-                result.setRGB(j, i, finalColor);
             }
-        }
 
+        });
         return result;
     }
 
@@ -157,70 +177,108 @@ public final class Filters {
 
         int width = image.getWidth();
         int height = image.getHeight();
-        int imageType = BufferedImage.TYPE_INT_RGB;
+        int[] source = Pixels.data(Pixels.packed(image));
 
-        if (image.isAlphaPremultiplied()) {
-            imageType = BufferedImage.TYPE_INT_ARGB;
-        }
+        BufferedImage result = Pixels.create(width, height, image.isAlphaPremultiplied());
+        int[] pixels = Pixels.data(result);
 
-        BufferedImage result = new BufferedImage(width, height, imageType);
+        // A band reads the row above and below it from the input
+        Bands.run(pool, height, width, (from, to) -> {
+            for (int i = from; i < to; ++i) {
 
-        for (int i = 0; i < height; ++i) {
+                boolean borderRow = i == 0 || i == height - 1;
 
-            int[] sobelSumX = new int[3];
-            int[] sobelSumY = new int[3];
-            int[] sobelXY = new int[3];
+                for (int j = 0; j < width; ++j) {
 
-            for (int j = 0; j < width; ++j) {
+                    if (borderRow || j == 0 || j == width - 1) {
+                        pixels[i * width + j] = sobelAtBorder(source, width, height, i, j);
+                        continue;
+                    }
 
-                // Set initial values to zero
-                for (int k = 0; k < 3; ++k) {
-                    sobelSumX[k] = 0;
-                    sobelSumY[k] = 0;
+                    // The 8 neighbours, the kernels being 0 at the centre
+                    int index = i * width + j;
+                    int topLeft = source[index - width - 1];
+                    int top = source[index - width];
+                    int topRight = source[index - width + 1];
+                    int left = source[index - 1];
+                    int right = source[index + 1];
+                    int bottomLeft = source[index + width - 1];
+                    int bottom = source[index + width];
+                    int bottomRight = source[index + width + 1];
+
+                    // Kernels.sobelKernelX and Kernels.sobelKernelY, written out
+                    int sumRX = Pixels.red(topRight) + 2 * Pixels.red(right) + Pixels.red(bottomRight)
+                              - Pixels.red(topLeft) - 2 * Pixels.red(left) - Pixels.red(bottomLeft);
+                    int sumGX = Pixels.green(topRight) + 2 * Pixels.green(right) + Pixels.green(bottomRight)
+                              - Pixels.green(topLeft) - 2 * Pixels.green(left) - Pixels.green(bottomLeft);
+                    int sumBX = Pixels.blue(topRight) + 2 * Pixels.blue(right) + Pixels.blue(bottomRight)
+                              - Pixels.blue(topLeft) - 2 * Pixels.blue(left) - Pixels.blue(bottomLeft);
+                    int sumRY = Pixels.red(bottomLeft) + 2 * Pixels.red(bottom) + Pixels.red(bottomRight)
+                              - Pixels.red(topLeft) - 2 * Pixels.red(top) - Pixels.red(topRight);
+                    int sumGY = Pixels.green(bottomLeft) + 2 * Pixels.green(bottom) + Pixels.green(bottomRight)
+                              - Pixels.green(topLeft) - 2 * Pixels.green(top) - Pixels.green(topRight);
+                    int sumBY = Pixels.blue(bottomLeft) + 2 * Pixels.blue(bottom) + Pixels.blue(bottomRight)
+                              - Pixels.blue(topLeft) - 2 * Pixels.blue(top) - Pixels.blue(topRight);
+
+                    // Compute the vector sum for each color value
+                    pixels[index] = Pixels.rgb(magnitude(sumRX, sumRY),
+                                               magnitude(sumGX, sumGY),
+                                               magnitude(sumBX, sumBY));
                 }
+            }
 
-                for (int m = 0; m < 3; ++m) {
-                    for (int n = 0; n < 3; ++n) {
+        });
+        return result;
+    }
 
-                        // Compute indices to operate upon
-                        int indexI = i + m - 1;
-                        int indexJ = j + n - 1;
+    /**
+     * Applies the Sobel operator at a pixel on the border of the image,
+     * where the neighbours outside the image count as black.
+     * @return  The pixel of the edges.
+     */
+    private static int sobelAtBorder(int[] source, int width, int height, int i, int j) {
 
-                        // Check for bounds
-                        if (Helpers.isOutOfBounds(indexI, height) || 
-                            Helpers.isOutOfBounds(indexJ, width)) {
-                                
-                                continue;
-                        }
+        int sumRX = 0, sumGX = 0, sumBX = 0;
+        int sumRY = 0, sumGY = 0, sumBY = 0;
 
-                        Color color = new Color(image.getRGB(indexJ, indexI));
+        for (int m = 0; m < 3; ++m) {
+            for (int n = 0; n < 3; ++n) {
 
-                        // Add the R,G,B values in X and Y direction
-                        sobelSumX[0] += Kernels.sobelKernelX[m][n] * color.getRed();
-                        sobelSumX[1] += Kernels.sobelKernelX[m][n] * color.getGreen();
-                        sobelSumX[2] += Kernels.sobelKernelX[m][n] * color.getBlue();
-                        sobelSumY[0] += Kernels.sobelKernelX[m][n] * color.getRed();
-                        sobelSumY[1] += Kernels.sobelKernelX[m][n] * color.getGreen();
-                        sobelSumY[2] += Kernels.sobelKernelX[m][n] * color.getBlue();
-                    }
-                }
+                // Compute indices to operate upon
+                int indexI = i + m - 1;
+                int indexJ = j + n - 1;
 
-                // Compute the vector sum for each color value
-                for (int k = 0; k < 3; ++k) {
+                // Check for bounds
+                if (Helpers.isOutOfBounds(indexI, height) ||
+                    Helpers.isOutOfBounds(indexJ, width)) {
 
-                    sobelXY[k] = (int) Math.round(Math.sqrt((
-                                        sobelSumX[k] * sobelSumX[k] + sobelSumY[k] * sobelSumY[k])));
-                    
-                    sobelXY[k] = Helpers.truncateIfNeeded(sobelXY[k]);
+                        continue;
                 }
 
-                // Get the final color
-                Color color = new Color(sobelXY[0], sobelXY[1], sobelXY[2]);
-                result.setRGB(j, i, color.getRGB());
+                int pixel = source[indexI * width + indexJ];
+                int kernelX = Kernels.sobelKernelX[m][n];
+                int kernelY = Kernels.sobelKernelY[m][n];
+
+                // Add the R,G,B values in X and Y direction
+                sumRX += kernelX * Pixels.red(pixel);
+                sumGX += kernelX * Pixels.green(pixel);
+                sumBX += kernelX * Pixels.blue(pixel);
+                sumRY += kernelY * Pixels.red(pixel);
+                sumGY += kernelY * Pixels.green(pixel);
+                sumBY += kernelY * Pixels.blue(pixel);
             }
         }
 
-        return result;
+        return Pixels.rgb(magnitude(sumRX, sumRY), magnitude(sumGX, sumGY), magnitude(sumBX, sumBY));
+    }
+
+    /**
+     * @return  The length of the gradient {@code (x, y)}, rounded and truncated to a pixel value.
+     *          The square root of an integer is never close to a half, so adding 0.5 rounds
+     *          it the same as {@code Math.round}, which is slower.
+     */
+    private static int magnitude(int x, int y) {
+        return Helpers.truncateIfNeeded((int) (Math.sqrt(x * x + y * y) + 0.5));
     }
 
     /**
@@ -236,10 +294,7 @@ public final class Filters {
             return null;
         }
 
-        BufferedImage result = Helpers.deepCopy(image);
-        Helpers.lightDial(result, dial);
-
-        return result;
+        return PointOp.apply(image, false, pool, List.of(PointOp.light(dial)));
     }
 
     /**
@@ -255,10 +310,7 @@ public final class Filters {
             return null;
         }
 
-        BufferedImage result = Helpers.deepCopy(image);
-        Helpers.lightDial(result, dial);
-
-        return result;
+        return PointOp.apply(image, false, pool, List.of(PointOp.light(dial)));
     }
 
     /**
@@ -270,27 +322,7 @@ public final class Filters {
     public static BufferedImage grayscale(BufferedImage image)
                         throws ArrayIndexOutOfBoundsException {
 
-        BufferedImage img = Helpers.deepCopy(image);
-
-        int width = img.getWidth();
-        int height = img.getHeight();
-
-        for (int i = 0; i < width; ++i) {
-            for (int j = 0; j < height; ++j) {
-
-                Color color = new Color(img.getRGB(i, j));
-
-                int tr = (int) (color.getRed() * 0.2126);
-                int tg = (int) (color.getGreen() * 0.7152);
-                int tb = (int) (color.getBlue() * 0.0722);
-                int sum = tr + tg + tb;
-
-                Color shadeOfGray = new Color(sum, sum, sum);
-                img.setRGB(i, j, shadeOfGray.getRGB());
-            }
-        }
-
-        return img;
+        return PointOp.apply(image, false, pool, List.of(PointOp.grayscale()));
     }
 
     /**
@@ -299,33 +331,10 @@ public final class Filters {
      * @return      The image with the sepia effect
      * @throws ArrayIndexOutOfBoundsException
      */
-    public static BufferedImage sepia(BufferedImage image) 
+    public static BufferedImage sepia(BufferedImage image)
                         throws ArrayIndexOutOfBoundsException {
 
-        BufferedImage img = Helpers.deepCopy(image);
-
-        int width = img.getWidth();
-        int height = img.getHeight();
-
-        for (int i = 0; i < width; ++i) {
-            for (int j = 0; j < height; ++j) {
-
-                Color color = new Color(img.getRGB(i, j));
-
-                int tr = (int) (color.getRed() * 0.393 + color.getGreen() * 0.769 + color.getBlue() * 0.189);
-                int tg = (int) (color.getRed() * 0.349 + color.getGreen() * 0.686 + color.getBlue() * 0.168);
-                int tb = (int) (color.getRed() * 0.272 + color.getGreen() * 0.534 + color.getBlue() * 0.131);
-
-                int red = tr > 255 ? 255 : tr;
-                int green = tg > 255 ? 255 : tg;
-                int blue = tb > 255 ? 255 : tb;
-
-                Color newColor = new Color(red, green, blue);
-                img.setRGB(i, j, newColor.getRGB());
-            }
-        }
-
-        return img;
+        return PointOp.apply(image, false, pool, List.of(PointOp.sepia()));
     }
 
     /**
@@ -334,29 +343,10 @@ public final class Filters {
      * @return      The negative/inverted image
      * @throws ArrayIndexOutOfBoundsException
      */
-    public static BufferedImage negative(BufferedImage image) 
+    public static BufferedImage negative(BufferedImage image)
                             throws ArrayIndexOutOfBoundsException {
-        
-        BufferedImage img = Helpers.deepCopy(image);
-
-        int width = img.getWidth();
-        int height = img.getHeight();
-
-        for (int i = 0; i < width; ++i) {
-            for (int j = 0; j < height; ++j) {
-
-                Color color = new Color(img.getRGB(i, j));
-
-                int tr = (int) (255 - color.getRed());
-                int tg = (int) (255 - color.getGreen());
-                int tb = (int) (255 - color.getBlue());
 
-                Color newColor = new Color(tr, tg, tb);
-                img.setRGB(i, j, newColor.getRGB());
-            }
-        }
-
-        return img;
+        return PointOp.apply(image, false, pool, List.of(PointOp.negative()));
     }
 
     /**
@@ -368,7 +358,7 @@ public final class Filters {
      */
     public static BufferedImage addWatermark(BufferedImage image, String watermarkText)
                                                                 throws NullPointerException {
-        
+
         BufferedImage img = Helpers.deepCopy(image);
         Graphics2D graphics = (Graphics2D) img.getGraphics();
 
@@ -394,11 +384,11 @@ public final class Filters {
      * Apply box blur on an image in {@code O(height * width)}.
      * @param source        The input image
      * @param target        The image that will store the result of boxBlur
-     * @param kernelRadius  An integer value in the range 
+     * @param kernelRadius  An integer value in the range
      *                      [1, min({@code source.height} - 1, {@code source.width} - 1)]
-     * @throws ArrayIndexOutOfBoundsException
+     * @throws ArrayIndexOutOfBoundsException   If the kernel is wider than the image
      */
-    public static void boxBlur(BufferedImage source, BufferedImage target, int kernelRadius) 
+    public static void boxBlur(BufferedImage source, BufferedImage target, int kernelRadius)
                                                         throws ArrayIndexOutOfBoundsException {
 
         if (kernelRadius < 0 || kernelRadius >= Math.min(source.getHeight(), source.getWidth())) {
@@ -407,148 +397,173 @@ public final class Filters {
 
         int width = source.getWidth();
         int height = source.getHeight();
-                                                                
+
+        if (2 * kernelRadius >= Math.min(height, width)) {
+            throw new ArrayIndexOutOfBoundsException("Kernel radius " + kernelRadius +
+                                                     " is too large for a " + width + "x" + height + " image");
+        }
+
         double kernelCoefficient = 1.0 / ((2.0 * (double) kernelRadius) + 1.0);
 
+        // The average of every possible sum of a window, computed once
+        int[] averages = new int[255 * (2 * kernelRadius + 1) + 1];
+        for (int sum = 0; sum < averages.length; ++sum) {
+            averages[sum] = (int) Math.round((double) sum * kernelCoefficient);
+        }
+
+        // Images of other types are read and written back once per pass
+        boolean packed = Pixels.isPacked(source) && Pixels.isPacked(target);
+        int[] sourcePixels = packed ? Pixels.data(source) : source.getRGB(0, 0, width, height, null, 0, width);
+        int[] targetPixels = packed ? Pixels.data(target) : target.getRGB(0, 0, width, height, null, 0, width);
+
         // Go through each row first, on the source itself
-        for (int i = 0; i < height; ++i) {
-            
-            Color fcolor = new Color(target.getRGB(0, i));
-            Color lastColor = new Color(target.getRGB(width - 1, i));
-            int sumR = fcolor.getRed() * (kernelRadius + 1);
-            int sumG = fcolor.getGreen() * (kernelRadius + 1);
-            int sumB = fcolor.getBlue() * (kernelRadius + 1);
-
-            for (int j = 0; j < kernelRadius; ++j) {
-                Color color = new Color(target.getRGB(j, i));
-                sumR += color.getRed();
-                sumG += color.getGreen();
-                sumB += color.getBlue();
-            }            
-
-            int ti = 0;
-            int li = ti;
-            int ri = ti + kernelRadius;
-
-            for (int j = 0; j <= kernelRadius; ++j) {
-
-                Color color = new Color(target.getRGB(ri, i));
-                sumR += (color.getRed() - fcolor.getRed());
-                sumG += (color.getGreen() - fcolor.getGreen());
-                sumB += (color.getBlue()- fcolor.getBlue());
-                ++ri;
-                int finalR = (int) Math.round((double) sumR * kernelCoefficient);
-                int finalG = (int) Math.round((double) sumG * kernelCoefficient);
-                int finalB = (int) Math.round((double) sumB * kernelCoefficient);
-                Color finalColor = new Color(finalR, finalG, finalB);
-                source.setRGB(ti, i, finalColor.getRGB());
-                ++ti;
+        Bands.run(pool, height, width, (from, to) -> {
+            for (int i = from; i < to; ++i) {
+                blurRow(targetPixels, sourcePixels, i * width, width, kernelRadius, averages);
             }
+        });
 
-            for (int j = kernelRadius + 1; j < width - kernelRadius; ++j) {
-
-                Color color = new Color(target.getRGB(ri, i));
-                Color lcolor = new Color(target.getRGB(li, i));
-                ++li;
-                sumR += (color.getRed() - lcolor.getRed());
-                sumG += (color.getGreen() - lcolor.getGreen());
-                sumB += (color.getBlue()- lcolor.getBlue());
-                ++ri;
-                int finalR = (int) Math.round((double) sumR * kernelCoefficient);
-                int finalG = (int) Math.round((double) sumG * kernelCoefficient);
-                int finalB = (int) Math.round((double) sumB * kernelCoefficient);
-                Color finalColor = new Color(finalR, finalG, finalB);
-                source.setRGB(ti, i, finalColor.getRGB());
-                ++ti;
-            }
+        if (!packed) {
+            source.setRGB(0, 0, width, height, sourcePixels, 0, width);
+            source.getRGB(0, 0, width, height, sourcePixels, 0, width);
+        }
 
-            for (int j = width - kernelRadius; j < width; ++j) {
-
-                Color lcolor = new Color(target.getRGB(li, i));
-                ++li;
-                sumR += (lastColor.getRed() - lcolor.getRed());
-                sumG += (lastColor.getGreen() - lcolor.getGreen());
-                sumB += (lastColor.getBlue()- lcolor.getBlue());
-                
-                int finalR = (int) Math.round((double) sumR * kernelCoefficient);
-                int finalG = (int) Math.round((double) sumG * kernelCoefficient);
-                int finalB = (int) Math.round((double) sumB * kernelCoefficient);
-                Color finalColor = new Color(finalR, finalG, finalB);
-                source.setRGB(ti, i, finalColor.getRGB());
-                ++ti;
-            }
+        // Go through each column, on the target, a band of rows at a time
+        Bands.run(pool, height, width, (from, to) ->
+            blurColumns(sourcePixels, targetPixels, width, height, from, to, kernelRadius, averages));
+
+        if (!packed) {
+            target.setRGB(0, 0, width, height, targetPixels, 0, width);
         }
+    }
 
-        // Go through each column, on the target
-        for (int i = 0; i < width; ++i) {
+    /**
+     * Blurs one row with a sliding window, in {@code O(width)}.
+     * Pixels beyond the ends take the value of the first and last pixel.
+     * @param in                The pixels to read
+     * @param out               The pixels to write
+     * @param start             The index of the first pixel of the row
+     * @param width             The number of pixels in the row, more than {@code 2 * kernelRadius}
+     * @param kernelRadius      The radius of the window
+     * @param averages          The average of a window for every sum of its values
+     */
+    private static void blurRow(int[] in, int[] out, int start, int width,
+                                int kernelRadius, int[] averages) {
+
+        int fcolor = in[start];
+        int lastColor = in[start + width - 1];
+        int sumR = Pixels.red(fcolor) * (kernelRadius + 1);
+        int sumG = Pixels.green(fcolor) * (kernelRadius + 1);
+        int sumB = Pixels.blue(fcolor) * (kernelRadius + 1);
+
+        for (int j = 0; j < kernelRadius; ++j) {
+            int color = in[start + j];
+            sumR += Pixels.red(color);
+            sumG += Pixels.green(color);
+            sumB += Pixels.blue(color);
+        }
 
-            Color fcolor = new Color(source.getRGB(i, 0));
-            Color lastColor = new Color(source.getRGB(i, height - 1));
-            int sumR =  fcolor.getRed() * (kernelRadius + 1);
-            int sumG = fcolor.getGreen() * (kernelRadius + 1);
-            int sumB = fcolor.getBlue() * (kernelRadius + 1);
+        int ti = start;
+        int li = start;
+        int ri = start + kernelRadius;
 
-            for (int j = 0; j < kernelRadius; ++j) {
-                Color color = new Color(source.getRGB(i, j));
-                sumR += color.getRed();
-                sumG += color.getGreen();
-                sumB += color.getBlue();
-            }
+        for (int j = 0; j <= kernelRadius; ++j) {
 
-            int ti = 0;
-            int li = ti;
-            int ri = ti + kernelRadius;
-
-            for (int j = 0; j <= kernelRadius; ++j) {
-
-                Color color = new Color(source.getRGB(i, ri));
-                sumR += (color.getRed() - fcolor.getRed());
-                sumG += (color.getGreen() - fcolor.getGreen());
-                sumB += (color.getBlue()- fcolor.getBlue());
-                ++ri;
-                int finalR = (int) Math.round((double) sumR * kernelCoefficient);
-                int finalG = (int) Math.round((double) sumG * kernelCoefficient);
-                int finalB = (int) Math.round((double) sumB * kernelCoefficient);
-                Color finalColor = new Color(finalR, finalG, finalB);
-                target.setRGB(i, ti, finalColor.getRGB());
-                ++ti;
-            }
+            int color = in[ri];
+            sumR += Pixels.red(color) - Pixels.red(fcolor);
+            sumG += Pixels.green(color) - Pixels.green(fcolor);
+            sumB += Pixels.blue(color) - Pixels.blue(fcolor);
+            ++ri;
+            out[ti] = average(sumR, sumG, sumB, averages);
+            ++ti;
+        }
+
+        for (int j = kernelRadius + 1; j < width - kernelRadius; ++j) {
+
+            int color = in[ri];
+            int lcolor = in[li];
+            ++li;
+            sumR += Pixels.red(color) - Pixels.red(lcolor);
+            sumG += Pixels.green(color) - Pixels.green(lcolor);
+            sumB += Pixels.blue(color) - Pixels.blue(lcolor);
+            ++ri;
+            out[ti] = average(sumR, sumG, sumB, averages);
+            ++ti;
+        }
+
+        for (int j = width - kernelRadius; j < width; ++j) {
+
+            int lcolor = in[li];
+            ++li;
+            sumR += Pixels.red(lastColor) - Pixels.red(lcolor);
+            sumG += Pixels.green(lastColor) - Pixels.green(lcolor);
+            sumB += Pixels.blue(lastColor) - Pixels.blue(lcolor);
+            out[ti] = average(sumR, sumG, sumB, averages);
+            ++ti;
+        }
+    }
 
-            for (int j = kernelRadius + 1; j < height - kernelRadius; ++j) {
-
-                Color color = new Color(source.getRGB(i, ri));
-                Color lcolor = new Color(source.getRGB(i, li));
-                ++li;
-                sumR += (color.getRed() - lcolor.getRed());
-                sumG += (color.getGreen() - lcolor.getGreen());
-                sumB += (color.getBlue()- lcolor.getBlue());
-                ++ri;
-                int finalR = (int) Math.round((double) sumR * kernelCoefficient);
-                int finalG = (int) Math.round((double) sumG * kernelCoefficient);
-                int finalB = (int) Math.round((double) sumB * kernelCoefficient);
-                Color finalColor = new Color(finalR, finalG, finalB);
-                target.setRGB(i, ti, finalColor.getRGB());
-                ++ti;
+    /**
+     * Blurs every column of the rows {@code [from, to)} with a sliding window,
+     * in {@code O((to - from + kernelRadius) * width)}.
+     * The windows of all the columns move down one row at a time, so that the pixels
+     * are read row by row instead of jumping a whole row for every pixel of a column.
+     * The windows start on the halo rows above {@code from}, so a band gives the same
+     * pixels as the whole image at once.
+     * Pixels beyond the ends take the value of the first and last pixel of the column.
+     * @param in                The pixels to read
+     * @param out               The pixels to write
+     * @param width             The width of the image
+     * @param height            The height of the image, more than {@code 2 * kernelRadius}
+     * @param from              The first row to blur
+     * @param to                The row after the last one to blur
+     * @param kernelRadius      The radius of the window
+     * @param averages          The average of a window for every sum of its values
+     */
+    private static void blurColumns(int[] in, int[] out, int width, int height, int from, int to,
+                                    int kernelRadius, int[] averages) {
+
+        int[] sumR = new int[width];
+        int[] sumG = new int[width];
+        int[] sumB = new int[width];
+        int last = (height - 1) * width;
+
+        // The window of row from - 1, which every step below moves down by one row
+        for (int j = from - kernelRadius - 1; j < from + kernelRadius; ++j) {
+            int row = Math.max(0, Math.min(j, height - 1)) * width;
+            for (int i = 0; i < width; ++i) {
+                int color = in[row + i];
+                sumR[i] += Pixels.red(color);
+                sumG[i] += Pixels.green(color);
+                sumB[i] += Pixels.blue(color);
             }
+        }
+
+        for (int j = from; j < to; ++j) {
 
-            for (int j = height - kernelRadius; j < height; ++j) {
-
-                Color lcolor = new Color(source.getRGB(i, li));
-                ++li;
-                sumR += (lastColor.getRed() - lcolor.getRed());
-                sumG += (lastColor.getGreen() - lcolor.getGreen());
-                sumB += (lastColor.getBlue()- lcolor.getBlue());
-                
-                int finalR = (int) Math.round((double) sumR * kernelCoefficient);
-                int finalG = (int) Math.round((double) sumG * kernelCoefficient);
-                int finalB = (int) Math.round((double) sumB * kernelCoefficient);
-                Color finalColor = new Color(finalR, finalG, finalB);
-                target.setRGB(i, ti, finalColor.getRGB());
-                ++ti;
+            // The pixel entering the window, and the one leaving it
+            int ri = j + kernelRadius < height ? (j + kernelRadius) * width : last;
+            int li = j > kernelRadius ? (j - kernelRadius - 1) * width : 0;
+
+            for (int i = 0; i < width; ++i) {
+
+                int color = in[ri + i];
+                int lcolor = in[li + i];
+                sumR[i] += Pixels.red(color) - Pixels.red(lcolor);
+                sumG[i] += Pixels.green(color) - Pixels.green(lcolor);
+                sumB[i] += Pixels.blue(color) - Pixels.blue(lcolor);
+                out[j * width + i] = average(sumR[i], sumG[i], sumB[i], averages);
             }
         }
     }
 
+    /**
+     * @return  The opaque pixel of the window whose sums are given.
+     */
+    private static int average(int sumR, int sumG, int sumB, int[] averages) {
+        return Pixels.rgb(averages[sumR], averages[sumG], averages[sumB]);
+    }
+
     /**
      * Uses box blur to achieve the effect of gaussian blur.
      * @param image     The input image
@@ -563,8 +578,8 @@ public final class Filters {
             return null;
         }
 
-        BufferedImage source = Helpers.deepCopy(image);
-        BufferedImage target = Helpers.deepCopy(image);
+        BufferedImage source = Pixels.copy(image);
+        BufferedImage target = Pixels.copy(source);
 
         // Apply box blur 3 times, incrementally
         boxBlur(source, target, intensity);
@@ -575,45 +590,24 @@ public final class Filters {
     }
 
     /**
-     * Takes an image and returns a posterized version of it by reducing 
-     * its distinct pixels.  
+     * Takes an image and returns a posterized version of it by reducing
+     * its distinct pixels.
      * @param image The input image
      * @return      The posterized image
      * @throws ArrayIndexOutOfBoundsException
      */
-    public static BufferedImage posterize(BufferedImage image) 
+    public static BufferedImage posterize(BufferedImage image)
                             throws ArrayIndexOutOfBoundsException {
-        
-        // We apply the Helpers.reducePixel() method on R,G,B value of every pixel.
-
-        BufferedImage result = Helpers.deepCopy(image);
-        int width = image.getWidth();
-        int height = image.getHeight();
-    
-        for (int i = 0; i < height; ++i) {
-            for (int j = 0; j < width; ++j) {
-
-                // get the color
-                Color originalColor = new Color(result.getRGB(j, i));
-
-                // reduce the pixels
-                int red = Helpers.reducePixel(originalColor.getRed());
-                int green = Helpers.reducePixel(originalColor.getGreen());
-                int blue = Helpers.reducePixel(originalColor.getBlue());
-
-                // apply the color
-                Color finalColor = new Color(red, green, blue);
-                result.setRGB(j, i, finalColor.getRGB());
-            }
-        }
 
-        return result;
+        // We apply the Helpers.reducePixel() method on R,G,B value of every pixel,
+        // once for each of the 256 values.
+        return PointOp.apply(image, false, pool, List.of(PointOp.posterize()));
     }
-    
+
     /**
      * Takes an image and returns a pixelated version of it.
      * @param image         The input image
-     * @param pixelWidth    An integer in the range 
+     * @param pixelWidth    An integer in the range
      *                      [1, min({@code height} - 1, {@code width} - 1)]
      * @return              The pixelated image
      * @throws ArrayIndexOutOfBoundsException
@@ -625,59 +619,51 @@ public final class Filters {
         // jumping at a length of pixelWidth after each iteration. In each slide,
         // it sets the R,G,B values of every pixel to the average values in that window.
 
-        BufferedImage result = Helpers.deepCopy(image);
+        BufferedImage result = Pixels.copy(image);
+        int[] pixels = Pixels.data(result);
         int width = image.getWidth();
         int height = image.getHeight();
 
-        for (int i = 0; i < height; i += pixelWidth) {
-            for (int j = 0; j < width; j += pixelWidth) {
-
-                int avgRed = 0;
-                int avgGreen = 0;
-                int avgBlue = 0;
-
-                int totalRed = 0;
-                int totalGreen = 0;
-                int totalBlue = 0;
+        // A band is a number of whole rows of windows
+        int windowRows = (height + pixelWidth - 1) / pixelWidth;
+        Bands.run(pool, windowRows, pixelWidth * width, (from, to) -> {
+            for (int i = from * pixelWidth; i < Math.min(to * pixelWidth, height); i += pixelWidth) {
+                for (int j = 0; j < width; j += pixelWidth) {
 
-                int count = 0;
+                    int bottom = Math.min(i + pixelWidth, height);
+                    int right = Math.min(j + pixelWidth, width);
 
-                // Traverse and add the pixel values
-                for (int y = i; y < i + pixelWidth && y < height; ++y) {
-                    for (int x = j; x < j + pixelWidth && x < width; ++x) {
+                    int totalRed = 0;
+                    int totalGreen = 0;
+                    int totalBlue = 0;
 
-                        Color color = new Color(result.getRGB(x, y));
+                    // Traverse and add the pixel values
+                    for (int y = i; y < bottom; ++y) {
+                        for (int x = y * width + j; x < y * width + right; ++x) {
 
-                        totalRed += color.getRed();
-                        totalGreen += color.getGreen();
-                        totalBlue += color.getBlue();
-                        ++count;
+                            totalRed += Pixels.red(pixels[x]);
+                            totalGreen += Pixels.green(pixels[x]);
+                            totalBlue += Pixels.blue(pixels[x]);
+                        }
                     }
-                }
 
-                // Compute the average
-                avgRed = totalRed / count;
-                avgGreen = totalGreen / count;
-                avgBlue = totalBlue / count;
-                
-                // Get the color made using the R,G,B values
-                Color finalColor = new Color(avgRed, avgGreen, avgBlue);
+                    // Compute the average
+                    int count = (bottom - i) * (right - j);
+                    int finalColor = Pixels.rgb(totalRed / count, totalGreen / count, totalBlue / count);
 
-                // Set all pixels in the submatrix to finalColor
-                for (int y = i; y < i + pixelWidth && y < height; ++y) {
-                    for (int x = j; x < j + pixelWidth && x < width; ++x) {
-
-                        result.setRGB(x, y, finalColor.getRGB());
+                    // Set all pixels in the submatrix to finalColor
+                    for (int y = i; y < bottom; ++y) {
+                        Arrays.fill(pixels, y * width + j, y * width + right, finalColor);
                     }
                 }
             }
-        }
-        
+
+        });
         return result;
     }
 
     /**
-     * Takes an image and returns a sharpened version of it with given intensity. 
+     * Takes an image and returns a sharpened version of it with given intensity.
      * @param image     The input image
      * @param intensity Integer indicating the sharpness required
      * @return          The sharpened image
@@ -686,51 +672,117 @@ public final class Filters {
 
      // The intensity parameter is used to produce a 3x3 kernel
      // which will be convolved with the image. The process is similar to
-     // blurring an image using box blur just once. Since the kernel 
-     // is just 3x3, the total steps for convolutionResult calculation in each 
-     // iteration will always be 9. Hence, this kernel is not made separable and 
-     // works in O(height * width), similar to box blur with a separable kernel 
-     // and varying kernelRadius. The intensity can theoretically range from 
-     // [0, infinity). However, in practice, after a threshold, the higher values 
+     // blurring an image using box blur just once. Since the kernel
+     // is just 3x3, the total steps for convolutionResult calculation in each
+     // iteration will always be 9. Hence, this kernel is not made separable and
+     // works in O(height * width), similar to box blur with a separable kernel
+     // and varying kernelRadius. The intensity can theoretically range from
+     // [0, infinity). However, in practice, after a threshold, the higher values
      // would become pointless to use due to results that would not please the
      // human eye. That threshold would depend upon how blurred the input image is.
 
-        BufferedImage result = Helpers.deepCopy(image);
+        BufferedImage packed = Pixels.packed(image);
+        BufferedImage result = Pixels.copy(packed);
+        int[] source = Pixels.data(packed);
+        int[] pixels = Pixels.data(result);
         int width = image.getWidth();
         int height = image.getHeight();
 
-        // Get the kernel with applied intensity
+        // Get the kernel with applied intensity, indexed by column and then row
         int[][] kernel = Kernels.getSharpenKernel(intensity);
+        int k00 = kernel[0][0], k10 = kernel[1][0], k20 = kernel[2][0];
+        int k01 = kernel[0][1], k11 = kernel[1][1], k21 = kernel[2][1];
+        int k02 = kernel[0][2], k12 = kernel[1][2], k22 = kernel[2][2];
+
+        // A band reads the row above and below it from the input
+        Bands.run(pool, height, width, (from, to) -> {
+            for (int i = Math.max(from, 1); i < Math.min(to, height - 1); ++i) {
+                for (int j = 1; j < width - 1; ++j) {
+
+                    int index = i * width + j;
+                    int p00 = source[index - width - 1], p10 = source[index - width], p20 = source[index - width + 1];
+                    int p01 = source[index - 1],         p11 = source[index],         p21 = source[index + 1];
+                    int p02 = source[index + width - 1], p12 = source[index + width], p22 = source[index + width + 1];
+
+                    // Convolve
+                    int sumR = k00 * Pixels.red(p00) + k10 * Pixels.red(p10) + k20 * Pixels.red(p20)
+                             + k01 * Pixels.red(p01) + k11 * Pixels.red(p11) + k21 * Pixels.red(p21)
+                             + k02 * Pixels.red(p02) + k12 * Pixels.red(p12) + k22 * Pixels.red(p22);
+                    int sumG = k00 * Pixels.green(p00) + k10 * Pixels.green(p10) + k20 * Pixels.green(p20)
+                             + k01 * Pixels.green(p01) + k11 * Pixels.green(p11) + k21 * Pixels.green(p21)
+                             + k02 * Pixels.green(p02) + k12 * Pixels.green(p12) + k22 * Pixels.green(p22);
+                    int sumB = k00 * Pixels.blue(p00) + k10 * Pixels.blue(p10) + k20 * Pixels.blue(p20)
+                             + k01 * Pixels.blue(p01) + k11 * Pixels.blue(p11) + k21 * Pixels.blue(p21)
+                             + k02 * Pixels.blue(p02) + k12 * Pixels.blue(p12) + k22 * Pixels.blue(p22);
+
+                    // Truncate the values if they went out of bounds and store them
+                    pixels[index] = Pixels.rgb(Helpers.truncateIfNeeded(sumR),
+                                               Helpers.truncateIfNeeded(sumG),
+                                               Helpers.truncateIfNeeded(sumB));
+                }
+            }
 
-        for (int i = 1; i < height - 1; ++i) {
-            for (int j = 1; j < width - 1; ++j) {
-
-                // Initialise to store the result of convolution
-                int[] convolutionResult = {0, 0, 0};
+        });
+        return result;
+    }
 
-                // Convolve
-                for (int x = -1; x <= 1; ++x) {
-                    for (int y = -1; y <= 1; ++y) {
-                        
-                        Color color = new Color(image.getRGB(j + x, i + y));
-                        convolutionResult[0] += kernel[x + 1][y + 1] * color.getRed();
-                        convolutionResult[1] += kernel[x + 1][y + 1] * color.getGreen();        
-                        convolutionResult[2] += kernel[x + 1][y + 1] * color.getBlue();
-                    }
-                }
+    /**
+     * Scales an image down to fit in a box, e.g. to preview the filters on a small copy
+     * of a large image. Every pixel of the result is the average of the pixels it covers,
+     * so that every pixel of the input counts.
+     * @param image     The input image
+     * @param maxWidth  The largest width of the result, at least 1
+     * @param maxHeight The largest height of the result, at least 1
+     * @return          The scaled image, with the aspect ratio of the input,
+     *                  or a copy if the image already fits in the box
+     */
+    public static BufferedImage scale(BufferedImage image, int maxWidth, int maxHeight) {
 
-                // Truncate the values if they went out of bounds and store them
-                int finalRed = Helpers.truncateIfNeeded(convolutionResult[0]);
-                int finalGreen = Helpers.truncateIfNeeded(convolutionResult[1]);
-                int finalBlue = Helpers.truncateIfNeeded(convolutionResult[2]);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double scale = Math.min(1.0, Math.min((double) maxWidth / width, (double) maxHeight / height));
+        if (scale == 1.0) {
+            return Pixels.copy(image);
+        }
 
-                // Produce the color
-                Color finalColor = new Color(finalRed, finalGreen, finalBlue);
+        int targetWidth = Math.max(1, (int) Math.round(width * scale));
+        int targetHeight = Math.max(1, (int) Math.round(height * scale));
+        int[] source = Pixels.data(Pixels.packed(image));
+        BufferedImage result = Pixels.create(targetWidth, targetHeight, image.getColorModel().hasAlpha());
+        int[] pixels = Pixels.data(result);
+
+        Bands.run(pool, targetHeight, (height / targetHeight + 1) * width, (from, to) -> {
+            for (int i = from; i < to; ++i) {
+
+                // The rows of the input covered by row i
+                int top = (int) ((long) i * height / targetHeight);
+                int bottom = (int) ((long) (i + 1) * height / targetHeight);
+
+                for (int j = 0; j < targetWidth; ++j) {
+
+                    int left = (int) ((long) j * width / targetWidth);
+                    int right = (int) ((long) (j + 1) * width / targetWidth);
+
+                    long totalAlpha = 0;
+                    long totalRed = 0;
+                    long totalGreen = 0;
+                    long totalBlue = 0;
+                    for (int y = top; y < bottom; ++y) {
+                        for (int x = y * width + left; x < y * width + right; ++x) {
+                            totalAlpha += source[x] >>> 24;
+                            totalRed += Pixels.red(source[x]);
+                            totalGreen += Pixels.green(source[x]);
+                            totalBlue += Pixels.blue(source[x]);
+                        }
+                    }
 
-                // Set the final color
-                result.setRGB(j, i, finalColor.getRGB());
+                    int count = (bottom - top) * (right - left);
+                    pixels[i * targetWidth + j] = (int) (totalAlpha / count) << 24
+                                                | Pixels.rgb((int) (totalRed / count), (int) (totalGreen / count),
+                                                             (int) (totalBlue / count)) & 0x00FFFFFF;
+                }
             }
-        }
+        });
 
         return result;
     }
@@ -1,6 +1,5 @@
 package secur3dit.filters;
 
-import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 import java.awt.image.WritableRaster;
@@ -41,110 +40,6 @@ final class Helpers {
         return result;
     }
 
-    /**
-     * Convert raster points to cartesian points
-     * @param rasterX   x co-ordinate in raster plane, which is to be converted
-     * @param rasterY   y co-ordinate in raster plane, which is to be converted
-     * @param centreX   x co-ordinate of the given raster plane's centre
-     * @param centreY   y co-ordinate of the given raster plane's centre
-     * @return          An array of size 2 where first value is the cartesian X co-ordinate and 
-     *                  second value is the cartesian Y co-ordinate
-     */
-    static int[] toCartesian(int rasterX, int rasterY, int centreX, int centreY) {
-
-        int points[] = new int[2];
-        points[0] = rasterX - centreX;
-        points[1] = centreY - rasterY;
-
-        return points;
-    }
-
-    /**
-     * Convert a cartesian co-ordinate into its polar form
-     * @param cartesianX 
-     * @param cartesianY
-     * @return An array of size 2 where first value is the distance of the point from origin
-     *         and second value is the polar angle 
-     */
-    static double[] toPolar(int cartesianX, int cartesianY) {
-
-        double data[] = new double[2];
-        data[0] = Math.sqrt((cartesianX * cartesianX) + (cartesianY * cartesianY));
-
-        if (cartesianX == 0) {
-            if (cartesianY < 0) {
-                data[1] = 1.5 * Math.PI;
-            }
-            else {
-                data[1] = 0.5 * Math.PI;
-            }
-        }
-        else {
-            data[1] = Math.atan2((double) cartesianY, (double) cartesianX);
-        }
-
-        return data;
-    }
-
-    /**
-     * Takes polarData and returns the cartesian X and cartesian Y value
-     * @param polarData An array double[2] where first value is the distance of the point
-     *                  from origin and the second value is the polar angle
-     * @return An array [cartesianX, cartesianY]
-     */
-    static double[] toCartesian(double[] polarData) {
-
-        double[] points = new double[2];
-        points[0] = polarData[0] * Math.cos(polarData[1]);
-        points[1] = polarData[0] * Math.sin(polarData[1]);
-
-        return points;
-    }
-
-    /**
-     * Cartesian to raster
-     * @param cartesianPoints An array [cartesianX, cartesianY]
-     * @param centreX         x co-ordinate of the given raster plane's centre
-     * @param centreY         y co-ordinate of the given raster plane's centre
-     * @return                An array [rasterX, rasterY]
-     */
-    static double[] toRaster(double[] cartesianPoints, int centreX, int centreY) {
-
-        double[] points = new double[2];
-        points[0] = cartesianPoints[0] + (double)centreX;
-        points[1] = (double)centreY - cartesianPoints[1];
-
-        return points;
-    }
-
-    /**
-     * Take the raster points of type double[] and returns the floored values
-     * @param rasterPoints An array of type double {rasterX, rasterY}
-     * @return             An array of type int {rasterX, rasterY}
-     */
-    static int[] floorPoints(double[] rasterPoints) {
-
-        int[] floored = new int[2];
-        floored[0] = (int)Math.floor(rasterPoints[0]);
-        floored[1] = (int)Math.floor(rasterPoints[1]);
-
-        return floored;
-    }
-
-    /**
-     * Take the raster points of type double[] and returns the ceiled values
-     * @param rasterPoints An array of type double {rasterX, rasterY}
-     * @return             An array of type int {rasterX, rasterY}
-     */
-    static int[] ceilPoints(double[] rasterPoints) {
-
-        int[] ceiled = new int[2];
-        ceiled[0] = (int)Math.ceil(rasterPoints[0]);
-        ceiled[1] = (int)Math.ceil(rasterPoints[1]);
-
-        return ceiled;
-    }
-
     /**
      * Check if a given index is out of bounds w.r.t. the given array's length
      * @param givenIndex  
@@ -184,40 +79,33 @@ final class Helpers {
      */
     static int truncateIfNeeded(int pixel) {
 
-        if (pixel < 0) {
-            return 0;
-        }
-
-        if (pixel > 255) {
-            return 255;
-        }
-
-        return pixel;
+        // Compiled without branches, which the filters would mispredict on noisy images
+        return Math.max(0, Math.min(255, pixel));
     }
 
     /**
      * Perform bilinear interpolation on given 4 points
-     * @param topLeft       A point of type double
-     * @param topRight      A point of type double
-     * @param bottomLeft    A point of type double
-     * @param bottomRight   A point of type double
+     * @param topLeft       A pixel, as packed by {@link Pixels}
+     * @param topRight      A pixel, as packed by {@link Pixels}
+     * @param bottomLeft    A pixel, as packed by {@link Pixels}
+     * @param bottomRight   A pixel, as packed by {@link Pixels}
      * @param deltaX        A value in the range [0, 1], for horizontal linear interpolation
      * @param deltaY        A value in the range [0, 1], for vertical linear interpolation
-     * @return              The interpolated value
+     * @return              The interpolated pixel
      */
-    static int bilinearInterpolation(Color topLeft, Color topRight, 
-                                Color bottomLeft, Color bottomRight, 
+    static int bilinearInterpolation(int topLeft, int topRight,
+                                int bottomLeft, int bottomRight,
                                 double deltaX, double deltaY) {
 
-        // Horizontal                            
-        double topR = linearInterpolation(topLeft.getRed(), deltaX, topRight.getRed());
-        double topG = linearInterpolation(topLeft.getGreen(), deltaX, topRight.getGreen());
-        double topB = linearInterpolation(topLeft.getBlue(), deltaX, topRight.getBlue());
+        // Horizontal
+        double topR = linearInterpolation(Pixels.red(topLeft), deltaX, Pixels.red(topRight));
+        double topG = linearInterpolation(Pixels.green(topLeft), deltaX, Pixels.green(topRight));
+        double topB = linearInterpolation(Pixels.blue(topLeft), deltaX, Pixels.blue(topRight));
 
         // Vertical
-        double bottomR = linearInterpolation(bottomLeft.getRed(), deltaX, bottomRight.getRed());
-        double bottomG = linearInterpolation(bottomLeft.getGreen(), deltaX, bottomRight.getGreen());
-        double bottomB = linearInterpolation(bottomLeft.getBlue(), deltaX, bottomRight.getBlue());
+        double bottomR = linearInterpolation(Pixels.red(bottomLeft), deltaX, Pixels.red(bottomRight));
+        double bottomG = linearInterpolation(Pixels.green(bottomLeft), deltaX, Pixels.green(bottomRight));
+        double bottomB = linearInterpolation(Pixels.blue(bottomLeft), deltaX, Pixels.blue(bottomRight));
 
         // Compute the R, G, B values
         int red = (int) Math.round(linearInterpolation(topR, deltaY, bottomR));
@@ -229,44 +117,27 @@ final class Helpers {
         green = truncateIfNeeded(green);
         blue = truncateIfNeeded(blue);
 
-        return new Color(red, green, blue).getRGB();
+        return Pixels.rgb(red, green, blue);
     }
 
     /**
-     * Changes the intensity of all pixel values of an image w.r.t the dial value
-     * @param image The input image, the operation is performed on the input itself
-     * @param dial  A value in the range [-1.0, 1.0]
-     * @throws ArrayIndexOutOfBoundsException
+     * Computes how {@code Filters.brighten} and {@code Filters.darken} change the
+     * intensity of a channel w.r.t the dial value, once for each of its 256 values.
+     * @param dial      A value in the range [-1.0, 1.0], towards white when positive
+     *                  and towards black when negative
+     * @return          The new value of each of the 256 values of a channel
      */
-    static void lightDial(BufferedImage image, double dial) throws ArrayIndexOutOfBoundsException {
+    static int[] lightTable(double dial) {
 
         double limit = (dial > 0.0) ? 255.0 : 0.0;
+        double delta = Math.abs(dial);
+        int[] table = new int[256];
 
-        for (int i = 0; i < image.getHeight(); ++i) {
-
-            for (int j = 0; j < image.getWidth(); ++j) {
-
-                Color color = new Color(image.getRGB(j, i));
-                int newR = 0;
-                int newG = 0;
-                int newB = 0;
-
-                if (dial > 0.0) {
-                    newR = (int) linearInterpolation(color.getRed(), dial, limit);
-                    newG = (int) linearInterpolation(color.getGreen(), dial, limit);
-                    newB = (int) linearInterpolation(color.getBlue(), dial, limit);
-                }            
-                else {
-                    dial = -1.0 * dial;
-                    newR = (int) linearInterpolation(limit, dial, color.getRed());
-                    newG = (int) linearInterpolation(limit, dial, color.getGreen());
-                    newB = (int) linearInterpolation(limit, dial, color.getBlue());
-                }    
-
-                Color newColor = new Color(newR, newG, newB);
-                image.setRGB(j, i, newColor.getRGB());
-            }
+        for (int value = 0; value < 256; ++value) {
+            table[value] = (int) linearInterpolation(value, delta, limit);
         }
+
+        return table;
     }
 
     /**
@@ -0,0 +1,115 @@
+package secur3dit.filters;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Gives the filters direct access to the pixels of an image, as the {@code int[]}
+ * behind a {@code TYPE_INT_RGB} or {@code TYPE_INT_ARGB} image, one pixel per int
+ * in rows of {@code width} pixels. Going through {@code getRGB} and {@code setRGB}
+ * converts every pixel through the colour model, which costs far more than the filters.
+ *
+ * Images of any other type, e.g. the {@code TYPE_3BYTE_BGR} of a JPEG, are converted
+ * once with a bulk {@code getRGB}, so the filters see the same colours as before.
+ * @author Vivek Nathani
+ */
+final class Pixels {
+
+    /**
+     * @param image The image.
+     * @return      {@code true} if the pixels of the image are one int array of
+     *              {@code width * height} pixels, without padding or offset.
+     */
+    static boolean isPacked(BufferedImage image) {
+
+        int type = image.getType();
+        if (type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_INT_ARGB) {
+            return false;
+        }
+
+        WritableRaster raster = image.getRaster();
+        SampleModel model = raster.getSampleModel();
+        return raster.getDataBuffer() instanceof DataBufferInt &&
+               raster.getDataBuffer().getNumBanks() == 1 &&
+               raster.getDataBuffer().getOffset() == 0 &&
+               raster.getSampleModelTranslateX() == 0 &&
+               raster.getSampleModelTranslateY() == 0 &&
+               model instanceof SinglePixelPackedSampleModel &&
+               ((SinglePixelPackedSampleModel) model).getScanlineStride() == image.getWidth();
+    }
+
+    /**
+     * Returns the image itself if it is packed, or else converts it once.
+     * @param image The input image, which is not modified.
+     * @return      A packed image with the same pixels.
+     */
+    static BufferedImage packed(BufferedImage image) {
+        return isPacked(image) ? image : copy(image);
+    }
+
+    /**
+     * Makes a packed copy of an image, which replaces {@code Helpers.deepCopy}
+     * for the filters that work on the pixels.
+     * @param image The input image, which is not modified.
+     * @return      A new packed image with the same pixels,
+     *              of {@code TYPE_INT_ARGB} if the input has an alpha channel.
+     */
+    static BufferedImage copy(BufferedImage image) {
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        if (isPacked(image)) {
+            BufferedImage result = new BufferedImage(width, height, image.getType());
+            System.arraycopy(data(image), 0, data(result), 0, width * height);
+            return result;
+        }
+
+        BufferedImage result = create(width, height, image.getColorModel().hasAlpha());
+        image.getRGB(0, 0, width, height, data(result), 0, width);
+        return result;
+    }
+
+    /**
+     * @param width     The width of the image.
+     * @param height    The height of the image.
+     * @param alpha     {@code true} for {@code TYPE_INT_ARGB}, else {@code TYPE_INT_RGB}.
+     * @return          A new packed image, black or transparent.
+     */
+    static BufferedImage create(int width, int height, boolean alpha) {
+        return new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * @param image A packed image.
+     * @return      Its pixels, row by row. Writing into the array modifies the image.
+     */
+    static int[] data(BufferedImage image) {
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    static int red(int pixel) {
+        return (pixel >> 16) & 0xFF;
+    }
+
+    static int green(int pixel) {
+        return (pixel >> 8) & 0xFF;
+    }
+
+    static int blue(int pixel) {
+        return pixel & 0xFF;
+    }
+
+    /**
+     * @param red   A value in the range [0, 255].
+     * @param green A value in the range [0, 255].
+     * @param blue  A value in the range [0, 255].
+     * @return      The opaque pixel, as {@code new Color(red, green, blue).getRGB()}.
+     */
+    static int rgb(int red, int green, int blue) {
+        return 0xFF000000 | (red << 16) | (green << 8) | blue;
+    }
+}
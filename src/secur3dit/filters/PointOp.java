@@ -0,0 +1,294 @@
+package secur3dit.filters;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A filter which computes every pixel from the same pixel of its input only, such as
+ * grayscale, so that several of them can be applied in a single pass over the image.
+ * The pass goes through the image in blocks of {@link #BLOCK_PIXELS} pixels and applies
+ * every operation to a block before the next one, while the block is still in the L1 cache.
+ * @author Vivek Nathani
+ */
+abstract class PointOp {
+
+    /**
+     * The number of pixels of a block, 16 KB.
+     */
+    static final int BLOCK_PIXELS = 1 << 12;
+
+    /**
+     * Applies the operation to the pixels {@code [from, to)}.
+     * @param in    The pixels to read.
+     * @param out   The pixels to write, which may be {@code in}.
+     * @param from  The index of the first pixel.
+     * @param to    The index after the last pixel.
+     */
+    abstract void apply(int[] in, int[] out, int from, int to);
+
+    /**
+     * @return  The new value of each of the 256 values of a channel, the same for red,
+     *          green and blue, or {@code null} if the operation is not a table of channel values.
+     */
+    int[] table() {
+        return null;
+    }
+
+    /**
+     * Replaces every channel of every pixel by its value in a table.
+     */
+    static class Channels extends PointOp {
+
+        private final int[] table;
+
+        Channels(int[] table) {
+            this.table = table;
+        }
+
+        @Override
+        void apply(int[] in, int[] out, int from, int to) {
+
+            for (int i = from; i < to; ++i) {
+
+                int pixel = in[i];
+                out[i] = Pixels.rgb(table[Pixels.red(pixel)], table[Pixels.green(pixel)], table[Pixels.blue(pixel)]);
+            }
+        }
+
+        @Override
+        int[] table() {
+            return table;
+        }
+    }
+
+    /**
+     * @param dial  A value in the range [-1.0, 1.0], see {@link Filters#brighten} and {@link Filters#darken}.
+     */
+    static PointOp light(double dial) {
+        return new Channels(Helpers.lightTable(dial));
+    }
+
+    static PointOp posterize() {
+
+        int[] reduced = new int[256];
+        for (int value = 0; value < 256; ++value) {
+            reduced[value] = Helpers.reducePixel(value);
+        }
+        return new Channels(reduced);
+    }
+
+    /**
+     * 255 - value for each of R, G and B, and an opaque alpha.
+     * A single XOR is faster than the table, which is only used to combine it with another.
+     */
+    static PointOp negative() {
+
+        int[] inverted = new int[256];
+        for (int value = 0; value < 256; ++value) {
+            inverted[value] = 255 - value;
+        }
+
+        return new Channels(inverted) {
+            @Override
+            void apply(int[] in, int[] out, int from, int to) {
+                for (int i = from; i < to; ++i) {
+                    out[i] = (in[i] ^ 0x00FFFFFF) | 0xFF000000;
+                }
+            }
+        };
+    }
+
+    /**
+     * Computes the gray value of every pixel, as the sum of the weighted values of its
+     * channels, and replaces the pixel by the value of a table for that gray value.
+     * The output of grayscale depends on one value only, so the operations after it
+     * are combined into the table, see {@link #fuse}.
+     */
+    static final class Gray extends PointOp {
+
+        private final int[] tr;
+        private final int[] tg;
+        private final int[] tb;
+        private final int[] result;
+
+        /**
+         * @param tr        The weighted value of each of the 256 values of red.
+         * @param tg        The weighted value of each of the 256 values of green.
+         * @param tb        The weighted value of each of the 256 values of blue.
+         * @param result    The pixel for each of the 256 gray values.
+         */
+        Gray(int[] tr, int[] tg, int[] tb, int[] result) {
+            this.tr = tr;
+            this.tg = tg;
+            this.tb = tb;
+            this.result = result;
+        }
+
+        @Override
+        void apply(int[] in, int[] out, int from, int to) {
+
+            for (int i = from; i < to; ++i) {
+
+                int pixel = in[i];
+                out[i] = result[tr[Pixels.red(pixel)] + tg[Pixels.green(pixel)] + tb[Pixels.blue(pixel)]];
+            }
+        }
+
+        /**
+         * @param table A table of channel values applied before this operation.
+         * @return      This operation, with the table applied first.
+         */
+        Gray after(int[] table) {
+
+            int[] r = new int[256];
+            int[] g = new int[256];
+            int[] b = new int[256];
+            for (int value = 0; value < 256; ++value) {
+                r[value] = tr[table[value]];
+                g[value] = tg[table[value]];
+                b[value] = tb[table[value]];
+            }
+            return new Gray(r, g, b, result);
+        }
+
+        /**
+         * @param next  An operation applied after this one.
+         * @return      This operation, followed by {@code next}.
+         */
+        Gray then(PointOp next) {
+
+            int[] combined = new int[256];
+            next.apply(result, combined, 0, 256);
+            return new Gray(tr, tg, tb, combined);
+        }
+    }
+
+    static PointOp grayscale() {
+
+        // The weighted value of every channel, for each of its 256 values
+        int[] tr = new int[256];
+        int[] tg = new int[256];
+        int[] tb = new int[256];
+        int[] gray = new int[256];
+        for (int value = 0; value < 256; ++value) {
+            tr[value] = (int) (value * 0.2126);
+            tg[value] = (int) (value * 0.7152);
+            tb[value] = (int) (value * 0.0722);
+            gray[value] = Pixels.rgb(value, value, value);
+        }
+
+        return new Gray(tr, tg, tb, gray);
+    }
+
+    static PointOp sepia() {
+
+        return new PointOp() {
+            @Override
+            void apply(int[] in, int[] out, int from, int to) {
+
+                for (int i = from; i < to; ++i) {
+
+                    int red = Pixels.red(in[i]);
+                    int green = Pixels.green(in[i]);
+                    int blue = Pixels.blue(in[i]);
+
+                    int tr = (int) (red * 0.393 + green * 0.769 + blue * 0.189);
+                    int tg = (int) (red * 0.349 + green * 0.686 + blue * 0.168);
+                    int tb = (int) (red * 0.272 + green * 0.534 + blue * 0.131);
+
+                    out[i] = Pixels.rgb(Math.min(tr, 255), Math.min(tg, 255), Math.min(tb, 255));
+                }
+            }
+        };
+    }
+
+    /**
+     * Combines operations which follow each other into one, where the result is the same:
+     * <ul>
+     *  <li>two tables of channel values, e.g. brighten then posterize, since looking a value
+     *      up in the second table after the first is looking it up in their composition;</li>
+     *  <li>a table of channel values then grayscale, into the weights of grayscale;</li>
+     *  <li>grayscale then any operation, e.g. sepia, into the table of the 256 gray values.</li>
+     * </ul>
+     * @param ops   The operations, in the order in which they are applied.
+     * @return      Operations with the same result, at most as many.
+     */
+    static List<PointOp> fuse(List<PointOp> ops) {
+
+        List<PointOp> fused = new ArrayList<>();
+        for (PointOp op : ops) {
+
+            int last = fused.size() - 1;
+            PointOp previous = last >= 0 ? fused.get(last) : null;
+
+            if (previous instanceof Gray) {
+                fused.set(last, ((Gray) previous).then(op));
+            }
+            else if (previous != null && previous.table() != null && op instanceof Gray) {
+                fused.set(last, ((Gray) op).after(previous.table()));
+            }
+            else if (previous != null && previous.table() != null && op.table() != null) {
+
+                int[] first = previous.table();
+                int[] second = op.table();
+                int[] composed = new int[256];
+                for (int value = 0; value < 256; ++value) {
+                    composed[value] = second[first[value]];
+                }
+                fused.set(last, new Channels(composed));
+            }
+            else {
+                fused.add(op);
+            }
+        }
+        return fused;
+    }
+
+    /**
+     * Applies operations to an image in a single pass.
+     * @param image     The input image.
+     * @param inPlace   {@code true} if the image may be modified and returned, i.e. nothing
+     *                  else refers to it, which saves allocating the result.
+     * @param pool      The pool on which to run the bands, {@code null} for serial mode.
+     * @param ops       The operations, in the order in which they are applied.
+     * @return          The resulting packed image.
+     */
+    static BufferedImage apply(BufferedImage image, boolean inPlace, ForkJoinPool pool, List<PointOp> ops) {
+
+        BufferedImage result;
+        int[] in;
+        if (!Pixels.isPacked(image)) {
+            // Converting the image is already a copy
+            result = Pixels.copy(image);
+            in = Pixels.data(result);
+        }
+        else {
+            // The first operation reads the input and writes the result, instead of a copy
+            in = Pixels.data(image);
+            result = inPlace ? image : new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+        }
+        int[] out = Pixels.data(result);
+
+        if (ops.isEmpty()) {
+            if (in != out) {
+                System.arraycopy(in, 0, out, 0, in.length);
+            }
+            return result;
+        }
+
+        PointOp[] fused = fuse(ops).toArray(new PointOp[0]);
+        Bands.run(pool, out.length, 1, (from, to) -> {
+            for (int start = from; start < to; start += BLOCK_PIXELS) {
+
+                int end = Math.min(start + BLOCK_PIXELS, to);
+                fused[0].apply(in, out, start, end);
+                for (int k = 1; k < fused.length; ++k) {
+                    fused[k].apply(out, out, start, end);
+                }
+            }
+        });
+        return result;
+    }
+}
@@ -0,0 +1,135 @@
+package secur3dit.ui;
+
+import java.io.File;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import javafx.concurrent.Task;
+import secur3dit.crypto.AES256CTR;
+import secur3dit.crypto.DirectoryBatch;
+import secur3dit.crypto.Progress;
+
+/**
+ * Background task which encrypts or decrypts a file or a folder, so that the
+ * JavaFX application thread is never blocked by the cipher.
+ * The progress of the task is the number of bytes processed, and its message
+ * holds the speed and the time left.
+ *
+ * Stopping goes through {@link #stop()} instead of {@code cancel()}: the temporary file
+ * of a file being encrypted has to be deleted before the task ends, which {@code cancel()}
+ * does not wait for.
+ * A stopped file fails with a CancellationException, a stopped folder succeeds
+ * with a report marked as cancelled.
+ *
+ * @author Naman Nihal
+ */
+class CryptoTask extends Task<DirectoryBatch.Report> {
+
+    /**
+     * The message is refreshed at most every 250 ms, so that it stays readable.
+     * The progress itself is coalesced by Task, at most once per frame.
+     */
+    private static final long MESSAGE_INTERVAL = 250_000_000L;
+
+    private final AES256CTR ob;
+    private final File target;
+    private final boolean encrypt;
+
+    private final AtomicLong processed = new AtomicLong();
+    private volatile boolean stopped;
+    private volatile DirectoryBatch batch;
+    private long start;
+    private volatile long lastMessage;
+
+    /**
+     * Receives the bytes processed from the cipher threads.
+     */
+    private final Progress progress = new Progress() {
+
+        @Override
+        public void advance(long bytes) {
+            report(processed.addAndGet(bytes));
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return stopped;
+        }
+    };
+
+    /**
+     * @param ob        Instance of AES256CTR which stores the password.
+     * @param target    The file or folder to process.
+     * @param encrypt   {@code true} to encrypt, {@code false} to decrypt.
+     */
+    CryptoTask(AES256CTR ob, File target, boolean encrypt) {
+        this.ob = ob;
+        this.target = target;
+        this.encrypt = encrypt;
+    }
+
+    /**
+     * Asks the task to stop at the next chunk, or the next file for a folder.
+     * This can be called from the JavaFX application thread.
+     */
+    void stop() {
+        stopped = true;
+        updateMessage("Cancelling...");
+    }
+
+    /**
+     * @return  {@code true} for encryption, {@code false} for decryption.
+     */
+    boolean isEncrypt() {
+        return encrypt;
+    }
+
+    /**
+     * @return  {@code true} if the task processes a folder.
+     */
+    boolean isDirectory() {
+        return target.isDirectory();
+    }
+
+    @Override
+    protected DirectoryBatch.Report call() throws Exception {
+
+        start = System.nanoTime();
+        updateProgress(0, 1);
+        updateMessage("Preparing the key...");
+
+        if (target.isDirectory()) {
+            batch = new DirectoryBatch(ob, Runtime.getRuntime().availableProcessors(), progress);
+            return encrypt ? batch.encrypt(target.getPath()) : batch.decryption(target.getPath());
+        }
+
+        if (encrypt) {
+            AES256CTR.encrypt(ob, target.getPath(), ForkJoinPool.commonPool(), progress);
+        }
+        else {
+            AES256CTR.decryption(ob, target.getPath(), ForkJoinPool.commonPool(), progress);
+        }
+        return null;
+    }
+
+    /**
+     * Updates the progress, and every {@code MESSAGE_INTERVAL} the speed and time left.
+     * The total of a folder grows while it is walked, so its time left is a lower bound.
+     * @param done  The number of bytes processed so far.
+     */
+    private void report(long done) {
+
+        DirectoryBatch walking = batch;
+        long total = Math.max(done, walking == null ? target.length() : walking.getTotalBytes());
+        updateProgress(done, total);
+
+        long now = System.nanoTime();
+        if (stopped || now - lastMessage < MESSAGE_INTERVAL) {
+            return;
+        }
+        lastMessage = now;
+
+        double rate = done / ((now - start) / 1e9);
+        long left = rate > 0 ? (long) ((total - done) / rate) : 0;
+        updateMessage(String.format("%.1f MB/s, %d:%02d left", rate / (1 << 20), left / 60, left % 60));
+    }
+}
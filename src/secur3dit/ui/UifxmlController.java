@@ -5,7 +5,14 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.DoubleFunction;
+import java.util.function.Supplier;
+import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
+import javafx.embed.swing.SwingFXUtils;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -23,7 +30,8 @@ import javafx.scene.layout.VBox;
 import javafx.stage.FileChooser;
 import javax.imageio.ImageIO;
 import secur3dit.Main;
-import secur3dit.filters.Filters;
+import secur3dit.filters.EditGraph;
+import secur3dit.filters.FilterPipeline;
 
 /**
  * FXML Controller class
@@ -56,7 +64,25 @@ public class UifxmlController implements Initializable {
     @FXML
     private Button chooseImage;
     private BufferedImage input;
-    private BufferedImage output;
+    /**
+     * The filters applied to the input, which keeps the intermediate images for undo and redo,
+     * and previews them on a copy of the input of the size of the view.
+     */
+    private EditGraph edits;
+    /**
+     * Applies the edits to the full image one after another, off the FX thread,
+     * so that the sliders keep following the mouse meanwhile.
+     */
+    private final ExecutorService renderer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "renderer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * The kinds of edit set with a slider. Applying one again changes its value
+     * instead of adding another edit, and only the edits after it are applied again.
+     */
+    private static final Set<String> SLIDERS = Set.of("brighten", "sharpen", "blur", "rotate", "pixelate");
     private Image img = null;
     @FXML
     private Button imagePreview;
@@ -74,43 +100,226 @@ public class UifxmlController implements Initializable {
     private Button insertImageButton;
     @FXML
     private Button insertNewImageButton;
+    @FXML
+    private Button undoButton;
+    @FXML
+    private Button redoButton;
 
     @FXML
     public void insertImage(ActionEvent e) throws IOException {
         FileChooser f = new FileChooser();
-        file = f.showOpenDialog(null);
-
-        if (file != null) {
-            Image img = new Image(file.toURI().toString(), 553, 443, true, true);
-            imageviewer.setImage(img);
-            imageviewer.setPreserveRatio(false);
-            insertImageButton.setVisible(false);
-            insertNewImageButton.setVisible(true);
-        } else if (file == null) {
+        File chosen = f.showOpenDialog(null);
+        if (chosen == null) {
             return;
         }
-        input = ImageIO.read(file);
-        this.output = input;
+        BufferedImage image = ImageIO.read(chosen);
+        if (image == null) {
+            // Not an image, keep the current one and its edits
+            displayError();
+            return;
+        }
+
+        file = chosen;
+        input = image;
+        Image img = new Image(file.toURI().toString(), 553, 443, true, true);
+        imageviewer.setImage(img);
+        imageviewer.setPreserveRatio(false);
+        insertImageButton.setVisible(false);
+        insertNewImageButton.setVisible(true);
+        this.edits = new EditGraph(input, Runtime.getRuntime().maxMemory() / 4, 553, 443);
+        updateHistoryButtons();
         chooseImage.setVisible(false);
     }
 
-    void updateImage() {
+    void updateImage(BufferedImage image) {
 
         imagePreview.setVisible(false);
-        File updatedFile = new File("temp/output.png");
-        Image updatedImage = new Image(updatedFile.toURI().toString(), 553, 443, true, true);
-        updatedImageView.setImage(updatedImage);
+        updatedImageView.setImage(SwingFXUtils.toFXImage(image, null));
         updatedImageView.setPreserveRatio(false);
     }
 
+    /**
+     * @return  The index of the edit of that kind to change, or the number of edits
+     *          to add one, as only the edits of a slider are changed.
+     */
+    static int editIndex(EditGraph graph, String kind) {
+
+        int index = SLIDERS.contains(kind) ? graph.indexOf(kind) : -1;
+        return index < 0 ? graph.size() : index;
+    }
+
+    /**
+     * Shows the output with a filter applied, on the preview of the input,
+     * which is fast enough to follow a slider.
+     * @param kind      The kind of edit, e.g. {@code "rotate"}.
+     * @param filter    The filter for the scale of the preview.
+     */
+    void preview(String kind, DoubleFunction<FilterPipeline> filter) {
+
+        if (edits == null) {
+            return;
+        }
+        try {
+            updateImage(edits.preview(editIndex(edits, kind), filter));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException exc) {
+            // The value is out of range for the preview, keep the last one
+        }
+    }
+
+    /**
+     * Applies a filter to the output, as a new edit, or as a new value of the edit
+     * of the same slider. The preview is shown at once, and the edits are applied
+     * to the full image in the background, from the closest cached image.
+     * @param kind      The kind of edit, e.g. {@code "rotate"}.
+     * @param filter    The filter for a scale of the input, see {@link EditGraph#preview}.
+     * @param done      Run on the FX thread once the full image is done.
+     */
+    void apply(String kind, DoubleFunction<FilterPipeline> filter, Runnable done) {
+
+        EditGraph graph = edits;
+        if (graph == null) {
+            return;
+        }
+        preview(kind, filter);
+        render(graph, () -> {
+            int index = editIndex(graph, kind);
+            return index < graph.size() ? graph.replace(index, filter) : graph.add(kind, filter);
+        }, done);
+    }
+
+    void apply(String kind, DoubleFunction<FilterPipeline> filter) {
+        apply(kind, filter, this::displayMessage);
+    }
+
+    void apply(String kind, FilterPipeline filter) {
+        apply(kind, scale -> filter);
+    }
+
+    /**
+     * Changes the edits on the renderer, and shows the result once it is done.
+     * Any failure of the change, including running out of memory on a large image,
+     * shows an error with the preview of the edits as they are.
+     * @param graph The edits, which are ignored if another image is inserted meanwhile.
+     * @param edit  The change, which returns the full image.
+     * @param done  Run on the FX thread once the change is shown.
+     */
+    void render(EditGraph graph, Supplier<BufferedImage> edit, Runnable done) {
+
+        renderer.execute(() -> {
+            try {
+                edit.get();
+                Platform.runLater(() -> {
+                    if (graph == edits) {
+                        updateImage(graph.getPreview());
+                        updateHistoryButtons();
+                        done.run();
+                    }
+                });
+            } catch (RuntimeException | OutOfMemoryError exc) {
+                Platform.runLater(() -> {
+                    if (graph == edits) {
+                        updateImage(graph.getPreview());
+                        updateHistoryButtons();
+                        displayError();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return  The filter of a slider with its current value. The blur and
+     *          the pixels are scaled with the image, the other values are not.
+     */
+    DoubleFunction<FilterPipeline> sliderFilter(String kind) {
+
+        switch (kind) {
+            case "brighten":
+                double dial = brightnessSlider.getValue();
+                return scale -> dial >= 0 ? new FilterPipeline().brighten(dial) : new FilterPipeline().darken(dial);
+            case "blur":
+                int intensity = (int) blurSlider.getValue();
+                return scale -> new FilterPipeline().gaussianBlur((int) Math.round(intensity * scale));
+            case "rotate":
+                double angle = rotateSlider.getValue();
+                return scale -> new FilterPipeline().rotate(angle);
+            case "sharpen":
+                int sharpness = (int) sharpenSlider.getValue();
+                return scale -> new FilterPipeline().sharpen(sharpness);
+            case "pixelate":
+                int pixelWidth = (int) pixelateSlider.getValue();
+                return scale -> new FilterPipeline().pixelate(
+                        pixelWidth < 1 ? pixelWidth : Math.max(1, (int) Math.round(pixelWidth * scale)));
+            default:
+                throw new IllegalArgumentException("No slider for " + kind);
+        }
+    }
+
+    Slider slider(String kind) {
+
+        switch (kind) {
+            case "brighten":
+                return brightnessSlider;
+            case "blur":
+                return blurSlider;
+            case "rotate":
+                return rotateSlider;
+            case "sharpen":
+                return sharpenSlider;
+            case "pixelate":
+                return pixelateSlider;
+            default:
+                throw new IllegalArgumentException("No slider for " + kind);
+        }
+    }
+
+    void updateHistoryButtons() {
+        undoButton.setDisable(edits == null || !edits.canUndo());
+        redoButton.setDisable(edits == null || !edits.canRedo());
+    }
+
     @FXML
-    public void saveImage(ActionEvent e) throws IOException {
+    void undo(ActionEvent e) {
+        if (!checkImageInput() || edits == null || !edits.canUndo()) {
+            return;
+        }
+        EditGraph graph = edits;
+        render(graph, graph::undo, () -> { });
+    }
+
+    @FXML
+    void redo(ActionEvent e) {
+        if (!checkImageInput() || edits == null || !edits.canRedo()) {
+            return;
+        }
+        EditGraph graph = edits;
+        render(graph, graph::redo, () -> { });
+    }
+
+    /**
+     * Saves the full image once the edits before are applied.
+     */
+    @FXML
+    public void saveImage(ActionEvent e) {
         FileChooser f = new FileChooser();
         File file = f.showSaveDialog(null);
-        if (file != null) {
-            ImageIO.write(output, "png", file);
+        EditGraph graph = edits;
+        if (file == null || graph == null) {
+            return;
         }
-
+        renderer.execute(() -> {
+            try {
+                ImageIO.write(graph.getOutput(), "png", file);
+                Platform.runLater(() -> {
+                    Alert a = new Alert(AlertType.INFORMATION);
+                    a.setTitle("SECUR3DIT");
+                    a.setHeaderText("Image saved.");
+                    a.show();
+                });
+            } catch (IOException | RuntimeException | OutOfMemoryError exc) {
+                Platform.runLater(this::displayError);
+            }
+        });
     }
 
     boolean checkImageInput() {
@@ -149,7 +358,7 @@ public class UifxmlController implements Initializable {
     }
 
     @FXML
-    void applyWaterMark(ActionEvent e) throws IOException {
+    void applyWaterMark(ActionEvent e) {
         if (!checkImageInput()) {
             return;
         }
@@ -161,199 +370,109 @@ public class UifxmlController implements Initializable {
             a.show();
             return;
         }
-        try {
-            this.output = Filters.addWatermark(this.output, watermarkText);
-        } catch (NullPointerException exc) {
-            displayError();
-        }
-        Alert a = new Alert(AlertType.INFORMATION);
-        ImageIO.write(output, "png", new File("temp/output.png"));
-        a.setTitle("SECUR3DIT");
-        a.setHeaderText("Watermark added successfully");
-        a.show();
-        updateImage();
-
+        FilterPipeline filter = new FilterPipeline().addWatermark(watermarkText);
+        apply("watermark", scale -> filter, () -> {
+            Alert a = new Alert(AlertType.INFORMATION);
+            a.setTitle("SECUR3DIT");
+            a.setHeaderText("Watermark added successfully");
+            a.show();
+        });
     }
 
     @FXML
-    void applyGrayscale(ActionEvent e) throws IOException {
+    void applyGrayscale(ActionEvent e) {
         if (!checkImageInput()) {
             return;
         }
-        this.output = Filters.grayscale(this.output);
-        try {
-            ImageIO.write(output, "png", new File("temp/output.png"));
-        } catch (ArrayIndexOutOfBoundsException exc) {
-            displayError();
-        }
-        updateImage();
-        displayMessage();
+        apply("grayscale", new FilterPipeline().grayscale());
     }
 
     @FXML
-    void applySepia(ActionEvent e) throws IOException {
+    void applySepia(ActionEvent e) {
         if (!checkImageInput()) {
             return;
         }
-
-        this.output = Filters.sepia(this.output);
-        try {
-            ImageIO.write(output, "png", new File("temp/output.png"));
-        } catch (ArrayIndexOutOfBoundsException exc) {
-            displayError();
-        }
-        updateImage();
-        displayMessage();
+        apply("sepia", new FilterPipeline().sepia());
     }
 
     @FXML
-    void applyNegative(ActionEvent e) throws IOException {
+    void applyNegative(ActionEvent e) {
         if (!checkImageInput()) {
             return;
         }
-        try {
-            this.output = Filters.negative(this.output);
-        } catch (ArrayIndexOutOfBoundsException exc) {
-            displayError();
-        }
-        ImageIO.write(output, "png", new File("temp/output.png"));
-        updateImage();
-        displayMessage();
+        apply("negative", new FilterPipeline().negative());
     }
 
     @FXML
-    void applyDetectEdges(ActionEvent e) throws IOException {
+    void applyDetectEdges(ActionEvent e) {
         if (!checkImageInput()) {
             return;
         }
-        try {
-            this.output = Filters.detectEdges(this.output);
-        } catch (ArrayIndexOutOfBoundsException exc) {
-            displayError();
-        }
-        ImageIO.write(output, "png", new File("temp/output.png"));
-        displayMessage();
-        updateImage();
+        apply("edges", new FilterPipeline().detectEdges());
     }
 
     @FXML
-    void verticalMirrorImage(ActionEvent e) throws IOException {
+    void verticalMirrorImage(ActionEvent e) {
         if (!checkImageInput()) {
             return;
         }
-        try {
-            this.output = Filters.mirror(this.output, true);
-        } catch (ArrayIndexOutOfBoundsException exc) {
-            displayError();
-        }
-        ImageIO.write(output, "png", new File("temp/output.png"));
-        updateImage();
-        Alert a = new Alert(AlertType.INFORMATION);
-        a.setTitle("Secur3dit");
-        a.setHeaderText("Filter applied.");
-        a.show();
+        apply("mirror", new FilterPipeline().mirror(true));
     }
 
     @FXML
-    void horizontalMirrorImage(ActionEvent e) throws IOException {
+    void horizontalMirrorImage(ActionEvent e) {
         if (!checkImageInput()) {
             return;
         }
-
-        try {
-            this.output = Filters.mirror(this.output, false);
-        } catch (ArrayIndexOutOfBoundsException exc) {
-            displayError();
-        }
-        ImageIO.write(output, "png", new File("temp/output.png"));
-        updateImage();
-        displayMessage();
+        apply("mirror", new FilterPipeline().mirror(false));
     }
 
     @FXML
-    void posterizeImage(ActionEvent e) throws IOException {
+    void posterizeImage(ActionEvent e) {
         if (!checkImageInput()) {
             return;
         }
-        try {
-            this.output = Filters.posterize(this.output);
-        } catch (ArrayIndexOutOfBoundsException exc) {
-            displayError();
-        }
-        ImageIO.write(output, "png", new File("temp/output.png"));
-        updateImage();
-        displayMessage();
+        apply("posterize", new FilterPipeline().posterize());
     }
 
     @FXML
-    void brighten(ActionEvent e) throws IOException {
+    void brighten(ActionEvent e) {
         if (!checkImageInput()) {
             return;
         }
-        double value = brightnessSlider.getValue();
-
-        if (value >= 0 && value <= 1) {
-            this.output = Filters.brighten(this.output, value);
-
-        } else if (value >= -1 && value <= 0) {
-            this.output = Filters.darken(this.output, value);
-
-        }
-        ImageIO.write(output, "png", new File("temp/output.png"));
-        updateImage();
-        displayMessage();
+        apply("brighten", sliderFilter("brighten"));
     }
 
     @FXML
-    void applyGaussianBlur(ActionEvent e) throws IOException {
+    void applyGaussianBlur(ActionEvent e) {
         if (!checkImageInput()) {
             return;
         }
-
-        this.output = Filters.gaussianBlur(this.output, (int) blurSlider.getValue());
-        ImageIO.write(output, "png", new File("temp/output.png"));
-        updateImage();
-        displayMessage();
-
+        apply("blur", sliderFilter("blur"));
     }
 
     @FXML
-    void rotateImage(ActionEvent e) throws IOException {
+    void rotateImage(ActionEvent e) {
         if (!checkImageInput()) {
             return;
         }
-
-        this.output = Filters.rotate(this.output, rotateSlider.getValue());
-        ImageIO.write(output, "png", new File("temp/output.png"));
-        updateImage();
-        displayMessage();
+        apply("rotate", sliderFilter("rotate"));
     }
 
     @FXML
-    void sharpenImage() throws IOException {
+    void sharpenImage() {
         if (!checkImageInput()) {
             return;
         }
-        this.output = Filters.sharpen(this.output, (int) sharpenSlider.getValue());
-        ImageIO.write(output, "png", new File("temp/output.png"));
-        updateImage();
-        displayMessage();
+        apply("sharpen", sliderFilter("sharpen"));
     }
 
     @FXML
-    void pixelateImage() throws IOException {
+    void pixelateImage() {
         if (!checkImageInput()) {
             return;
         }
-        try {
-            this.output = Filters.pixelate(this.output, (int) pixelateSlider.getValue());
-        } catch (ArrayIndexOutOfBoundsException exc) {
-            displayError();
-        }
-        ImageIO.write(output, "png", new File("temp/output.png"));
-        updateImage();
-        displayMessage();
-
+        apply("pixelate", sliderFilter("pixelate"));
     }
 
     @FXML
@@ -407,6 +526,14 @@ public class UifxmlController implements Initializable {
         sharpenVal.setVisible(false);
         rotateVal.setVisible(false);
         insertNewImageButton.setVisible(false);
+        updateHistoryButtons();
+
+        // Preview the filter of a slider while it is dragged, it is applied to
+        // the full image with its button
+        for (String kind : SLIDERS) {
+            slider(kind).valueProperty().addListener(
+                    (observable, previous, value) -> preview(kind, sliderFilter(kind)));
+        }
 
     }
 
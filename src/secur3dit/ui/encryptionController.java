@@ -5,12 +5,10 @@ import de.jensd.fx.glyphs.fontawesome.FontAwesomeIcon;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
-import java.nio.BufferOverflowException;
-import java.nio.ReadOnlyBufferException;
-import java.nio.file.InvalidPathException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Optional;
 import java.util.ResourceBundle;
+import java.util.concurrent.CancellationException;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
@@ -19,12 +17,22 @@ import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.Button;
 import javafx.scene.control.ButtonType;
+import javafx.scene.control.Label;
 import javafx.scene.control.PasswordField;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
 import javafx.scene.input.MouseEvent;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import secur3dit.Main;
 import secur3dit.crypto.AES256CTR;
+import secur3dit.crypto.AuthenticationException;
+import secur3dit.crypto.Backend;
+import secur3dit.crypto.CipherCore;
+import secur3dit.crypto.CounterLayout;
+import secur3dit.crypto.CryptoMetrics;
+import secur3dit.crypto.DirectoryBatch;
 
 
 /**
@@ -35,6 +43,8 @@ import secur3dit.crypto.AES256CTR;
 public class encryptionController implements Initializable {
 
     private File file;
+    private File directory;
+    private CryptoTask task;
     @FXML
     private FontAwesomeIcon toggleOff, toggleOn;
     @FXML
@@ -65,10 +75,34 @@ public class encryptionController implements Initializable {
     @FXML
     private Button importButton3;
     @FXML
+    private Button importFolderButton;
+    @FXML
+    private Button cancelButton;
+    @FXML
+    private ProgressBar progressBar;
+    @FXML
+    private Label progressLabel;
+    @FXML
     void importFile(ActionEvent e){
         FileChooser filechooser = new FileChooser();
         file = filechooser.showOpenDialog(null);
         if(file!=null){
+            directory = null;
+            importMessage.setText("FILE IMPORTED");
+            importMessage.setVisible(true);
+            importButton.setVisible(false);
+            importButton3.setVisible(true);
+            importButton2.setVisible(false);
+        }
+    }
+    
+    @FXML
+    void importFolder(ActionEvent e){
+        DirectoryChooser directorychooser = new DirectoryChooser();
+        directory = directorychooser.showDialog(null);
+        if(directory!=null){
+            file = null;
+            importMessage.setText("FOLDER IMPORTED");
             importMessage.setVisible(true);
             importButton.setVisible(false);
             importButton3.setVisible(true);
@@ -77,7 +111,7 @@ public class encryptionController implements Initializable {
     }
     
     boolean checkFile(){
-          if(file!=null){
+          if(file!=null || directory!=null){
               return true;
           }  
           Alert a = new Alert(AlertType.ERROR);
@@ -118,18 +152,14 @@ public class encryptionController implements Initializable {
             a1.getButtonTypes().addAll(ButtonType.YES, ButtonType.NO);
             a1.setTitle("SECUR3DIT");
             a1.setHeaderText("Remember to store your password.");
-            a1.setContentText("Decrypting files with wrong password can \npermanently encrypt the file. "
+            a1.setContentText("Files cannot be decrypted without the password. "
                     + "\nContinue with Encryption? ");
             
             Optional<ButtonType> choice = a1.showAndWait();
             if (choice.get() == ButtonType.YES) {
                 String temp = encryptKey1.getText();
                 AES256CTR enc = new AES256CTR(temp);
-                AES256CTR.encrypt(enc, file.getPath());
-                Alert a = new Alert(AlertType.INFORMATION);
-                a.setTitle("SECUR3DIT");
-                a.setHeaderText("File Encrypted");
-                a.showAndWait();
+                runTask(new CryptoTask(enc, directory!=null ? directory : file, true));
             } else if (choice.get() == ButtonType.NO) {
                 Alert a2 = new Alert(AlertType.INFORMATION);
                 a2.setTitle("SECUR3DIT");
@@ -139,24 +169,6 @@ public class encryptionController implements Initializable {
         } catch (NoSuchAlgorithmException noSuchAlgorithmException) {
             displayError();
             return;
-        } catch (IOException iOException) {
-            displayError();
-            return;
-        } catch (OutOfMemoryError outOfMemoryError) {
-            displayError();
-            return;
-        } catch (SecurityException securityException) {
-            displayError();
-            return;
-        } catch (InvalidPathException invalidPathException) {
-            displayError();
-            return;
-        } catch (ReadOnlyBufferException readOnlyBufferException) {
-            displayError();
-            return;
-        } catch (BufferOverflowException bufferOverflowException) {
-            displayError();
-            return;
         }
     }
     @FXML
@@ -169,22 +181,23 @@ public class encryptionController implements Initializable {
             return;
         }
         try {
+            ButtonType legacy = new ButtonType("INCLUDE OLDER FILES");
             Alert a1 = new Alert(AlertType.INFORMATION);
             a1.getButtonTypes().removeAll(ButtonType.OK);
-            a1.getButtonTypes().addAll(ButtonType.YES, ButtonType.NO);
+            a1.getButtonTypes().addAll(ButtonType.YES, legacy, ButtonType.NO);
             
             a1.setTitle("SECUR3DIT");
             a1.setHeaderText("Ensure password is correct");
-            a1.setContentText("Decrypting files with wrong password can \npermanently encrypt the file. "
-                    + "\nContinue with Decryption? ");
+            a1.setContentText("Files encrypted by older versions are not checked: \ndecrypting them with "
+                    + "wrong password can \npermanently encrypt the file, \nso they are only decrypted "
+                    + "if you include them. \nContinue with Decryption? ");
             Optional<ButtonType> choice = a1.showAndWait();
-            if (choice.get() == ButtonType.YES) {
-                AES256CTR dec = new AES256CTR(decryptKey.getText());
-                AES256CTR.decryption(dec, file.getPath());
-                Alert a = new Alert(AlertType.INFORMATION);
-                a.setTitle("SECUR3DIT");
-                a.setHeaderText("File Decrypted");
-                a.showAndWait();
+            if (choice.get() == ButtonType.YES || choice.get() == legacy) {
+                AES256CTR dec = choice.get() == legacy
+                        ? new AES256CTR(decryptKey.getText(), Backend.configured(), CipherCore.T_TABLE,
+                                        CounterLayout.ADD_128, false)
+                        : new AES256CTR(decryptKey.getText());
+                runTask(new CryptoTask(dec, directory!=null ? directory : file, false));
             } else if (choice.get() == ButtonType.NO) {
                 Alert a2 = new Alert(AlertType.INFORMATION);
                 a2.setTitle("SECUR3DIT");
@@ -194,25 +207,79 @@ public class encryptionController implements Initializable {
         } catch (NoSuchAlgorithmException noSuchAlgorithmException) {
             displayError();
             return;
-        } catch (IOException iOException) {
-            displayError();
-            return;
-        } catch (OutOfMemoryError outOfMemoryError) {
-            displayError();
-            return;
-        } catch (SecurityException securityException) {
-            displayError();
-            return;
-        } catch (InvalidPathException invalidPathException) {
-            displayError();
-            return;
-        } catch (ReadOnlyBufferException readOnlyBufferException) {
-            displayError();
+        }   
+    }
+    /**
+     * Runs the encryption or decryption on a background thread, so that the window
+     * stays responsive. The progress bar and label follow the task, and the result
+     * is shown once the task is over.
+     */
+    void runTask(CryptoTask next){
+        if(task!=null){
+            Alert a = new Alert(AlertType.ERROR);
+            a.setTitle("SECUR3DIT");
+            a.setHeaderText("A file is already being processed");
+            a.show();
             return;
-        } catch (BufferOverflowException bufferOverflowException) {
+        }
+        task = next;
+        progressBar.progressProperty().bind(task.progressProperty());
+        progressLabel.textProperty().bind(task.messageProperty());
+        progressBar.setVisible(true);
+        progressLabel.setVisible(true);
+        cancelButton.setVisible(true);
+        task.setOnSucceeded(event -> showResult(task.getValue(), null));
+        task.setOnFailed(event -> showResult(null, task.getException()));
+        Thread worker = new Thread(task, "secur3dit-crypto");
+        worker.setDaemon(true);
+        worker.start();
+    }
+    void showResult(DirectoryBatch.Report report, Throwable error){
+        boolean encrypt = task.isEncrypt();
+        boolean folder = task.isDirectory();
+        progressBar.progressProperty().unbind();
+        progressLabel.textProperty().unbind();
+        progressBar.setVisible(false);
+        progressLabel.setVisible(false);
+        cancelButton.setVisible(false);
+        task = null;
+        
+        Alert a = new Alert(AlertType.INFORMATION);
+        a.setTitle("SECUR3DIT");
+        if(error instanceof CancellationException || (report!=null && report.cancelled)){
+            a.setHeaderText(encrypt ? "Encryption Cancelled" : "Decryption Cancelled");
+        }else if(error instanceof AuthenticationException){
+            a.setAlertType(AlertType.ERROR);
+            a.setHeaderText("Wrong password, the file was modified, or it is from an older version");
+        }else if(error!=null){
             displayError();
             return;
-        }   
+        }else if(folder){
+            a.setHeaderText(encrypt ? "Folder Encrypted" : "Folder Decrypted");
+        }else{
+            a.setHeaderText(encrypt ? "File Encrypted" : "File Decrypted");
+        }
+        if(report!=null){
+            if(!report.failures.isEmpty()){
+                a.setAlertType(AlertType.WARNING);
+            }
+            a.setContentText(String.format("%d files, %.1f MB at %.1f MB/s", report.files,
+                    report.bytes / (double) (1 << 20), report.megabytesPerSecond())
+                    + (report.failures.isEmpty() ? "" : "\n" + report.failures.size() + " files could not be processed"));
+        }else if(error instanceof CancellationException || error instanceof AuthenticationException){
+            a.setContentText("The file was left unchanged.");
+        }
+        TextArea metrics = new TextArea(CryptoMetrics.get().dump());
+        metrics.setEditable(false);
+        metrics.setStyle("-fx-font-family: monospace;");
+        a.getDialogPane().setExpandableContent(metrics);
+        a.showAndWait();
+    }
+    @FXML
+    void cancelTask(ActionEvent e){
+        if(task!=null){
+            task.stop();
+        }
     }
     @FXML
     void viewPassword(MouseEvent m){
@@ -259,6 +326,10 @@ public class encryptionController implements Initializable {
     }
     @FXML
     void backToHomepage(MouseEvent e) throws IOException{
+        if(task!=null){
+            task.stop();
+        }
+        AES256CTR.clearKeyCache();
         Main.stage.getScene().setRoot(FXMLLoader.load(getClass().getResource("homepage.fxml")));
     }
     /**
@@ -277,6 +348,9 @@ public class encryptionController implements Initializable {
         decryptionToggle=false;
         importMessage.setVisible(false);
         importButton3.setVisible(false);
+        cancelButton.setVisible(false);
+        progressBar.setVisible(false);
+        progressLabel.setVisible(false);
        
     }
 }    
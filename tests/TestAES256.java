@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import secur3dit.crypto.AES256;
+import secur3dit.crypto.AES256TTable;
 
 /**
  * This class performs tests of AES-256 using the test suite provided by
@@ -166,6 +167,7 @@ public final class TestAES256 {
 
         System.out.println("RUNNING TESTS...");
         int count = 0;
+        int countTTable = 0;
         
         // Iterate through the data points
         for (int i = 0; i < dataPoints.size(); ++i) {
@@ -180,9 +182,17 @@ public final class TestAES256 {
             if (Arrays.equals(temp, dataPoints.get(i).getOutput())) {
                 ++count;
             }
+
+            // Repeat with the T-table cipher core
+            temp = deepCopy(dataPoints.get(i).getInput());
+            AES256TTable.encrypt(temp, dataPoints.get(i).getKey());
+            if (Arrays.equals(temp, dataPoints.get(i).getOutput())) {
+                ++countTTable;
+            }
         }
 
         System.out.println("TOTAL: " + Integer.toString(dataPoints.size()));
-        System.out.println("PASSED: " + Integer.toString(count));
+        System.out.println("PASSED (REFERENCE): " + Integer.toString(count));
+        System.out.println("PASSED (T_TABLE): " + Integer.toString(countTTable));
     }
 }
\ No newline at end of file
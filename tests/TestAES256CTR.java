@@ -0,0 +1,658 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import secur3dit.crypto.AES256CTR;
+import secur3dit.crypto.AuthenticationException;
+import secur3dit.crypto.Backend;
+import secur3dit.crypto.CipherCore;
+import secur3dit.crypto.Container;
+import secur3dit.crypto.CounterLayout;
+import secur3dit.crypto.CryptoMetrics;
+import secur3dit.crypto.Progress;
+
+/**
+ * This class checks that the serial, parallel and mapped modes of AES256CTR
+ * are interchangeable, for files of various sizes.
+ * Every file gets its own nonce, so the modes are compared by decrypting
+ * the output of every mode with another one.
+ * The pure-Java and JCE backends are mixed in the same way.
+ * @author Priyanshul Govil
+ */
+public final class TestAES256CTR {
+
+    /**
+     * File sizes to test. They cover empty files, partial blocks, and sizes
+     * around the chunk boundaries of both modes.
+     */
+    private static final int[] SIZES = {
+        0, 1, 15, 16, 17, 4095, 65536, (1 << 20) - 1, 1 << 20, (1 << 20) + 1, (1 << 24) + 33
+    };
+
+    /**
+     * Writes {@code data} to a new temporary file.
+     * @param data  The contents of the file.
+     * @return      The path to the file.
+     * @throws IOException
+     */
+    private static Path writeTemp(byte[] data) throws IOException {
+
+        Path path = Files.createTempFile("secur3dit", ".bin");
+        Files.write(path, data);
+        return path;
+    }
+
+    /**
+     * Encrypts the same data in serial, parallel and mapped mode, and decrypts every
+     * file in another mode. It also checks that the nonces of the files differ.
+     * @param data  The plaintext.
+     * @param pool  The pool to use for parallel mode.
+     * @return      {@code true} if the test passed.
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    private static boolean testModes(byte[] data, ForkJoinPool pool)
+            throws IOException, NoSuchAlgorithmException {
+
+        AES256CTR java = new AES256CTR("secur3dit", Backend.JAVA, CipherCore.T_TABLE, CounterLayout.ADD_128);
+        AES256CTR ob = new AES256CTR("secur3dit", Backend.JCE, CipherCore.T_TABLE, CounterLayout.ADD_128);
+        Path serial = writeTemp(data);
+        Path parallel = writeTemp(data);
+        Path mapped = writeTemp(data);
+
+        try {
+            AES256CTR.encrypt(java, serial.toString());
+            AES256CTR.encrypt(ob, parallel.toString(), pool);
+            AES256CTR.encryptMapped(ob, mapped.toString(), pool);
+
+            byte[] serialBytes = Files.readAllBytes(serial);
+            if (data.length > 0 && Arrays.equals(serialBytes, Files.readAllBytes(parallel))) {
+                return false;
+            }
+
+            AES256CTR.decryption(ob, serial.toString(), pool);
+            AES256CTR.decryptionMapped(java, parallel.toString(), null);
+            AES256CTR.decryption(java, mapped.toString());
+            return Arrays.equals(Files.readAllBytes(serial), data) &&
+                   Arrays.equals(Files.readAllBytes(parallel), data) &&
+                   Arrays.equals(Files.readAllBytes(mapped), data);
+        }
+        finally {
+            Files.delete(serial);
+            Files.delete(parallel);
+            Files.delete(mapped);
+        }
+    }
+
+    /**
+     * Cancels an encryption and a decryption after their first chunk, and checks that
+     * the file is left exactly as it was before each call.
+     * @return  {@code true} if the test passed.
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    private static boolean testCancel() throws IOException, NoSuchAlgorithmException {
+
+        byte[] data = new byte[(3 << 20) + 7];
+        new Random(7).nextBytes(data);
+        AES256CTR ob = new AES256CTR("secur3dit");
+        Path path = writeTemp(data);
+
+        Progress cancelFirst = new Progress() {
+            private long bytes = 0;
+
+            @Override
+            public void advance(long count) {
+                bytes += count;
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return bytes > 0;
+            }
+        };
+
+        try {
+            try {
+                AES256CTR.encrypt(ob, path.toString(), null, cancelFirst);
+                return false;
+            }
+            catch (CancellationException e) {
+                if (!Arrays.equals(Files.readAllBytes(path), data)) {
+                    return false;
+                }
+            }
+
+            AES256CTR.encrypt(ob, path.toString());
+            byte[] encrypted = Files.readAllBytes(path);
+            try {
+                AES256CTR.decryption(ob, path.toString(), null, cancelFirst);
+                return false;
+            }
+            catch (CancellationException e) {
+                return Arrays.equals(Files.readAllBytes(path), encrypted);
+            }
+        }
+        finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Encrypts and decrypts into other files in a directory of its own, and checks that
+     * the inputs are kept and that no temporary file is left, even after a cancellation.
+     * @return  {@code true} if the test passed.
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    private static boolean testKeepOriginal() throws IOException, NoSuchAlgorithmException {
+
+        byte[] data = new byte[(2 << 20) + 5];
+        new Random(3).nextBytes(data);
+        AES256CTR ob = new AES256CTR("secur3dit");
+        Path directory = Files.createTempDirectory("secur3dit");
+        Path original = Files.write(directory.resolve("image.png"), data);
+        Path encrypted = directory.resolve("image.png.enc");
+        Path decrypted = directory.resolve("copy.png");
+
+        try {
+            AES256CTR.encrypt(ob, original.toString(), encrypted.toString(), ForkJoinPool.commonPool(), null);
+            AES256CTR.decryption(ob, encrypted.toString(), decrypted.toString(), null, null);
+            try {
+                AES256CTR.encrypt(ob, original.toString(), encrypted.toString(), null, new Progress() {
+                    @Override
+                    public void advance(long bytes) {
+                    }
+
+                    @Override
+                    public boolean isCancelled() {
+                        return true;
+                    }
+                });
+                return false;
+            }
+            catch (CancellationException e) {
+                // The previous output must be kept
+            }
+
+            return Arrays.equals(Files.readAllBytes(original), data) &&
+                   Arrays.equals(Files.readAllBytes(decrypted), data) &&
+                   Container.isEncrypted(encrypted.toString()) &&
+                   Files.list(directory).count() == 3;
+        }
+        finally {
+            Files.walk(directory).sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Checks the description of an encrypted file, and that a decrypted file is not a container.
+     * @return  {@code true} if the test passed.
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    private static boolean testContainer() throws IOException, NoSuchAlgorithmException {
+
+        int size = (3 << 20) + 7;
+        Path path = writeTemp(new byte[size]);
+        try {
+            if (Container.isEncrypted(path.toString())) {
+                return false;
+            }
+
+            AES256CTR.encrypt(new AES256CTR("secur3dit"), path.toString());
+            Container container = Container.read(path.toString());
+            boolean described = container != null && container.getVersion() == 4 &&
+                                container.isAuthenticated() && container.isKeyDerived() && container.getLayout() == CounterLayout.ADD_128 &&
+                                container.getDataLength() == size && container.getChunkCount() == 4 &&
+                                container.getChunkOffset(3) == 3L * container.getChunkSize() &&
+                                container.getChunkLength(3) == 7;
+
+            AES256CTR.decryption(new AES256CTR("secur3dit"), path.toString());
+            return described && !Container.isEncrypted(path.toString());
+        }
+        finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Decrypts ranges of an encrypted file, at and across block and chunk boundaries,
+     * with {@code decryptRange} and by seeking in a decrypting channel.
+     * The file itself must not change.
+     * @param authenticated {@code true} to encrypt the file with tags.
+     * @return  {@code true} if the test passed.
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    private static boolean testRange(boolean authenticated) throws IOException, NoSuchAlgorithmException {
+
+        byte[] data = new byte[(3 << 20) + 7];
+        new Random(11).nextBytes(data);
+        AES256CTR ob = new AES256CTR("secur3dit", Backend.configured(), CipherCore.T_TABLE,
+                                     CounterLayout.ADD_128, authenticated);
+        Path path = writeTemp(data);
+
+        final long[][] RANGES = {
+            {0, 0}, {0, 1}, {0, 16}, {5, 20}, {15, 2}, {(1 << 20) - 3, 9},
+            {(1 << 20) + 17, 200000}, {data.length - 7, 7}, {data.length - 1, 1}, {0, data.length}
+        };
+
+        try {
+            AES256CTR.encrypt(ob, path.toString());
+            byte[] encrypted = Files.readAllBytes(path);
+
+            for (long[] range : RANGES) {
+                int from = (int) range[0];
+                int to = from + (int) range[1];
+                byte[] expected = Arrays.copyOfRange(data, from, to);
+                if (!Arrays.equals(AES256CTR.decryptRange(ob, path.toString(), from, to - from), expected)) {
+                    return false;
+                }
+            }
+
+            try (SeekableByteChannel channel = AES256CTR.openDecrypting(ob, path.toString())) {
+
+                if (channel.size() != data.length) {
+                    return false;
+                }
+
+                // Read the second half, then the first half, with an odd buffer size
+                ByteBuffer buffer = ByteBuffer.allocate(1000);
+                byte[] read = new byte[data.length];
+                int half = data.length / 2 + 3;
+                int[][] parts = { {half, data.length}, {0, half} };
+                for (int[] part : parts) {
+                    channel.position(part[0]);
+                    int at = part[0];
+                    while (at < part[1]) {
+                        buffer.clear();
+                        buffer.limit(Math.min(buffer.capacity(), part[1] - at));
+                        at += channel.read(buffer);
+                        buffer.flip();
+                        buffer.get(read, at - buffer.limit(), buffer.limit());
+                    }
+                }
+                buffer.clear();
+                if (!Arrays.equals(read, data) || channel.position(data.length).read(buffer) != -1) {
+                    return false;
+                }
+            }
+
+            return Arrays.equals(Files.readAllBytes(path), encrypted);
+        }
+        finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Checks that a wrong password, a modified byte and a modified tag are all rejected
+     * in every mode, before the file is written, and that the other chunks of a modified
+     * file can still be read with a decrypting channel. Also checks that mapped mode keeps
+     * the trailer of a file it cannot decrypt.
+     * @return  {@code true} if the test passed.
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    private static boolean testAuthentication() throws IOException, NoSuchAlgorithmException {
+
+        byte[] data = new byte[(5 << 20) + 3];
+        new Random(5).nextBytes(data);
+        Path path = writeTemp(data);
+
+        try {
+            AES256CTR.encrypt(new AES256CTR("secur3dit"), path.toString());
+            byte[] encrypted = Files.readAllBytes(path);
+
+            // A wrong password, then a flipped bit in the fourth chunk, then in the trailer tag
+            AES256CTR[] keys = { new AES256CTR("secur3diT"), new AES256CTR("secur3dit"), new AES256CTR("secur3dit") };
+            long[] flips = { -1, (3 << 20) + 100, encrypted.length - 14 };
+
+            for (int i = 0; i < keys.length; ++i) {
+                if (flips[i] >= 0) {
+                    try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+                        file.seek(flips[i]);
+                        file.write(encrypted[(int) flips[i]] ^ 1);
+                    }
+                }
+                byte[] tampered = Files.readAllBytes(path);
+
+                for (int mode = 0; mode < 3; ++mode) {
+                    try {
+                        if (mode == 0) {
+                            AES256CTR.decryption(keys[i], path.toString());
+                        }
+                        else if (mode == 1) {
+                            AES256CTR.decryption(keys[i], path.toString(), ForkJoinPool.commonPool());
+                        }
+                        else {
+                            AES256CTR.decryptionMapped(keys[i], path.toString(), ForkJoinPool.commonPool());
+                        }
+                        return false;
+                    }
+                    catch (AuthenticationException e) {
+                        if (!Arrays.equals(Files.readAllBytes(path), tampered)) {
+                            return false;
+                        }
+                    }
+                }
+
+                if (i == 1) {
+                    byte[] head = AES256CTR.decryptRange(keys[i], path.toString(), 0, 3 << 20);
+                    if (!Arrays.equals(head, Arrays.copyOf(data, 3 << 20))) {
+                        return false;
+                    }
+                    try {
+                        AES256CTR.decryptRange(keys[i], path.toString(), (3 << 20) + 5, 1);
+                        return false;
+                    }
+                    catch (AuthenticationException e) {
+                        // The modified chunk cannot be read
+                    }
+                }
+                Files.write(path, encrypted);
+            }
+
+            // A file without tags, which needs the password, is left whole by an instance without one
+            Files.write(path, data);
+            AES256CTR.encrypt(new AES256CTR("secur3dit", Backend.configured(), CipherCore.T_TABLE,
+                                            CounterLayout.ADD_128, false), path.toString());
+            byte[] untagged = Files.readAllBytes(path);
+            try {
+                AES256CTR.decryptionMapped(new AES256CTR(new char[32]), path.toString(), null);
+                return false;
+            }
+            catch (IOException e) {
+                if (!Arrays.equals(Files.readAllBytes(path), untagged)) {
+                    return false;
+                }
+            }
+
+            AES256CTR.decryption(new AES256CTR("secur3dit", Backend.configured(), CipherCore.T_TABLE,
+                                               CounterLayout.ADD_128, false), path.toString());
+            return Arrays.equals(Files.readAllBytes(path), data);
+        }
+        finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Downgrades the trailer of an authenticated file to version 3 by removing its tags,
+     * and removes the trailer altogether, with a modified byte in the data. Both must be
+     * refused in every mode by an instance with authentication, and the file left as it was.
+     * @return  {@code true} if the test passed.
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    private static boolean testDowngrade() throws IOException, NoSuchAlgorithmException {
+
+        byte[] data = new byte[(1 << 20) + 100000];
+        new Random(13).nextBytes(data);
+        Path path = writeTemp(data);
+        AES256CTR ob = new AES256CTR("secur3dit");
+
+        try {
+            AES256CTR.encrypt(ob, path.toString());
+            byte[] encrypted = Files.readAllBytes(path);
+
+            // [body][body length: 4][version: 1][magic: 8], the body of version 4 ending with
+            // [MAC: 1][2 chunk tags][trailer tag]
+            int tail = 4 + 1 + 8;
+            int tags = 1 + 3 * 16;
+            ByteBuffer end = ByteBuffer.wrap(encrypted, encrypted.length - tail, tail);
+            int bodyLength = end.getInt();
+            byte[] downgraded = Arrays.copyOf(encrypted, encrypted.length - tail - tags + tail);
+            ByteBuffer.wrap(downgraded, downgraded.length - tail, tail).putInt(bodyLength - tags).put((byte) 3)
+                      .put(encrypted, encrypted.length - 8, 8);
+            byte[] stripped = Arrays.copyOf(encrypted, data.length);
+            downgraded[100] ^= 1;
+            stripped[100] ^= 1;
+
+            for (byte[] tampered : new byte[][] { downgraded, stripped }) {
+                Files.write(path, tampered);
+                for (int mode = 0; mode < 4; ++mode) {
+                    try {
+                        if (mode == 0) {
+                            AES256CTR.decryption(ob, path.toString());
+                        }
+                        else if (mode == 1) {
+                            AES256CTR.decryptionMapped(ob, path.toString(), ForkJoinPool.commonPool());
+                        }
+                        else if (mode == 2) {
+                            AES256CTR.decryptRange(ob, path.toString(), 0, 1000);
+                        }
+                        else {
+                            AES256CTR.openDecrypting(ob, path.toString()).close();
+                        }
+                        return false;
+                    }
+                    catch (AuthenticationException e) {
+                        if (!Arrays.equals(Files.readAllBytes(path), tampered)) {
+                            return false;
+                        }
+                    }
+                }
+            }
+            return true;
+        }
+        finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Converts a hexadecimal string into bytes.
+     * @param hex   The string, two digits per byte.
+     * @return      The bytes.
+     */
+    private static byte[] fromHex(String hex) {
+
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    /**
+     * Decrypts the files of LEGACY_FILES.csv, which were encrypted by previous versions:
+     * without a trailer with {@code CounterLayout.XOR_32} (version 0 in the file), and
+     * with trailers of versions 1 and 2. Every line holds the version, the password,
+     * the plaintext and the encrypted file, in hexadecimal. An instance without
+     * authentication must decrypt them, and an instance with it must leave them as they are.
+     * @return  {@code true} if the test passed.
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    private static boolean testLegacyFiles() throws IOException, NoSuchAlgorithmException {
+
+        for (String line : Files.readAllLines(Paths.get("LEGACY_FILES.csv"))) {
+
+            String[] fields = line.split(",");
+            byte[] data = fromHex(fields[2]);
+            byte[] encrypted = fromHex(fields[3]);
+            AES256CTR ob = new AES256CTR(fields[1], Backend.configured(), CipherCore.T_TABLE,
+                                         CounterLayout.ADD_128, false);
+            Path path = writeTemp(encrypted);
+
+            try {
+                try {
+                    AES256CTR.decryption(new AES256CTR(fields[1]), path.toString());
+                    return false;
+                }
+                catch (AuthenticationException e) {
+                    if (!Arrays.equals(Files.readAllBytes(path), encrypted)) {
+                        return false;
+                    }
+                }
+
+                if (!Arrays.equals(AES256CTR.decryptRange(ob, path.toString(), 0, data.length), data) ||
+                    (Container.read(path.toString()) == null) != fields[0].equals("0")) {
+                    return false;
+                }
+                AES256CTR.decryption(ob, path.toString());
+                if (!Arrays.equals(Files.readAllBytes(path), data)) {
+                    return false;
+                }
+            }
+            finally {
+                Files.delete(path);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks that the metrics count the files and bytes of a round trip, and a failure.
+     * @return  {@code true} if the test passed.
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    private static boolean testMetrics() throws IOException, NoSuchAlgorithmException {
+
+        byte[] data = new byte[(1 << 20) + 3];
+        new Random(5).nextBytes(data);
+        Path path = Files.write(Files.createTempFile("secur3dit", ".bin"), data);
+        CryptoMetrics metrics = CryptoMetrics.get();
+        metrics.reset();
+
+        try {
+            AES256CTR ob = new AES256CTR("secur3dit");
+            AES256CTR.encrypt(ob, path.toString(), null);
+            AES256CTR.decryption(ob, path.toString(), ForkJoinPool.commonPool());
+            AES256CTR.encryptMapped(ob, path.toString(), null);
+            try {
+                AES256CTR.decryptionMapped(new AES256CTR("wrong"), path.toString(), null);
+                return false;
+            }
+            catch (AuthenticationException e) {
+                // Counted as a failure
+            }
+
+            long files = 0;
+            for (long count : metrics.getFileLatencyHistogram()) {
+                files += count;
+            }
+            return metrics.getFilesEncrypted() == 2 && metrics.getFilesDecrypted() == 1 &&
+                   metrics.getFilesFailed() == 1 && files == 3 &&
+                   metrics.getBytesEncrypted() == 2L * data.length &&
+                   metrics.getBytesDecrypted() == data.length &&
+                   metrics.getCipherNanos() > 0 && metrics.getBlocksPerSecond() > 0 &&
+                   metrics.getFileLatencyPercentileMillis(99) >= metrics.getFileLatencyPercentileMillis(50) &&
+                   metrics.dump().contains("key derivations");
+        }
+        finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Runs the tests and prints the output to the console.
+     * @param args None required
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    public static void main(String[] args) throws IOException, NoSuchAlgorithmException {
+
+        System.out.println("RUNNING TESTS...");
+        Random random = new Random(42);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        int count = 0;
+
+        for (int i = 0; i < SIZES.length; ++i) {
+
+            byte[] data = new byte[SIZES[i]];
+            random.nextBytes(data);
+
+            if (testModes(data, pool)) {
+                ++count;
+            }
+            else {
+                System.out.println("FAILED: size " + Integer.toString(SIZES[i]));
+            }
+        }
+        pool.shutdown();
+
+        boolean selfTest = Backend.selfTest();
+        System.out.println("BACKEND SELF-TEST: " + (selfTest ? "PASSED" : "FAILED"));
+        if (selfTest) {
+            ++count;
+        }
+
+        if (testCancel()) {
+            ++count;
+        }
+        else {
+            System.out.println("FAILED: cancel");
+        }
+
+        if (testKeepOriginal()) {
+            ++count;
+        }
+        else {
+            System.out.println("FAILED: keep original");
+        }
+
+        if (testContainer()) {
+            ++count;
+        }
+        else {
+            System.out.println("FAILED: container");
+        }
+
+        if (testRange(false)) {
+            ++count;
+        }
+        else {
+            System.out.println("FAILED: range");
+        }
+
+        if (testRange(true)) {
+            ++count;
+        }
+        else {
+            System.out.println("FAILED: authenticated range");
+        }
+
+        if (testAuthentication()) {
+            ++count;
+        }
+        else {
+            System.out.println("FAILED: authentication");
+        }
+
+        if (testDowngrade()) {
+            ++count;
+        }
+        else {
+            System.out.println("FAILED: downgrade");
+        }
+
+        if (testLegacyFiles()) {
+            ++count;
+        }
+        else {
+            System.out.println("FAILED: legacy files");
+        }
+
+        if (testMetrics()) {
+            ++count;
+        }
+        else {
+            System.out.println("FAILED: metrics");
+        }
+
+        System.out.println("TOTAL: " + Integer.toString(SIZES.length + 10));
+        System.out.println("PASSED: " + Integer.toString(count));
+    }
+}
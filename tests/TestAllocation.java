@@ -0,0 +1,132 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import secur3dit.crypto.AES256CTR;
+import secur3dit.crypto.BlockCipher;
+import secur3dit.crypto.CipherCore;
+
+/**
+ * This class checks that encrypting does not allocate memory per block,
+ * using the number of bytes allocated by the current thread as reported by the JVM.
+ * @author Priyanshul Govil
+ */
+public final class TestAllocation {
+
+    /**
+     * Number of blocks encrypted by every test.
+     */
+    private static final int BLOCKS = 1 << 20;
+
+    /**
+     * Allowed bytes allocated by the cipher tests, for all the blocks together.
+     * An allocation of even a few bytes per block goes well above this.
+     */
+    private static final long CIPHER_LIMIT = 1 << 16;
+
+    /**
+     * Allowed bytes allocated by the file test. The file is streamed through
+     * one chunk buffer of 1 MB, allocated once per call.
+     */
+    private static final long FILE_LIMIT = 2 << 20;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * @return The total number of bytes allocated by the current thread so far.
+     */
+    private static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Encrypts {@code BLOCKS} blocks with a cipher core.
+     * @param cipher    The cipher.
+     * @param data      The blocks to encrypt, in place.
+     */
+    private static void encryptBlocks(BlockCipher cipher, byte[] data) {
+
+        for (int i = 0; i < data.length; i += 16) {
+            cipher.encryptBlock(data, i, data, i);
+        }
+    }
+
+    /**
+     * Measures the bytes allocated by a cipher core to encrypt {@code BLOCKS} blocks.
+     * The blocks are encrypted once before measuring, so that the JIT compiler has run.
+     * @param core  The cipher core.
+     * @return      The number of bytes allocated.
+     */
+    private static long measureCipher(CipherCore core) {
+
+        BlockCipher cipher = core.newCipher(new byte[32]);
+        byte[] data = new byte[BLOCKS * 16];
+        encryptBlocks(cipher, data);
+
+        long before = allocatedBytes();
+        encryptBlocks(cipher, data);
+        return allocatedBytes() - before;
+    }
+
+    /**
+     * Measures the bytes allocated to encrypt a file of {@code BLOCKS} blocks in serial mode.
+     * @return The number of bytes allocated.
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    private static long measureFile() throws IOException, NoSuchAlgorithmException {
+
+        byte[] data = new byte[BLOCKS * 16];
+        new Random(42).nextBytes(data);
+        Path path = Files.createTempFile("secur3dit", ".bin");
+        Files.write(path, data);
+        data = null;
+
+        try {
+            AES256CTR ob = new AES256CTR("secur3dit");
+            AES256CTR.encrypt(ob, path.toString());
+
+            long before = allocatedBytes();
+            AES256CTR.encrypt(ob, path.toString());
+            return allocatedBytes() - before;
+        }
+        finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Runs the tests and prints the output to the console.
+     * @param args None required
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    public static void main(String[] args) throws IOException, NoSuchAlgorithmException {
+
+        System.out.println("RUNNING TESTS...");
+        int total = 0;
+        int count = 0;
+
+        for (CipherCore core : CipherCore.values()) {
+            long allocated = measureCipher(core);
+            System.out.println(core + ": " + Long.toString(allocated) + " bytes allocated");
+            ++total;
+            if (allocated <= CIPHER_LIMIT) {
+                ++count;
+            }
+        }
+
+        long allocated = measureFile();
+        System.out.println("FILE: " + Long.toString(allocated) + " bytes allocated");
+        ++total;
+        if (allocated <= FILE_LIMIT) {
+            ++count;
+        }
+
+        System.out.println("TOTAL: " + Integer.toString(total));
+        System.out.println("PASSED: " + Integer.toString(count));
+    }
+}
@@ -0,0 +1,214 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+import secur3dit.crypto.AES256CTR;
+import secur3dit.crypto.DirectoryBatch;
+
+/**
+ * This class checks that the files of a directory tree encrypted with DirectoryBatch
+ * can be decrypted one by one with AES256CTR, that the temporary files written
+ * during a batch are never taken for files of the tree, and that cancelling works.
+ * @author Priyanshul Govil
+ */
+public final class TestDirectoryBatch {
+
+    /**
+     * File sizes of the tree. Many small files, so that they are grouped,
+     * and a few files large enough to be split across the pool.
+     */
+    private static final int[] SIZES = {
+        0, 1, 17, 4096, 65537, 1 << 20, (1 << 24) + 5, 1 << 25
+    };
+
+    private static final int COPIES = 40;
+
+    /**
+     * Builds a tree of random files in nested directories.
+     * @param random    The source of the contents.
+     * @return          The root of the tree.
+     * @throws IOException
+     */
+    private static Path buildTree(Random random) throws IOException {
+
+        Path root = Files.createTempDirectory("secur3dit");
+        for (int i = 0; i < COPIES; ++i) {
+
+            Path directory = Files.createDirectories(root.resolve("d" + (i % 7)).resolve("e" + (i % 3)));
+            int size = SIZES[i % SIZES.length];
+            if (size > (1 << 20) && i >= SIZES.length) {
+                continue;
+            }
+
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            Files.write(directory.resolve("f" + i), data);
+        }
+        return root;
+    }
+
+    /**
+     * Deletes a tree, files first.
+     * @param root  The root of the tree.
+     * @throws IOException
+     */
+    private static void deleteTree(Path root) throws IOException {
+
+        Path[] paths = Files.walk(root).sorted((a, b) -> b.compareTo(a)).toArray(Path[]::new);
+        for (Path path : paths) {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Encrypts a tree with a batch, and checks that a copy of every file decrypted
+     * on its own gives the original contents. Then decrypts the tree with a batch.
+     * A temporary file left by a killed run must be skipped both times.
+     * @return  {@code true} if the test passed.
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    private static boolean testBatch() throws IOException, NoSuchAlgorithmException {
+
+        AES256CTR ob = new AES256CTR("secur3dit");
+        Path root = buildTree(new Random(42));
+        Path[] files = Files.walk(root).filter(Files::isRegularFile).toArray(Path[]::new);
+        byte[][] plain = new byte[files.length][];
+        byte[] leftover = { 1, 2, 3 };
+        Path temp = Files.write(root.resolve(".image.png.4821.tmp"), leftover);
+
+        try {
+            for (int i = 0; i < files.length; ++i) {
+                plain[i] = Files.readAllBytes(files[i]);
+            }
+
+            DirectoryBatch.Report report = new DirectoryBatch(ob, 3).encrypt(root.toString());
+            System.out.println(String.format("ENCRYPTED %d FILES AT %.1f MB/s",
+                                             report.files, report.megabytesPerSecond()));
+            if (report.files != files.length || !report.failures.isEmpty() || report.cancelled) {
+                return false;
+            }
+
+            for (int i = 0; i < files.length; ++i) {
+                Path single = Files.createTempFile("secur3dit", ".bin");
+                Files.copy(files[i], single, StandardCopyOption.REPLACE_EXISTING);
+                AES256CTR.decryption(ob, single.toString());
+                boolean same = Arrays.equals(Files.readAllBytes(single), plain[i]);
+                Files.delete(single);
+                if (!same) {
+                    return false;
+                }
+            }
+
+            report = new DirectoryBatch(ob, 3).decryption(root.toString());
+            for (int i = 0; i < files.length; ++i) {
+                if (!Arrays.equals(plain[i], Files.readAllBytes(files[i]))) {
+                    return false;
+                }
+            }
+            return report.files == files.length && Arrays.equals(Files.readAllBytes(temp), leftover);
+        }
+        finally {
+            deleteTree(root);
+        }
+    }
+
+    /**
+     * Encrypts a directory of many small files on several workers, so that files are
+     * written while others are still to be found, and checks that exactly the files
+     * of the tree were encrypted, once each.
+     * @return  {@code true} if the test passed.
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    private static boolean testManyFiles() throws IOException, NoSuchAlgorithmException {
+
+        AES256CTR ob = new AES256CTR("secur3dit");
+        Path root = Files.createTempDirectory("secur3dit");
+        int count = 3000;
+        for (int i = 0; i < count; ++i) {
+            Files.write(root.resolve("f" + i), new byte[] { (byte) i });
+        }
+
+        try {
+            DirectoryBatch.Report report = new DirectoryBatch(ob, 4).encrypt(root.toString());
+            if (report.files != count || !report.failures.isEmpty()) {
+                return false;
+            }
+
+            report = new DirectoryBatch(ob, 4).decryption(root.toString());
+            Path[] files = Files.list(root).toArray(Path[]::new);
+            if (report.files != count || !report.failures.isEmpty() || files.length != count) {
+                return false;
+            }
+            for (int i = 0; i < count; ++i) {
+                if (!Arrays.equals(Files.readAllBytes(root.resolve("f" + i)), new byte[] { (byte) i })) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        finally {
+            deleteTree(root);
+        }
+    }
+
+    /**
+     * Checks that a batch cancelled before it starts does not touch any file.
+     * @return  {@code true} if the test passed.
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    private static boolean testCancel() throws IOException, NoSuchAlgorithmException {
+
+        Path root = buildTree(new Random(7));
+        try {
+            DirectoryBatch batch = new DirectoryBatch(new AES256CTR("secur3dit"), 2);
+            batch.cancel();
+            DirectoryBatch.Report report = batch.encrypt(root.toString());
+            return report.cancelled && report.files == 0 && report.bytes == 0;
+        }
+        finally {
+            deleteTree(root);
+        }
+    }
+
+    /**
+     * Runs the tests and prints the output to the console.
+     * @param args None required
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    public static void main(String[] args) throws IOException, NoSuchAlgorithmException {
+
+        System.out.println("RUNNING TESTS...");
+        int count = 0;
+
+        if (testBatch()) {
+            ++count;
+        }
+        else {
+            System.out.println("FAILED: batch");
+        }
+
+        if (testManyFiles()) {
+            ++count;
+        }
+        else {
+            System.out.println("FAILED: many files");
+        }
+
+        if (testCancel()) {
+            ++count;
+        }
+        else {
+            System.out.println("FAILED: cancel");
+        }
+
+        System.out.println("TOTAL: 3");
+        System.out.println("PASSED: " + Integer.toString(count));
+    }
+}
@@ -0,0 +1,366 @@
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.UnaryOperator;
+import secur3dit.filters.EditGraph;
+import secur3dit.filters.FilterPipeline;
+import secur3dit.filters.Filters;
+
+/**
+ * This class checks the filters against the colour of every pixel as read with
+ * {@code getRGB}, and checks that an image gives the same result whatever its type,
+ * since the filters only work directly on the pixels of {@code TYPE_INT_RGB} and
+ * {@code TYPE_INT_ARGB} images and convert the others. It also checks that
+ * the filters give the same pixels in bands on a pool as on one thread, and that
+ * a FilterPipeline gives the same pixels as the filters one after another, as does
+ * an EditGraph after its edits are changed, undone and redone, and on its preview.
+ * @author Vivek Nathani
+ */
+public final class TestFilters {
+
+    private static final int WIDTH = 97;
+    private static final int HEIGHT = 61;
+
+    /**
+     * @param type  The type of the image.
+     * @param seed  The seed of the pixels.
+     * @return      An opaque image of noise over a gradient, so that neighbourhoods vary.
+     */
+    private static BufferedImage randomImage(int type, long seed) {
+        return randomImage(WIDTH, HEIGHT, type, seed);
+    }
+
+    private static BufferedImage randomImage(int width, int height, int type, long seed) {
+
+        BufferedImage image = new BufferedImage(width, height, type);
+        Random random = new Random(seed);
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                int base = (x * 5 + y * 3) & 0xFF;
+                image.setRGB(x, y, 0xFF000000 | (Math.min(255, base + random.nextInt(48)) << 16)
+                                              | (random.nextInt(256) << 8) | ((base * 3) & 0xFF));
+            }
+        }
+        return image;
+    }
+
+    /**
+     * @return  {@code true} if both images have the same size and the same colour at every pixel.
+     */
+    private static boolean sameColours(BufferedImage a, BufferedImage b) {
+
+        if (a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight()) {
+            return false;
+        }
+        for (int y = 0; y < a.getHeight(); ++y) {
+            for (int x = 0; x < a.getWidth(); ++x) {
+                if (a.getRGB(x, y) != b.getRGB(x, y)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks a filter which changes every pixel on its own against the expected colour.
+     * @param filter    The filter.
+     * @param expected  The expected colour of a pixel from its colour in the input.
+     * @return          {@code true} if the test passed.
+     */
+    private static boolean testPointFilter(UnaryOperator<BufferedImage> filter, UnaryOperator<Integer> expected) {
+
+        BufferedImage image = randomImage(BufferedImage.TYPE_INT_RGB, 1);
+        BufferedImage result = filter.apply(image);
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                if (result.getRGB(x, y) != expected.apply(image.getRGB(x, y))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static int gray(int rgb) {
+
+        int sum = (int) (((rgb >> 16) & 0xFF) * 0.2126) + (int) (((rgb >> 8) & 0xFF) * 0.7152)
+                + (int) ((rgb & 0xFF) * 0.0722);
+        return 0xFF000000 | (sum << 16) | (sum << 8) | sum;
+    }
+
+    private static int darkenHalf(int rgb) {
+
+        int red = (int) (((rgb >> 16) & 0xFF) * 0.5);
+        int green = (int) (((rgb >> 8) & 0xFF) * 0.5);
+        int blue = (int) ((rgb & 0xFF) * 0.5);
+        return 0xFF000000 | (red << 16) | (green << 8) | blue;
+    }
+
+    /**
+     * Checks that a filter gives the same colours for the same pixels stored as
+     * {@code TYPE_INT_RGB}, {@code TYPE_3BYTE_BGR}, and as a part of a larger image.
+     * @param filter    The filter.
+     * @return          {@code true} if the test passed.
+     */
+    private static boolean testImageTypes(UnaryOperator<BufferedImage> filter) {
+
+        BufferedImage packed = randomImage(BufferedImage.TYPE_INT_RGB, 2);
+        BufferedImage bytes = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        BufferedImage larger = new BufferedImage(WIDTH + 3, HEIGHT + 2, BufferedImage.TYPE_INT_RGB);
+        BufferedImage part = larger.getSubimage(2, 1, WIDTH, HEIGHT);
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                bytes.setRGB(x, y, packed.getRGB(x, y));
+                part.setRGB(x, y, packed.getRGB(x, y));
+            }
+        }
+
+        BufferedImage expected = filter.apply(packed);
+        return sameColours(expected, filter.apply(bytes)) && sameColours(expected, filter.apply(part));
+    }
+
+    /**
+     * Checks that a filter gives the same pixels on a pool of threads as in serial mode,
+     * on an image large enough to be split into bands.
+     * @param filter    The filter.
+     * @return          {@code true} if the test passed.
+     */
+    private static boolean testParallel(UnaryOperator<BufferedImage> filter) {
+
+        BufferedImage image = randomImage(643, 419, BufferedImage.TYPE_INT_RGB, 4);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Filters.setPool(null);
+            BufferedImage serial = filter.apply(image);
+            Filters.setPool(pool);
+            return sameColours(serial, filter.apply(image));
+        }
+        finally {
+            Filters.setPool(ForkJoinPool.commonPool());
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Checks that pipelines, whose colour adjustments are fused, give the same pixels
+     * as the filters applied one after another, and make one pass per stage.
+     * @return  {@code true} if the test passed.
+     */
+    private static boolean testPipeline() {
+
+        BufferedImage image = randomImage(BufferedImage.TYPE_3BYTE_BGR, 5);
+        BufferedImage original = Filters.mirror(Filters.mirror(image, true), true);
+
+        FilterPipeline adjustments = new FilterPipeline().brighten(0.3).posterize().negative().grayscale().sepia();
+        BufferedImage expected = Filters.sepia(Filters.grayscale(Filters.negative(
+                                 Filters.posterize(Filters.brighten(image, 0.3)))));
+        if (adjustments.getStageCount() != 1 || !sameColours(expected, adjustments.apply(image))) {
+            return false;
+        }
+
+        FilterPipeline mixed = new FilterPipeline().sepia().darken(-0.4).sharpen(2).negative()
+                                                   .grayscale().posterize().gaussianBlur(2).brighten(0.1);
+        expected = Filters.brighten(Filters.gaussianBlur(Filters.posterize(Filters.grayscale(Filters.negative(
+                   Filters.sharpen(Filters.darken(Filters.sepia(image), -0.4), 2)))), 2), 0.1);
+        if (mixed.getStageCount() != 5 || !sameColours(expected, mixed.apply(image))) {
+            return false;
+        }
+
+        // The input is never modified, and an empty pipeline gives a copy
+        BufferedImage copy = new FilterPipeline().apply(image);
+        return copy != image && sameColours(image, copy) && sameColours(original, image);
+    }
+
+    /**
+     * Checks that an EditGraph gives the image of its edits after one is changed or removed,
+     * that undo and redo give back the images of the states, and that it never caches
+     * more than its size.
+     * @return  {@code true} if the test passed.
+     */
+    private static boolean testEditGraph() {
+
+        BufferedImage image = randomImage(BufferedImage.TYPE_INT_RGB, 6);
+        long imageBytes = 4L * WIDTH * HEIGHT;
+        EditGraph edits = new EditGraph(image, 3 * imageBytes);
+
+        BufferedImage rotated = edits.add("rotate", new FilterPipeline().rotate(10));
+        edits.add("brighten", new FilterPipeline().brighten(0.2));
+        edits.add("sepia", new FilterPipeline().sepia());
+        BufferedImage sharpened = edits.add("sharpen", new FilterPipeline().sharpen(1));
+        boolean passed = sameColours(sharpened,
+                                     new FilterPipeline().rotate(10).brighten(0.2).sepia().sharpen(1).apply(image));
+
+        // Change the brightness, which applies sepia and sharpen again
+        BufferedImage changed = edits.replace(edits.indexOf("brighten"), new FilterPipeline().darken(-0.3));
+        passed &= sameColours(changed, new FilterPipeline().rotate(10).darken(-0.3).sepia().sharpen(1).apply(image));
+        passed &= edits.size() == 4 && edits.getCachedBytes() <= 3 * imageBytes;
+
+        BufferedImage removed = edits.remove(0);
+        passed &= sameColours(removed, new FilterPipeline().darken(-0.3).sepia().sharpen(1).apply(image));
+
+        // Undo to the first edit, then redo everything
+        passed &= edits.undo() == changed;
+        for (int i = 0; i < 4; ++i) {
+            edits.undo();
+        }
+        passed &= sameColours(edits.getOutput(), rotated) && edits.canUndo();
+        passed &= edits.undo() == image && !edits.canUndo();
+        while (edits.canRedo()) {
+            edits.redo();
+        }
+        passed &= sameColours(edits.getOutput(), removed);
+
+        // A new edit after an undo forgets the states which were undone
+        edits.undo();
+        edits.add("negative", new FilterPipeline().negative());
+        return passed && !edits.canRedo() && edits.size() == 5;
+    }
+
+    /**
+     * Checks that scaling averages the pixels it covers, and that the preview of
+     * an EditGraph is the edits applied to the scaled input, with the blur scaled,
+     * without changing its edits.
+     * @return  {@code true} if the test passed.
+     */
+    private static boolean testPreview() {
+
+        // Each pixel of a quarter of the size is the average of 4 pixels
+        BufferedImage image = randomImage(4 * 40, 4 * 30, BufferedImage.TYPE_INT_RGB, 7);
+        BufferedImage small = Filters.scale(image, 40, 1000);
+        boolean passed = small.getWidth() == 40 && small.getHeight() == 30;
+        int red = 0;
+        for (int y = 0; y < 4; ++y) {
+            for (int x = 0; x < 4; ++x) {
+                red += (image.getRGB(4 * 5 + x, 4 * 7 + y) >> 16) & 0xFF;
+            }
+        }
+        passed &= ((small.getRGB(5, 7) >> 16) & 0xFF) == red / 16;
+        passed &= sameColours(Filters.scale(small, 100, 100), small);
+
+        EditGraph edits = new EditGraph(image, 1 << 20, 40, 30);
+        edits.add("sepia", new FilterPipeline().sepia());
+        edits.add("blur", scale -> new FilterPipeline().gaussianBlur((int) Math.round(8 * scale)));
+        passed &= sameColours(edits.getPreview(), new FilterPipeline().sepia().gaussianBlur(2).apply(small));
+        passed &= sameColours(edits.getOutput(), new FilterPipeline().sepia().gaussianBlur(8).apply(image));
+
+        // Previewing a change, or a new edit, does not change the edits
+        BufferedImage output = edits.getOutput();
+        BufferedImage preview = edits.preview(0, scale -> new FilterPipeline().negative());
+        passed &= sameColours(preview, new FilterPipeline().negative().gaussianBlur(2).apply(small));
+        preview = edits.preview(2, scale -> new FilterPipeline().posterize());
+        passed &= sameColours(preview, new FilterPipeline().sepia().gaussianBlur(2).posterize().apply(small));
+        return passed && edits.size() == 2 && edits.getOutput() == output;
+    }
+
+    /**
+     * Checks that rotating by 0 degrees keeps every pixel, and that mirroring twice
+     * gives back the image.
+     * @return  {@code true} if the test passed.
+     */
+    private static boolean testGeometry() {
+
+        BufferedImage image = randomImage(BufferedImage.TYPE_INT_RGB, 3);
+
+        return sameColours(image, Filters.rotate(image, 0)) &&
+               sameColours(image, Filters.mirror(Filters.mirror(image, true), true)) &&
+               sameColours(image, Filters.mirror(Filters.mirror(image, false), false));
+    }
+
+    /**
+     * Runs the tests and prints the output to the console.
+     * @param args None required
+     */
+    public static void main(String[] args) {
+
+        System.out.println("RUNNING TESTS...");
+        int count = 0;
+
+        if (testPointFilter(Filters::grayscale, TestFilters::gray)) {
+            ++count;
+        }
+        else {
+            System.out.println("FAILED: grayscale");
+        }
+
+        if (testPointFilter(Filters::negative, rgb -> 0xFF000000 | ~rgb)) {
+            ++count;
+        }
+        else {
+            System.out.println("FAILED: negative");
+        }
+
+        if (testPointFilter(image -> Filters.darken(image, -0.5), TestFilters::darkenHalf)) {
+            ++count;
+        }
+        else {
+            System.out.println("FAILED: darken");
+        }
+
+        if (testPointFilter(image -> Filters.brighten(image, 1.0), rgb -> 0xFFFFFFFF)) {
+            ++count;
+        }
+        else {
+            System.out.println("FAILED: brighten");
+        }
+
+        if (testGeometry()) {
+            ++count;
+        }
+        else {
+            System.out.println("FAILED: rotate and mirror");
+        }
+
+        if (testPipeline()) {
+            ++count;
+        }
+        else {
+            System.out.println("FAILED: pipeline");
+        }
+
+        if (testEditGraph()) {
+            ++count;
+        }
+        else {
+            System.out.println("FAILED: edit graph");
+        }
+
+        if (testPreview()) {
+            ++count;
+        }
+        else {
+            System.out.println("FAILED: preview");
+        }
+
+        String[] names = {"grayscale", "sepia", "posterize", "edges", "blur", "pixelate", "sharpen", "rotate", "mirror"};
+        List<UnaryOperator<BufferedImage>> filters = List.of(
+            Filters::grayscale,
+            Filters::sepia,
+            Filters::posterize,
+            Filters::detectEdges,
+            image -> Filters.gaussianBlur(image, 4),
+            image -> Filters.pixelate(image, 7),
+            image -> Filters.sharpen(image, 2),
+            image -> Filters.rotate(image, 33),
+            image -> Filters.mirror(image, false)
+        );
+        for (int i = 0; i < filters.size(); ++i) {
+            if (testImageTypes(filters.get(i))) {
+                ++count;
+            }
+            else {
+                System.out.println("FAILED: image types, " + names[i]);
+            }
+            if (testParallel(filters.get(i))) {
+                ++count;
+            }
+            else {
+                System.out.println("FAILED: parallel, " + names[i]);
+            }
+        }
+
+        System.out.println("TOTAL: " + Integer.toString(8 + 2 * filters.size()));
+        System.out.println("PASSED: " + Integer.toString(count));
+    }
+}